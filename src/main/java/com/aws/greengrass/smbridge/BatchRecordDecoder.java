@@ -0,0 +1,88 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits a stream record written by a batching mapping back into the messages it holds.
+ *
+ * <p>A batch record is the magic bytes {@code 'S' 'B'}, a version byte (1), the message count as an unsigned
+ * LEB128 varint, then each message as a varint length followed by its bytes. Each message is what the mapping
+ * would have appended on its own, including its metadata header if any. This class has no dependency outside the
+ * JDK, so that consumers can copy it.
+ */
+public final class BatchRecordDecoder {
+    static final byte MAGIC_0 = 'S';
+    static final byte MAGIC_1 = 'B';
+    static final byte VERSION = 1;
+    static final int PREFIX_LENGTH = 3;
+    private static final int MAX_VARINT_SHIFT = 28;
+
+    private BatchRecordDecoder() {
+    }
+
+    /**
+     * Check whether a record starts like a batch record.
+     *
+     * @param record stream record
+     * @return true if the record has the batch record prefix
+     */
+    public static boolean isBatchRecord(byte[] record) {
+        return record != null && record.length >= PREFIX_LENGTH && record[0] == MAGIC_0 && record[1] == MAGIC_1
+                && record[2] == VERSION;
+    }
+
+    /**
+     * Split a batch record into its messages.
+     *
+     * @param record stream record
+     * @return the messages, in the order they were received
+     * @throws IllegalArgumentException if the record is not a well-formed batch record
+     */
+    public static List<byte[]> decode(byte[] record) {
+        if (!isBatchRecord(record)) {
+            throw new IllegalArgumentException("Not a batch record");
+        }
+        int[] position = {PREFIX_LENGTH};
+        int count = readVarint(record, position);
+        // Every message takes at least one byte, do not trust the count with the allocation
+        List<byte[]> messages = new ArrayList<>(Math.min(count, record.length));
+        for (int i = 0; i < count; i++) {
+            int length = readVarint(record, position);
+            if (length > record.length - position[0]) {
+                throw new IllegalArgumentException("Truncated batch record");
+            }
+            messages.add(Arrays.copyOfRange(record, position[0], position[0] + length));
+            position[0] += length;
+        }
+        if (position[0] != record.length) {
+            throw new IllegalArgumentException("Trailing bytes after batch record");
+        }
+        return messages;
+    }
+
+    private static int readVarint(byte[] record, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift <= MAX_VARINT_SHIFT; shift += 7) {
+            if (position[0] >= record.length) {
+                throw new IllegalArgumentException("Truncated batch record");
+            }
+            int b = record[position[0]++];
+            if (shift == MAX_VARINT_SHIFT && (b & 0xF8) != 0) {
+                // Longer than 31 bits
+                break;
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid length in batch record");
+    }
+}
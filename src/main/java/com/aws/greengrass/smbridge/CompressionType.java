@@ -0,0 +1,48 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Locale;
+
+/**
+ * Compression applied to the payloads of a mapping before they are appended. Records of a mapping compressing its
+ * payloads start with a flag byte telling whether the rest is compressed, see {@link PayloadCompressor}.
+ */
+public enum CompressionType {
+    /**
+     * Payloads are appended as they are.
+     */
+    NONE,
+    /**
+     * The zlib format of RFC 1950, starting with {@code 0x78}, as read by {@link java.util.zip.Inflater}.
+     */
+    DEFLATE,
+    /**
+     * The gzip format of RFC 1952, starting with {@code 0x1f 0x8b}, as read by
+     * {@link java.util.zip.GZIPInputStream}.
+     */
+    GZIP;
+
+    /**
+     * Parse a compression type from the mapping configuration.
+     *
+     * @param value configured value, case insensitive
+     * @return compression type
+     * @throws IllegalArgumentException if the value is not a known type
+     */
+    @JsonCreator
+    public static CompressionType fromString(String value) {
+        return CompressionType.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+
+    @JsonValue
+    public String toConfigString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
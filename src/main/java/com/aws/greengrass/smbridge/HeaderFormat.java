@@ -0,0 +1,49 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Locale;
+
+/**
+ * Format of the metadata header written in front of the payload when a mapping appends the time or the topic.
+ */
+public enum HeaderFormat {
+    /**
+     * 2-byte big-endian header length, then a JSON object with the local time formatted as
+     * {@code yyyy/MM/dd HH:mm:ss.SSSSSS} and the topic.
+     */
+    JSON,
+    /**
+     * A CBOR map with the epoch microseconds as an integer under {@code timestamp} and the topic as a text string
+     * under {@code topic}. CBOR items carry their own length, so there is no length prefix.
+     */
+    CBOR,
+    /**
+     * A flags byte (bit 0 timestamp, bit 1 topic), then the epoch microseconds as an unsigned LEB128 varint and
+     * the topic as a varint length followed by its UTF-8 bytes, each present only if its flag is set.
+     */
+    BINARY;
+
+    /**
+     * Parse a header format from the mapping configuration.
+     *
+     * @param value configured value, case insensitive
+     * @return header format
+     * @throws IllegalArgumentException if the value is not a known format
+     */
+    @JsonCreator
+    public static HeaderFormat fromString(String value) {
+        return HeaderFormat.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+
+    @JsonValue
+    public String toConfigString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
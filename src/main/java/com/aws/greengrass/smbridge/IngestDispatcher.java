@@ -0,0 +1,236 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.aws.greengrass.logging.api.Logger;
+import com.aws.greengrass.logging.impl.LogManager;
+import lombok.Getter;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands received messages over to worker threads through bounded queues, so that the MQTT callback thread only
+ * enqueues and never waits on Stream Manager.
+ *
+ * <p>With {@link Ordering#NONE} all workers share one queue. When the queue is full the task runs on the calling
+ * thread, which slows the MQTT client down instead of dropping data.
+ *
+ * <p>With {@link Ordering#STREAM} each worker is a single-threaded lane with its own queue, and tasks are assigned
+ * to a lane by the hash of their key. Tasks with the same key run one at a time in dispatch order, tasks with
+ * different keys run in parallel. When a lane is full the caller waits for room, since running the task on the
+ * calling thread would reorder it.
+ */
+public class IngestDispatcher {
+    private static final Logger LOGGER = LogManager.getLogger(IngestDispatcher.class);
+    public static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+    public static final int DEFAULT_WORKER_COUNT = 4;
+    public static final String DEFAULT_ORDERING = "none";
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    @Getter
+    private final Ordering ordering;
+    private final ThreadPoolExecutor[] executors;
+    private final AtomicLong overflowCount = new AtomicLong();
+
+    private final RejectedExecutionHandler runOnCaller = (task, pool) -> {
+        if (pool.isShutdown()) {
+            LOGGER.atWarn().log("Message received after ingest shutdown, dropping it");
+            return;
+        }
+        overflowCount.incrementAndGet();
+        task.run();
+    };
+
+    private final RejectedExecutionHandler waitForRoom = (task, pool) -> {
+        if (pool.isShutdown()) {
+            LOGGER.atWarn().log("Message received after ingest shutdown, dropping it");
+            return;
+        }
+        overflowCount.incrementAndGet();
+        try {
+            pool.getQueue().put(task);
+        } catch (InterruptedException e) {
+            LOGGER.atWarn().log("Interrupted while waiting for room in ingest lane, dropping message");
+            Thread.currentThread().interrupt();
+        }
+    };
+
+    /**
+     * How tasks are assigned to workers.
+     */
+    public enum Ordering {
+        /**
+         * Any worker may run any task.
+         */
+        NONE,
+        /**
+         * Tasks with the same key always run on the same single-threaded lane.
+         */
+        STREAM;
+
+        /**
+         * Parse an ordering from the component configuration.
+         *
+         * @param value configured value, case insensitive
+         * @return ordering
+         * @throws IllegalArgumentException if the value is not a known ordering
+         */
+        public static Ordering fromString(String value) {
+            return Ordering.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Ctr for IngestDispatcher without ordering.
+     *
+     * @param queueCapacity maximum number of messages waiting for a worker
+     * @param workerCount   number of worker threads draining the queue
+     */
+    public IngestDispatcher(int queueCapacity, int workerCount) {
+        this(queueCapacity, workerCount, Ordering.NONE);
+    }
+
+    /**
+     * Ctr for IngestDispatcher.
+     *
+     * @param queueCapacity maximum number of messages waiting for a worker, split evenly across lanes
+     * @param workerCount   number of worker threads, which is the number of lanes when ordered
+     * @param ordering      how tasks are assigned to workers
+     */
+    public IngestDispatcher(int queueCapacity, int workerCount, Ordering ordering) {
+        if (queueCapacity <= 0 || workerCount <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Ingest queue capacity and worker count must be positive, got %d and %d", queueCapacity,
+                    workerCount));
+        }
+        this.ordering = ordering;
+        ThreadFactory threadFactory = new WorkerThreadFactory();
+        if (ordering == Ordering.STREAM) {
+            int laneCapacity = Math.max(1, queueCapacity / workerCount);
+            this.executors = new ThreadPoolExecutor[workerCount];
+            for (int i = 0; i < workerCount; i++) {
+                executors[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(laneCapacity), threadFactory, waitForRoom);
+            }
+        } else {
+            this.executors = new ThreadPoolExecutor[]{new ThreadPoolExecutor(workerCount, workerCount, 0L,
+                    TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), threadFactory, runOnCaller)};
+        }
+        for (ThreadPoolExecutor executor : executors) {
+            executor.prestartAllCoreThreads();
+        }
+        LOGGER.atInfo().kv("queueCapacity", queueCapacity).kv("workerCount", workerCount).kv("ordering", ordering)
+                .log("Started ingest workers");
+    }
+
+    public boolean isOrdered() {
+        return ordering == Ordering.STREAM;
+    }
+
+    /**
+     * Queue a task for the workers.
+     *
+     * @param key  ordering key, tasks with the same key run in dispatch order when ordered
+     * @param task task to run
+     */
+    public void dispatch(String key, Runnable task) {
+        laneFor(key).execute(task);
+    }
+
+    /**
+     * Queue a task for the workers unless its queue is full. The task is never run on the calling thread, and the
+     * caller never waits.
+     *
+     * @param key  ordering key, tasks with the same key run in dispatch order when ordered
+     * @param task task to run
+     * @return false if the task was not queued because its queue is full or the dispatcher is shut down
+     */
+    public boolean tryDispatch(String key, Runnable task) {
+        ThreadPoolExecutor lane = laneFor(key);
+        if (lane.isShutdown()) {
+            return false;
+        }
+        // Every worker is started up front and never times out, so a queued task is always picked up
+        if (lane.getQueue().offer(task)) {
+            return true;
+        }
+        overflowCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Number of tasks which found their queue full, and either ran on the calling thread, made it wait or were
+     * not queued.
+     *
+     * @return overflow count
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    /**
+     * Number of tasks waiting for a worker, across all lanes.
+     *
+     * @return queued task count
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (ThreadPoolExecutor executor : executors) {
+            size += executor.getQueue().size();
+        }
+        return size;
+    }
+
+    /**
+     * Stop accepting messages and wait for the queued ones to be handled.
+     */
+    public void shutdown() {
+        for (ThreadPoolExecutor executor : executors) {
+            executor.shutdown();
+        }
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_TIMEOUT_SECONDS);
+            for (ThreadPoolExecutor executor : executors) {
+                long remaining = Math.max(0L, deadline - System.nanoTime());
+                if (!executor.awaitTermination(remaining, TimeUnit.NANOSECONDS)) {
+                    LOGGER.atWarn().kv("pending", executor.getQueue().size())
+                            .log("Ingest workers did not finish in time, dropping pending messages");
+                    executor.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            for (ThreadPoolExecutor executor : executors) {
+                executor.shutdownNow();
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ThreadPoolExecutor laneFor(String key) {
+        if (executors.length == 1) {
+            return executors[0];
+        }
+        return executors[Math.floorMod(key.hashCode(), executors.length)];
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "sm-bridge-ingest-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
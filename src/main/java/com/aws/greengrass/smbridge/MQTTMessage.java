@@ -5,13 +5,25 @@
 
 package com.aws.greengrass.smbridge;
 
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import lombok.Value;
 
 /**
  * Common representation of a Message.
  */
 @Value
+@AllArgsConstructor
 public class MQTTMessage {
     private String topic;
     private byte[] payload;
+    // Set when the message must be acknowledged once stored, null when the client acknowledges it on receipt
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private MessageAck ack;
+
+    public MQTTMessage(String topic, byte[] payload) {
+        this(topic, payload, null);
+    }
 }
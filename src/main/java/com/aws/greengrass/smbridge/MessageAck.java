@@ -0,0 +1,21 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+/**
+ * Settles a message received in at-least-once mode. Only the first call to either method has an effect.
+ */
+public interface MessageAck {
+    /**
+     * Acknowledge the message to the broker, which will not deliver it again.
+     */
+    void acknowledge();
+
+    /**
+     * Give up on the message without acknowledging it. The broker delivers it again once reconnected.
+     */
+    void release();
+}
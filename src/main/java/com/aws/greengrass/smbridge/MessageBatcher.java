@@ -0,0 +1,370 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.aws.greengrass.logging.api.Logger;
+import com.aws.greengrass.logging.impl.LogManager;
+import lombok.Value;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gathers the messages of batching mappings per stream and batch settings, and publishes each batch as a single
+ * record framed as described in {@link BatchRecordDecoder}.
+ *
+ * <p>When the mapping compresses its records, the whole batch record is compressed rather than each message, which
+ * compresses better.
+ *
+ * <p>A batch is published by the thread adding the message which fills it, or once its first message has waited for
+ * the linger time. The linger thread does not publish itself, it hands the batch over to the ingest lane of its
+ * stream, so that a slow stream only holds up its own lane. Batches are published outside of their lock, so adding to
+ * a batch never waits for Stream Manager, and the records of a batch are still published in order.
+ *
+ * <p>Messages received in at-least-once mode are settled once the batch holding them is published.
+ */
+public class MessageBatcher {
+    private static final Logger LOGGER = LogManager.getLogger(MessageBatcher.class);
+
+    private final Publisher publisher;
+    private final PayloadCompressor compressor;
+    private final Lanes lanes;
+    private final Map<BatchKey, Batch> batches = new ConcurrentHashMap<>();
+    private final LongAdder batchedMessages = new LongAdder();
+    private final LongAdder publishedRecords = new LongAdder();
+    // Created on first use, most deployments do not batch
+    private ScheduledExecutorService lingerScheduler;
+
+    // Mappings with different batch settings writing to the same stream each have their own batch
+    @Value
+    private static class BatchKey {
+        String stream;
+        TopicMapping.BatchConfig config;
+        TopicMapping.CompressionConfig compression;
+    }
+
+    private static final class Batch {
+        private final String stream;
+        private final TopicMapping.CompressionConfig compression;
+        private final List<byte[]> payloads = new ArrayList<>();
+        // Acknowledgements of the messages in at-least-once mode
+        private final List<PendingAck> acks = new ArrayList<>();
+        private int payloadBytes;
+        // Incremented on every flush, so that the linger timer of a batch already published does nothing
+        private long generation;
+        // Records taken from the batch and not published yet, oldest first
+        private final Queue<Record> ready = new ArrayDeque<>();
+        // Held while publishing, so that the records of the batch are published one at a time and in order
+        private final Object publishLock = new Object();
+
+        private Batch(BatchKey key) {
+            this.stream = key.getStream();
+            this.compression = key.getCompression();
+        }
+    }
+
+    private static final class Record {
+        private final List<byte[]> payloads;
+        private final int payloadBytes;
+        private final List<PendingAck> acks;
+
+        private Record(List<byte[]> payloads, int payloadBytes, List<PendingAck> acks) {
+            this.payloads = payloads;
+            this.payloadBytes = payloadBytes;
+            this.acks = acks;
+        }
+    }
+
+    /**
+     * Publishes a batch record to its stream.
+     */
+    @FunctionalInterface
+    public interface Publisher {
+        /**
+         * Publish a batch record.
+         *
+         * @param record     batch record
+         * @param unbuffered true if the record holds messages to acknowledge, which must not be buffered in memory
+         * @return true if the record was appended or spilled, false if it is not stored
+         */
+        boolean publish(StreamMessage record, boolean unbuffered);
+    }
+
+    /**
+     * Runs the publishing of lingering batches on the ingest lane of their stream.
+     */
+    @FunctionalInterface
+    public interface Lanes {
+        /**
+         * Queue a task on the lane of a stream, without waiting for room.
+         *
+         * @param stream stream the task publishes to
+         * @param task   task to run
+         * @return false if the task was not queued, for instance because the lane is full
+         */
+        boolean tryRun(String stream, Runnable task);
+    }
+
+    /**
+     * Ctr for MessageBatcher publishing lingering batches on the linger thread.
+     *
+     * @param publisher publishes a batch record to its stream
+     */
+    public MessageBatcher(Publisher publisher) {
+        this(publisher, new PayloadCompressor());
+    }
+
+    /**
+     * Ctr for MessageBatcher publishing lingering batches on the linger thread.
+     *
+     * @param publisher  publishes a batch record to its stream
+     * @param compressor compresses batch records
+     */
+    public MessageBatcher(Publisher publisher, PayloadCompressor compressor) {
+        this(publisher, compressor, (stream, task) -> {
+            task.run();
+            return true;
+        });
+    }
+
+    /**
+     * Ctr for MessageBatcher.
+     *
+     * @param publisher  publishes a batch record to its stream
+     * @param compressor compresses batch records
+     * @param lanes      runs the publishing of lingering batches
+     */
+    public MessageBatcher(Publisher publisher, PayloadCompressor compressor, Lanes lanes) {
+        this.publisher = publisher;
+        this.compressor = compressor;
+        this.lanes = lanes;
+    }
+
+    public void add(StreamMessage message, TopicMapping.BatchConfig config) {
+        add(message, config, null, null);
+    }
+
+    /**
+     * Add a message to the batch of its stream and settings, publishing the batch if the message fills it.
+     *
+     * @param message     message as it would be appended on its own, uncompressed
+     * @param config      limits of the batch
+     * @param compression compression of the batch record, or null
+     * @param ack         settled once the batch is published, or null
+     */
+    public void add(StreamMessage message, TopicMapping.BatchConfig config,
+                    TopicMapping.CompressionConfig compression, PendingAck ack) {
+        Batch batch = batches.computeIfAbsent(new BatchKey(message.getStream(), config, compression), Batch::new);
+        byte[] payload = message.getPayload();
+        boolean taken = false;
+        synchronized (batch) {
+            if (!batch.payloads.isEmpty() && batch.payloadBytes + payload.length > config.getMaxBytes()) {
+                // Keep the batch under the byte limit, unless a single message is over it
+                taken = take(batch);
+            }
+            batch.payloads.add(payload);
+            batch.payloadBytes += payload.length;
+            if (ack != null) {
+                batch.acks.add(ack);
+            }
+            batchedMessages.increment();
+            if (batch.payloads.size() >= config.getMaxMessages() || batch.payloadBytes >= config.getMaxBytes()) {
+                taken = take(batch);
+            } else if (batch.payloads.size() == 1 && !scheduleLinger(batch, batch.generation, config.getLingerMs())) {
+                // Flushed for shutdown in the meantime, do not keep the message waiting
+                taken = take(batch);
+            }
+        }
+        if (taken) {
+            publishReady(batch);
+        }
+    }
+
+    /**
+     * Frame a single message as a batch record, for messages which skip the batch but must look the same to
+     * consumers of the stream.
+     *
+     * @param message     message as it would be appended on its own, uncompressed
+     * @param compression compression of the batch record, or null
+     * @return message with the batch record as payload
+     */
+    public StreamMessage single(StreamMessage message, TopicMapping.CompressionConfig compression) {
+        return new StreamMessage(message.getStream(), compressor.compress(
+                encode(Collections.singletonList(message.getPayload()), message.getPayload().length), compression));
+    }
+
+    /**
+     * Publish all pending batches on the calling thread, and stop the linger thread.
+     */
+    public void flushAll() {
+        ScheduledExecutorService scheduler;
+        synchronized (this) {
+            scheduler = lingerScheduler;
+            lingerScheduler = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        for (Batch batch : batches.values()) {
+            synchronized (batch) {
+                take(batch);
+            }
+            publishReady(batch);
+        }
+    }
+
+    /**
+     * Number of messages added to a batch.
+     *
+     * @return batched message count
+     */
+    public long getBatchedMessageCount() {
+        return batchedMessages.sum();
+    }
+
+    /**
+     * Number of batch records published.
+     *
+     * @return published record count
+     */
+    public long getPublishedRecordCount() {
+        return publishedRecords.sum();
+    }
+
+    // Returns false if the linger thread is shut down
+    private boolean scheduleLinger(Batch batch, long generation, long lingerMillis) {
+        try {
+            lingerScheduler().schedule(() -> lingerElapsed(batch, generation, lingerMillis),
+                    Math.max(0, lingerMillis), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    // Runs on the linger thread, which only hands the batch over to the lane of its stream
+    private void lingerElapsed(Batch batch, long generation, long lingerMillis) {
+        synchronized (batch) {
+            if (batch.generation != generation) {
+                return;
+            }
+        }
+        if (!lanes.tryRun(batch.stream, () -> flushIfLingering(batch, generation))) {
+            // The lane is full or shut down, check again later. Once shut down, flushAll publishes the batch.
+            scheduleLinger(batch, generation, lingerMillis);
+        }
+    }
+
+    private void flushIfLingering(Batch batch, long generation) {
+        synchronized (batch) {
+            if (batch.generation != generation) {
+                return;
+            }
+            take(batch);
+        }
+        publishReady(batch);
+    }
+
+    private synchronized ScheduledExecutorService lingerScheduler() {
+        if (lingerScheduler == null) {
+            lingerScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "sm-bridge-batch-linger");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return lingerScheduler;
+    }
+
+    // Called holding the lock of the batch. Moves the pending messages to a record ready to publish, returns false if
+    // there were none.
+    private boolean take(Batch batch) {
+        if (batch.payloads.isEmpty()) {
+            return false;
+        }
+        List<PendingAck> acks = batch.acks.isEmpty() ? Collections.emptyList() : new ArrayList<>(batch.acks);
+        batch.ready.add(new Record(new ArrayList<>(batch.payloads), batch.payloadBytes, acks));
+        batch.payloads.clear();
+        batch.acks.clear();
+        batch.payloadBytes = 0;
+        batch.generation++;
+        return true;
+    }
+
+    // Called without holding the lock of the batch, publishes the records taken from it in order
+    private void publishReady(Batch batch) {
+        synchronized (batch.publishLock) {
+            while (true) {
+                Record record;
+                synchronized (batch) {
+                    record = batch.ready.poll();
+                }
+                if (record == null) {
+                    return;
+                }
+                publish(batch, record);
+            }
+        }
+    }
+
+    private void publish(Batch batch, Record record) {
+        byte[] payload = compressor.compress(encode(record.payloads, record.payloadBytes), batch.compression);
+        publishedRecords.increment();
+        LOGGER.atTrace().kv("Stream", batch.stream).kv("messages", record.payloads.size())
+                .kv("bytes", payload.length).log("Publishing batch");
+        boolean stored = publisher.publish(new StreamMessage(batch.stream, payload), !record.acks.isEmpty());
+        for (PendingAck ack : record.acks) {
+            ack.settle(stored);
+        }
+    }
+
+    static byte[] encode(List<byte[]> payloads, int payloadBytes) {
+        int length = BatchRecordDecoder.PREFIX_LENGTH + varintLength(payloads.size()) + payloadBytes;
+        for (byte[] payload : payloads) {
+            length += varintLength(payload.length);
+        }
+        byte[] record = new byte[length];
+        record[0] = BatchRecordDecoder.MAGIC_0;
+        record[1] = BatchRecordDecoder.MAGIC_1;
+        record[2] = BatchRecordDecoder.VERSION;
+        int position = putVarint(record, BatchRecordDecoder.PREFIX_LENGTH, payloads.size());
+        for (byte[] payload : payloads) {
+            position = putVarint(record, position, payload.length);
+            System.arraycopy(payload, 0, record, position, payload.length);
+            position += payload.length;
+        }
+        return record;
+    }
+
+    // Unsigned LEB128, as in the binary metadata header
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    private static int putVarint(byte[] target, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            target[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target[position++] = (byte) value;
+        return position;
+    }
+}
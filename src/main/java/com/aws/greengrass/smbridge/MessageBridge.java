@@ -8,19 +8,20 @@ package com.aws.greengrass.smbridge;
 import com.aws.greengrass.logging.api.Logger;
 import com.aws.greengrass.logging.impl.LogManager;
 import com.aws.greengrass.smbridge.clients.MQTTClient;
-import com.aws.greengrass.smbridge.clients.SMClient;
 import com.aws.greengrass.smbridge.clients.SMClientException;
-import org.eclipse.paho.client.mqttv3.MqttTopic;
+import com.aws.greengrass.smbridge.clients.SMConnectionSupervisor;
+import com.aws.greengrass.smbridge.clients.StreamFullException;
+import com.aws.greengrass.smbridge.spill.SpillLog;
+import lombok.AccessLevel;
+import lombok.Getter;
 
-import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.time.Instant;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Consumer;
 
 /**
  * Bridges/Routes the messages flowing from local MQTT to SM. This class process the topics mappings. It
@@ -28,18 +29,55 @@ import java.util.function.Consumer;
  */
 public class MessageBridge {
     private static final Logger LOGGER = LogManager.getLogger(MessageBridge.class);
+    // Placeholder for the reserved topic route. The stream is only known once a concrete topic matches.
+    private static final TopicMapping.MappingEntry RESERVED_ROUTE =
+            new ReservedTopicEntry(SMBridge.RESERVED_TOPIC, null);
 
     private final TopicMapping topicMapping;
     private MQTTClient mqttClient;
-    private SMClient smClient;
+    private SMConnectionSupervisor smSupervisor;
+    private volatile IngestDispatcher ingestDispatcher;
+    private volatile MessageTracer messageTracer = new MessageTracer();
+    private volatile SpillLog spillLog;
+    private volatile StreamStorageMonitor storageMonitor;
 
-    // A map from a source topic to a Mapping Entry. The Entry specifies the output stream and the optional
-    // append-values.
-    // Example:
-    // "/sourceTopic1" -> [{"/sourceTopic1", "outputStream1", false, true}]
-    @SuppressWarnings("PMD.ImmutableField")
-    private AtomicReference<Map<String, List<TopicMapping.MappingEntry>>> sourceDestinationMap =
-            new AtomicReference<>(new HashMap<>());
+    // The mapping compiled into a topic filter trie, used to route incoming messages, along with the filters to
+    // subscribe to. The reserved topic is compiled into the trie as well, with RESERVED_ROUTE as its entry.
+    private final AtomicReference<Routes> routes = new AtomicReference<>(
+            new Routes(-1, new TopicFilterTrie<>(), Collections.emptyMap()));
+
+    // Destinations already resolved for concrete topics, invalidated by the mapping generation
+    @Getter(AccessLevel.PACKAGE) // Let the unit test inspect hit/miss counters
+    private final RouteCache routeCache;
+
+    private final MetadataEncoder metadataEncoder = new MetadataEncoder();
+    private final PayloadCompressor payloadCompressor = new PayloadCompressor();
+
+    // Gathers the messages of batching mappings, and publishes the batches like any other message
+    @Getter(AccessLevel.PACKAGE) // Let the unit test inspect the counters
+    private final MessageBatcher messageBatcher = new MessageBatcher(
+            (record, unbuffered) -> publish(record, null, unbuffered), payloadCompressor, this::tryRunOnLane);
+
+    // Destination of a message published on the reserved topic, where the topic names the stream
+    private static final class ReservedTopicEntry extends TopicMapping.MappingEntry {
+        private ReservedTopicEntry(String topic, String stream) {
+            super(topic, stream, SMBridge.APPEND_TIME_DEFAULT_STREAM, SMBridge.APPEND_TOPIC_DEFAULT_STREAM);
+        }
+    }
+
+    private static final class Routes {
+        private final long generation;
+        private final TopicFilterTrie<TopicMapping.MappingEntry> trie;
+        // Filters subscribed to, no two of which match a common topic, with their QoS
+        private final Map<String, Integer> subscriptions;
+
+        private Routes(long generation, TopicFilterTrie<TopicMapping.MappingEntry> trie,
+                       Map<String, Integer> subscriptions) {
+            this.generation = generation;
+            this.trie = trie;
+            this.subscriptions = subscriptions;
+        }
+    }
 
     /**
      * Ctr for Message Bridge.
@@ -47,7 +85,18 @@ public class MessageBridge {
      * @param topicMapping topics mapping
      */
     public MessageBridge(TopicMapping topicMapping) {
+        this(topicMapping, RouteCache.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Ctr for Message Bridge.
+     *
+     * @param topicMapping       topics mapping
+     * @param routeCacheCapacity number of concrete topics whose destinations are cached, 0 disables the cache
+     */
+    public MessageBridge(TopicMapping topicMapping, int routeCacheCapacity) {
         this.topicMapping = topicMapping;
+        this.routeCache = new RouteCache(routeCacheCapacity);
         this.topicMapping.listenToUpdates(this::processMapping);
         processMapping();
     }
@@ -57,108 +106,310 @@ public class MessageBridge {
         updateSubscriptionsForClient(mqttClient);
     }
 
-    public void addOrReplaceSMClient(SMClient smClient) {
-        this.smClient = smClient;
+    public void addOrReplaceSMSupervisor(SMConnectionSupervisor smSupervisor) {
+        this.smSupervisor = smSupervisor;
+    }
+
+    /**
+     * Set the dispatcher handing received messages over to the ingest workers. Without a dispatcher, messages are
+     * handled on the thread of the MQTT client callback.
+     *
+     * @param ingestDispatcher ingest dispatcher, or null to handle messages on the callback thread
+     */
+    public void addOrReplaceIngestDispatcher(IngestDispatcher ingestDispatcher) {
+        this.ingestDispatcher = ingestDispatcher;
     }
 
-    private byte[] preparePayload(boolean appendTime, boolean appendTopic, MQTTMessage message) {
-        byte[] payload;
-        Metadata metadata = new Metadata();
-        if (appendTime) {
-            LocalDateTime now = LocalDateTime.now();
-            metadata.setTimestamp(now);
+    /**
+     * Set the tracer sampling per-message logs. Without one, nothing is logged per message.
+     *
+     * @param messageTracer message tracer
+     */
+    public void addOrReplaceMessageTracer(MessageTracer messageTracer) {
+        if (messageTracer != null) {
+            messageTracer.trackRouteCache(routeCache);
         }
-        if (appendTopic) {
-            metadata.setTopic(message.getTopic());
+        this.messageTracer = messageTracer;
+    }
+
+    /**
+     * Set the log messages are spilled to when they cannot be published or the ingest queue is full. Without one,
+     * such messages are dropped or wait for room in the queue.
+     *
+     * @param spillLog spill log, or null to disable spilling
+     */
+    public void addOrReplaceSpillLog(SpillLog spillLog) {
+        this.spillLog = spillLog;
+    }
+
+    /**
+     * Set the monitor slowing down publishing to streams which are close to full. Messages are only throttled when
+     * handed over to the per-stream lanes of an ordered ingest dispatcher, where a throttled message holds up the
+     * streams sharing its lane but no other thread. Otherwise messages are published at full speed, since the wait
+     * would stall a shared worker, the MQTT client callback or the other streams.
+     *
+     * @param storageMonitor storage monitor, or null to publish at full speed
+     */
+    public void addOrReplaceStorageMonitor(StreamStorageMonitor storageMonitor) {
+        this.storageMonitor = storageMonitor;
+    }
+
+    /**
+     * Publish the messages waiting in a batch, for instance before shutting down.
+     */
+    public void flushBatches() {
+        messageBatcher.flushAll();
+    }
+
+    /**
+     * Free the deflaters and buffers used to compress records, once no message is processed anymore.
+     */
+    public void releaseCompressors() {
+        payloadCompressor.release();
+    }
+
+    /**
+     * Payloads of one message prepared for its destinations. A payload is encoded at most once per header shape,
+     * that is per header format and combination of appended values, and shared by every destination with that
+     * shape. All destinations see the same timestamp. The last compressed payload is reused by the next
+     * destination compressing the same payload the same way.
+     */
+    private final class PreparedPayloads {
+        private static final int SHAPES_PER_FORMAT = 4;
+
+        private final ResolvedRoute route;
+        private final MQTTMessage message;
+        private final byte[][] payloadsByShape = new byte[HeaderFormat.values().length * SHAPES_PER_FORMAT][];
+        private Instant timestamp;
+        private byte[] lastUncompressed;
+        private TopicMapping.CompressionConfig lastCompression;
+        private byte[] lastCompressed;
+
+        private PreparedPayloads(ResolvedRoute route, MQTTMessage message) {
+            this.route = route;
+            this.message = message;
+        }
+
+        private byte[] forDestination(TopicMapping.MappingEntry destination) {
+            if (!destination.isAppendTime() && !destination.isAppendTopic()) {
+                return message.getPayload();
+            }
+            HeaderFormat format = destination.getHeaderFormat() == null ? HeaderFormat.JSON
+                    : destination.getHeaderFormat();
+            int shape = format.ordinal() * SHAPES_PER_FORMAT + (destination.isAppendTime() ? 1 : 0)
+                    + (destination.isAppendTopic() ? 2 : 0);
+            byte[] payload = payloadsByShape[shape];
+            if (payload == null) {
+                if (destination.isAppendTime() && timestamp == null) {
+                    timestamp = Instant.now();
+                }
+                payload = metadataEncoder.encode(format, destination.isAppendTime(), destination.isAppendTopic(),
+                        timestamp, route.getTopicBytes(), message.getPayload());
+                payloadsByShape[shape] = payload;
+            }
+            return payload;
         }
-        if (metadata.isEmpty()) {
-            payload = message.getPayload();
-        } else {
-            byte[] jsonBytes = metadata.toString().getBytes();
-            byte[] headerLengthInBytes = {(byte) (jsonBytes.length >> 8), (byte) jsonBytes.length};
-            payload = new byte[2 + jsonBytes.length + message.getPayload().length];
 
-            System.arraycopy(headerLengthInBytes, 0, payload, 0, 2);
-            System.arraycopy(jsonBytes, 0, payload, 2, jsonBytes.length);
-            System.arraycopy(
-                    message.getPayload(), 0, payload, 2 + jsonBytes.length, message.getPayload().length);
+        @SuppressWarnings("PMD.CompareObjectsWithEquals") // Payloads are shared, and matched by identity
+        private byte[] compressedForDestination(TopicMapping.MappingEntry destination) {
+            byte[] payload = forDestination(destination);
+            TopicMapping.CompressionConfig compression = destination.getCompression();
+            if (compression == null) {
+                return payload;
+            }
+            if (payload != lastUncompressed || !compression.equals(lastCompression)) {
+                lastCompressed = payloadCompressor.compress(payload, compression);
+                lastUncompressed = payload;
+                lastCompression = compression;
+            }
+            return lastCompressed;
+        }
+    }
+
+    private void onMessage(MQTTMessage message) {
+        IngestDispatcher dispatcher = ingestDispatcher;
+        if (dispatcher == null || dispatcher.isOrdered()) {
+            // Routing is cheap, when ordered only the publish to each stream is handed over to its lane
+            handleMessage(message, false);
+        } else if (spillLog == null) {
+            dispatcher.dispatch(message.getTopic(), () -> handleMessage(message, false));
+        } else if (!dispatcher.tryDispatch(message.getTopic(), () -> handleMessage(message, false))) {
+            // The queue is full, spill the message rather than holding up the MQTT client
+            handleMessage(message, true);
         }
-        return payload;
     }
 
-    private void handleMessage(MQTTMessage message) {
+    private void handleMessage(MQTTMessage message, boolean spillOnly) {
         String sourceTopic = message.getTopic();
-        LOGGER.atDebug().kv("sourceTopic", sourceTopic).log("Message received");
-
-        LOGGER.atDebug().kv("destinations", sourceDestinationMap).log("Message will be forwarded to destinations");
-
-        if (sourceDestinationMap != null) {
-            final Consumer<TopicMapping.MappingEntry> processDestination = destination -> {
-                String stream = destination.getStream();
-                LOGGER.atDebug().kv("stream", stream).kv("topic", message.getTopic()).log("Forwarding message");
-                StreamMessage streamMessage = new StreamMessage(stream, preparePayload(
-                        destination.isAppendTime(), destination.isAppendTopic(), message));
-                try {
-                    smClient.publish(streamMessage);
-                    LOGGER.atInfo().kv("Source Topic", message.getTopic()).kv("Destination Stream", stream)
-                            .log("Published message");
-                } catch (SMClientException e) {
-                    LOGGER.atError().setCause(e).kv("Stream", stream).log("Stream Publish failed");
-                }
-            };
-            // Perform topic matching on filter from mapped topics/destinations
-            sourceDestinationMap.get().entrySet().stream().filter(
-                    mapping -> MqttTopic.isMatched(mapping.getKey(), sourceTopic))
-                    .map(Map.Entry::getValue)
-                    .forEach(perTopicMapping -> perTopicMapping.forEach(processDestination));
-
-            // TODO: Handle the case where reserved topic is already matched by a user-configured mapping
-            // Perform topic matching against reserved topic
-            if (MqttTopic.isMatched(SMBridge.RESERVED_TOPIC, sourceTopic)) {
+        messageTracer.received();
+
+        ResolvedRoute route = resolveRoute(sourceTopic);
+
+        IngestDispatcher dispatcher = ingestDispatcher;
+        SpillLog spill = spillLog;
+        PreparedPayloads preparedPayloads = new PreparedPayloads(route, message);
+        // In at-least-once mode, the message is acknowledged once every destination stored it
+        PendingAck ack = message.getAck() == null ? null
+                : new PendingAck(message.getAck(), route.getDestinations().size());
+        for (TopicMapping.MappingEntry destination : route.getDestinations()) {
+            String stream = destination.getStream();
+            // The payload may be shared with other destinations and must not be modified
+            TopicMapping.BatchConfig batch = destination.getBatch();
+            // Batches are compressed as a whole
+            StreamMessage streamMessage = new StreamMessage(stream, batch == null
+                    ? preparedPayloads.compressedForDestination(destination)
+                    : preparedPayloads.forDestination(destination), destination instanceof ReservedTopicEntry);
+            Runnable task = batch == null ? () -> settle(ack, publish(streamMessage, sourceTopic, ack != null))
+                    : () -> messageBatcher.add(streamMessage, batch, destination.getCompression(), ack);
+            if (spillOnly) {
+                settle(ack, spill(spill, streamMessage, destination));
+            } else if (dispatcher == null || !dispatcher.isOrdered()) {
+                task.run();
+            } else if (spill == null) {
+                dispatcher.dispatch(stream, throttled(streamMessage, task));
+            } else if (!dispatcher.tryDispatch(stream, throttled(streamMessage, task))) {
+                settle(ack, spill(spill, streamMessage, destination));
+            }
+        }
+    }
+
+    // The task runs on the ingest lane of the stream, the only thread a throttled stream may hold up
+    private Runnable throttled(StreamMessage streamMessage, Runnable task) {
+        StreamStorageMonitor monitor = storageMonitor;
+        if (monitor == null) {
+            return task;
+        }
+        return () -> {
+            monitor.throttle(streamMessage.getStream(), streamMessage.getPayload().length);
+            task.run();
+        };
+    }
+
+    // Lingering batches are published by the ingest workers, on the lane of their stream when ordered
+    private boolean tryRunOnLane(String stream, Runnable task) {
+        IngestDispatcher dispatcher = ingestDispatcher;
+        if (dispatcher == null) {
+            task.run();
+            return true;
+        }
+        return dispatcher.tryDispatch(stream, task);
+    }
+
+    private static void settle(PendingAck ack, boolean stored) {
+        if (ack != null) {
+            ack.settle(stored);
+        }
+    }
+
+    /**
+     * Publish a message to its stream, or spill it if it cannot be published for now.
+     *
+     * @param streamMessage message to publish
+     * @param sourceTopic   topic the message was received on, or null for a batch record
+     * @param unbuffered    true if the message is to be acknowledged, so must not be buffered in memory
+     * @return true if the message was appended or spilled, false if it is not stored
+     */
+    private boolean publish(StreamMessage streamMessage, String sourceTopic, boolean unbuffered) {
+        MessageTracer tracer = messageTracer;
+        SpillLog spill = spillLog;
+        if (spill != null && spill.hasPending(streamMessage.getStream())) {
+            // Older messages of the stream are waiting to be replayed, queue up behind them to keep them in order
+            return spill(spill, streamMessage);
+        }
+        try {
+            if (unbuffered) {
+                smSupervisor.publishWithoutBuffering(streamMessage);
+            } else {
+                smSupervisor.publish(streamMessage);
+            }
+            tracer.published(sourceTopic, streamMessage);
+            return true;
+        } catch (StreamFullException e) {
+            // Counted and logged once per full period by SMClient, rather than once per message. Not spilled, a full
+            // stream may never have room again.
+            tracer.failed();
+            return false;
+        } catch (SMClientException e) {
+            tracer.failed();
+            if (spill != null && e.isRetryable()) {
+                return spill(spill, streamMessage);
+            }
+            LOGGER.atError().setCause(e).kv("Stream", streamMessage.getStream()).log("Stream Publish failed");
+            return false;
+        }
+    }
+
+    // A message of a batching mapping is spilled on its own, framed as a batch so that the stream only holds batches
+    private boolean spill(SpillLog spill, StreamMessage streamMessage, TopicMapping.MappingEntry destination) {
+        return spill(spill, destination.getBatch() == null ? streamMessage
+                : messageBatcher.single(streamMessage, destination.getCompression()));
+    }
+
+    private boolean spill(SpillLog spill, StreamMessage streamMessage) {
+        if (!spill.append(streamMessage)) {
+            LOGGER.atError().kv("Stream", streamMessage.getStream()).log("Unable to spill message, dropping it");
+            return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("PMD.CompareObjectsWithEquals") // RESERVED_ROUTE is matched by identity
+    private ResolvedRoute resolveRoute(String sourceTopic) {
+        Routes currentRoutes = routes.get();
+        ResolvedRoute cached = routeCache.get(sourceTopic, currentRoutes.generation);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Perform topic matching on filter from mapped topics/destinations and the reserved topic
+        List<TopicMapping.MappingEntry> destinations = currentRoutes.trie.match(sourceTopic);
+
+        // TODO: Handle the case where reserved topic is already matched by a user-configured mapping
+        for (int i = 0; i < destinations.size(); i++) {
+            if (destinations.get(i) == RESERVED_ROUTE) {
                 String stream = sourceTopic.split("/")[1];
-                StreamMessage streamMessage = new StreamMessage(stream, preparePayload(
-                        SMBridge.APPEND_TIME_DEFAULT_STREAM, SMBridge.APPEND_TOPIC_DEFAULT_STREAM, message));
-                try {
-                    smClient.publish(streamMessage);
-                    LOGGER.atInfo().kv("Source Topic", message.getTopic()).kv("Destination Stream", stream)
-                            .log("Published message");
-                } catch (SMClientException e) {
-                    LOGGER.atError().setCause(e).kv("Stream", stream).log("Stream Publish failed");
-                }
+                destinations.set(i, new ReservedTopicEntry(sourceTopic, stream));
             }
         }
+        ResolvedRoute route = new ResolvedRoute(sourceTopic, destinations);
+        routeCache.put(currentRoutes.generation, route);
+        return route;
     }
 
-    private void processMapping() {
+    // Serialized so that the routes of an older mapping generation never replace newer ones
+    private synchronized void processMapping() {
+        // Read the generation first, the mapping read below is at least as recent
+        long generation = topicMapping.getGeneration();
         List<TopicMapping.MappingEntry> mappingEntryList = topicMapping.getList();
         LOGGER.atDebug().kv("topicMapping", mappingEntryList).log("Processing mapping");
 
-        Map<String, List<TopicMapping.MappingEntry>> sourceDestinationMapTemp = new HashMap<>();
+        TopicFilterTrie<TopicMapping.MappingEntry> routesTemp = new TopicFilterTrie<>();
+        // Mappings of the same topic share its subscription, which takes the highest QoS any of them needs
+        Map<String, Integer> qosByTopic = new HashMap<>();
 
         mappingEntryList.forEach(mappingEntry -> {
-            // Add destinations for each source topic
-            sourceDestinationMapTemp.computeIfAbsent(mappingEntry.getTopic(), k -> new ArrayList<>())
-                    .add(mappingEntry);
+            routesTemp.add(mappingEntry.getTopic(), mappingEntry);
+            qosByTopic.merge(mappingEntry.getTopic(), mappingEntry.getQos(), Math::max);
         });
+        routesTemp.add(SMBridge.RESERVED_TOPIC, RESERVED_ROUTE);
+        qosByTopic.merge(SMBridge.RESERVED_TOPIC, TopicMapping.MappingEntry.DEFAULT_QOS, Math::max);
 
-        sourceDestinationMap.set(sourceDestinationMapTemp);
+        // Messages on a topic matching several filters are only received once through a filter covering them, and
+        // still routed to the mappings of every filter by the trie. The broker would send a copy per matching
+        // subscription, and copies cannot be told from a new message repeating the previous one.
+        Map<String, Integer> subscriptions = Collections.unmodifiableMap(TopicFilters.disjointCover(qosByTopic));
+        routes.set(new Routes(generation, routesTemp, subscriptions));
 
         if (mqttClient != null) {
             updateSubscriptionsForClient(mqttClient);
         }
-        LOGGER.atDebug().kv("topicMapping", sourceDestinationMap).log("Processed mapping");
+        LOGGER.atDebug().kv("subscriptions", subscriptions).log("Processed mapping");
     }
 
     private synchronized void updateSubscriptionsForClient(MQTTClient mqttClient) {
-        Set<String> topicsToSubscribe;
-        if (sourceDestinationMap == null) {
-            topicsToSubscribe = new HashSet<>();
-        } else {
-            topicsToSubscribe = new HashSet<>(sourceDestinationMap.get().keySet());
-        }
-        topicsToSubscribe.add(SMBridge.RESERVED_TOPIC);
-        LOGGER.atDebug().kv("topics", topicsToSubscribe).log("Updating subscriptions");
+        Map<String, Integer> subscriptions = routes.get().subscriptions;
+        LOGGER.atDebug().kv("topics", subscriptions).log("Updating subscriptions");
 
-        mqttClient.updateSubscriptions(topicsToSubscribe, message -> handleMessage(message));
+        mqttClient.updateSubscriptions(new HashSet<>(subscriptions.keySet()), subscriptions, this::onMessage);
     }
 }
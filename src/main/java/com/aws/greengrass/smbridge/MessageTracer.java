@@ -0,0 +1,181 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.aws.greengrass.logging.api.LogEventBuilder;
+import com.aws.greengrass.logging.api.Logger;
+import com.aws.greengrass.logging.impl.LogManager;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-message logging for the message path. Logging every message does not scale, so only a sample of the
+ * messages is traced, and aggregate counts are logged periodically instead. Once started, the summary is logged
+ * by its own thread on schedule, whether messages keep arriving or not.
+ *
+ * <p>Messages are sampled either 1 in N across all streams, or up to N per second for each stream. When neither
+ * sampling nor the summary is enabled, the message path makes no logger calls at all.
+ */
+public class MessageTracer {
+    public static final long DEFAULT_SAMPLE_EVERY = 0;
+    public static final double DEFAULT_SAMPLES_PER_SECOND = 0;
+    public static final long DEFAULT_SUMMARY_INTERVAL_SECONDS = 60;
+
+    private final Logger logger;
+    private final LongSupplier nanoClock;
+    private final long sampleEvery;
+    private final double samplesPerSecond;
+    private final long summaryIntervalSeconds;
+
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private final ConcurrentHashMap<String, TokenBucket> streamSamplers = new ConcurrentHashMap<>();
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private ScheduledExecutorService summaryScheduler;
+    // Route cache counters are cumulative, the summary logs their change since the previous summary
+    private volatile RouteCache routeCache;
+    private long summarizedRouteCacheHits;
+    private long summarizedRouteCacheMisses;
+
+    /**
+     * Ctr for a MessageTracer which neither samples nor summarizes.
+     */
+    public MessageTracer() {
+        this(DEFAULT_SAMPLE_EVERY, DEFAULT_SAMPLES_PER_SECOND, 0);
+    }
+
+    /**
+     * Ctr for MessageTracer.
+     *
+     * @param sampleEvery            trace 1 in this many messages, 0 to disable
+     * @param samplesPerSecond       trace up to this many messages per second and stream, takes precedence over
+     *                               sampleEvery, 0 to disable
+     * @param summaryIntervalSeconds seconds between summaries, 0 to disable
+     */
+    public MessageTracer(long sampleEvery, double samplesPerSecond, long summaryIntervalSeconds) {
+        this(sampleEvery, samplesPerSecond, summaryIntervalSeconds, LogManager.getLogger(MessageTracer.class),
+                System::nanoTime);
+    }
+
+    /**
+     * Ctr for MessageTracer with a custom logger and clock.
+     *
+     * @param sampleEvery            trace 1 in this many messages, 0 to disable
+     * @param samplesPerSecond       trace up to this many messages per second and stream, takes precedence over
+     *                               sampleEvery, 0 to disable
+     * @param summaryIntervalSeconds seconds between summaries, 0 to disable
+     * @param logger                 logger traces and summaries are written to
+     * @param nanoClock              monotonic clock in nanoseconds
+     */
+    public MessageTracer(long sampleEvery, double samplesPerSecond, long summaryIntervalSeconds, Logger logger,
+                         LongSupplier nanoClock) {
+        this.logger = logger;
+        this.nanoClock = nanoClock;
+        this.sampleEvery = Math.max(0, sampleEvery);
+        this.samplesPerSecond = Math.max(0, samplesPerSecond);
+        this.summaryIntervalSeconds = Math.max(0, summaryIntervalSeconds);
+    }
+
+    /**
+     * Start logging the summary every interval, if enabled.
+     */
+    public synchronized void start() {
+        if (summaryIntervalSeconds == 0 || summaryScheduler != null) {
+            return;
+        }
+        summaryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sm-bridge-message-summary");
+            thread.setDaemon(true);
+            return thread;
+        });
+        summaryScheduler.scheduleAtFixedRate(this::summarize, summaryIntervalSeconds, summaryIntervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop logging the summary.
+     */
+    public synchronized void stop() {
+        if (summaryScheduler != null) {
+            summaryScheduler.shutdownNow();
+            summaryScheduler = null;
+        }
+    }
+
+    /**
+     * Set the route cache whose hits and misses are logged in the summary.
+     *
+     * @param routeCache route cache of the message bridge
+     */
+    public synchronized void trackRouteCache(RouteCache routeCache) {
+        this.summarizedRouteCacheHits = routeCache.getHits();
+        this.summarizedRouteCacheMisses = routeCache.getMisses();
+        this.routeCache = routeCache;
+    }
+
+    /**
+     * Record a message received from MQTT.
+     */
+    public void received() {
+        received.increment();
+    }
+
+    /**
+     * Record a message appended to its stream.
+     *
+     * @param sourceTopic topic the message was received on
+     * @param message     message appended
+     */
+    public void published(String sourceTopic, StreamMessage message) {
+        published.increment();
+        if (isSampled(message.getStream())) {
+            logger.atInfo().kv("Source Topic", sourceTopic).kv("Destination Stream", message.getStream())
+                    .kv("Payload Size", message.getPayload().length).log("Published message");
+        }
+    }
+
+    /**
+     * Record a message which could not be appended to its stream. The failure itself is logged by the caller.
+     */
+    public void failed() {
+        failed.increment();
+    }
+
+    private boolean isSampled(String stream) {
+        if (samplesPerSecond > 0) {
+            return streamSamplers.computeIfAbsent(stream, k -> new TokenBucket(samplesPerSecond,
+                    Math.max(1, samplesPerSecond), nanoClock)).tryAcquire();
+        }
+        return sampleEvery > 0 && sampleCounter.getAndIncrement() % sampleEvery == 0;
+    }
+
+    // Logs the counts since the previous summary
+    synchronized void summarize() {
+        long receivedCount = received.sumThenReset();
+        LogEventBuilder summary = logger.atInfo().kv("received", receivedCount)
+                .kv("published", published.sumThenReset()).kv("failed", failed.sumThenReset())
+                .kv("intervalSeconds", summaryIntervalSeconds)
+                .kv("receivedPerSecond", receivedCount / Math.max(1, summaryIntervalSeconds));
+        RouteCache cache = routeCache;
+        if (cache != null) {
+            long hits = cache.getHits();
+            long misses = cache.getMisses();
+            summary = summary.kv("routeCacheHits", hits - summarizedRouteCacheHits)
+                    .kv("routeCacheMisses", misses - summarizedRouteCacheMisses);
+            summarizedRouteCacheHits = hits;
+            summarizedRouteCacheMisses = misses;
+        }
+        summary.log("Message summary");
+    }
+}
@@ -13,6 +13,9 @@ import java.time.format.DateTimeFormatter;
 
 @NoArgsConstructor
 public class Metadata {
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss.SSSSSS");
+
     @Setter
     private LocalDateTime timestamp;
     @Setter
@@ -22,8 +25,7 @@ public class Metadata {
     public String toString() {
         StringBuilder sb = new StringBuilder("{");
         if (timestamp != null) {
-            DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss.SSSSSS");
-            String stringTime = dtf.format(timestamp);
+            String stringTime = TIMESTAMP_FORMATTER.format(timestamp);
             sb.append("\"timestamp\":\"");
             sb.append(stringTime);
             sb.append('"');
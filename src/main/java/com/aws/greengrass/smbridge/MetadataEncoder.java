@@ -0,0 +1,273 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Encodes the metadata header and the payload of a stream record straight into one pre-sized array, in one of the
+ * {@link HeaderFormat}s.
+ *
+ * <p>The JSON record is a 2-byte big-endian header length, the JSON header and the payload. The header is byte for
+ * byte what {@link Metadata#toString()} produces, for example
+ * {@code {"timestamp":"2021/08/30 10:15:30.123456","topic":"my/topic"}}. The date and time up to the second is
+ * formatted once per second and reused, only the microseconds are written per record.
+ *
+ * <p>The CBOR and binary records carry the timestamp as epoch microseconds, need no formatting at all and have no
+ * limit on the topic length.
+ */
+public class MetadataEncoder {
+    private static final DateTimeFormatter SECOND_FORMATTER = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
+    private static final byte[] TIMESTAMP_FIELD = "\"timestamp\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TOPIC_FIELD = "\"topic\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final int MICROS_DIGITS = 6;
+    private static final int NANOS_PER_MICRO = 1000;
+    private static final long MICROS_PER_SECOND = 1_000_000L;
+
+    private static final byte[] CBOR_TIMESTAMP_KEY = {0x69, 't', 'i', 'm', 'e', 's', 't', 'a', 'm', 'p'};
+    private static final byte[] CBOR_TOPIC_KEY = {0x65, 't', 'o', 'p', 'i', 'c'};
+    private static final int CBOR_UNSIGNED_INT = 0;
+    private static final int CBOR_NEGATIVE_INT = 1;
+    private static final int CBOR_TEXT_STRING = 3;
+    private static final int CBOR_MAP = 5;
+
+    static final int BINARY_FLAG_TIMESTAMP = 0x01;
+    static final int BINARY_FLAG_TOPIC = 0x02;
+
+    private final ZoneId zone;
+    private volatile SecondPrefix cachedSecond = new SecondPrefix(Long.MIN_VALUE, new byte[0]);
+
+    private static final class SecondPrefix {
+        private final long epochSecond;
+        private final byte[] bytes;
+
+        private SecondPrefix(long epochSecond, byte[] bytes) {
+            this.epochSecond = epochSecond;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Ctr for MetadataEncoder formatting timestamps in the system default time zone.
+     */
+    public MetadataEncoder() {
+        this(ZoneId.systemDefault());
+    }
+
+    /**
+     * Ctr for MetadataEncoder.
+     *
+     * @param zone time zone timestamps are formatted in
+     */
+    public MetadataEncoder(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    /**
+     * Encode a stream record.
+     *
+     * @param format      format of the header, JSON if null
+     * @param appendTime  whether to add the timestamp to the header
+     * @param appendTopic whether to add the topic to the header
+     * @param timestamp   time the message was received
+     * @param topicBytes  UTF-8 encoded source topic
+     * @param payload     message payload
+     * @return the payload itself when there is no header, else a new array with the header and the payload
+     */
+    public byte[] encode(HeaderFormat format, boolean appendTime, boolean appendTopic, Instant timestamp,
+                         byte[] topicBytes, byte[] payload) {
+        if (!appendTime && !appendTopic) {
+            return payload;
+        }
+        if (format == HeaderFormat.CBOR) {
+            return encodeCbor(appendTime, appendTopic, timestamp, topicBytes, payload);
+        }
+        if (format == HeaderFormat.BINARY) {
+            return encodeBinary(appendTime, appendTopic, timestamp, topicBytes, payload);
+        }
+        return encodeJson(appendTime, appendTopic, timestamp, topicBytes, payload);
+    }
+
+    private byte[] encodeJson(boolean appendTime, boolean appendTopic, Instant timestamp, byte[] topicBytes,
+                              byte[] payload) {
+        byte[] secondBytes = appendTime ? secondPrefix(timestamp.getEpochSecond()) : null;
+
+        // {"timestamp":"<second>.<micros>","topic":"<topic>"}
+        int headerLength = 2;
+        if (appendTime) {
+            headerLength += TIMESTAMP_FIELD.length + secondBytes.length + 1 + MICROS_DIGITS + 1;
+        }
+        if (appendTime && appendTopic) {
+            headerLength++;
+        }
+        if (appendTopic) {
+            headerLength += TOPIC_FIELD.length + topicBytes.length + 1;
+        }
+
+        byte[] record = new byte[2 + headerLength + payload.length];
+        // Lengths above 64 KiB wrap around, as they always did
+        record[0] = (byte) (headerLength >> 8);
+        record[1] = (byte) headerLength;
+        int position = 2;
+        record[position++] = '{';
+        if (appendTime) {
+            position = put(record, position, TIMESTAMP_FIELD);
+            position = put(record, position, secondBytes);
+            record[position++] = '.';
+            int micros = timestamp.getNano() / NANOS_PER_MICRO;
+            for (int i = MICROS_DIGITS - 1; i >= 0; i--) {
+                record[position + i] = (byte) ('0' + micros % 10);
+                micros /= 10;
+            }
+            position += MICROS_DIGITS;
+            record[position++] = '"';
+        }
+        if (appendTime && appendTopic) {
+            record[position++] = ',';
+        }
+        if (appendTopic) {
+            position = put(record, position, TOPIC_FIELD);
+            position = put(record, position, topicBytes);
+            record[position++] = '"';
+        }
+        record[position++] = '}';
+        System.arraycopy(payload, 0, record, position, payload.length);
+        return record;
+    }
+
+    private static byte[] encodeCbor(boolean appendTime, boolean appendTopic, Instant timestamp, byte[] topicBytes,
+                                     byte[] payload) {
+        long micros = appendTime ? epochMicros(timestamp) : 0L;
+        // Negative integers are encoded as -1 - n
+        int timestampType = micros < 0 ? CBOR_NEGATIVE_INT : CBOR_UNSIGNED_INT;
+        long timestampValue = micros < 0 ? -1L - micros : micros;
+
+        int headerLength = 1;
+        if (appendTime) {
+            headerLength += CBOR_TIMESTAMP_KEY.length + cborHeadLength(timestampValue);
+        }
+        if (appendTopic) {
+            headerLength += CBOR_TOPIC_KEY.length + cborHeadLength(topicBytes.length) + topicBytes.length;
+        }
+
+        byte[] record = new byte[headerLength + payload.length];
+        int position = putCborHead(record, 0, CBOR_MAP, (appendTime ? 1 : 0) + (appendTopic ? 1 : 0));
+        if (appendTime) {
+            position = put(record, position, CBOR_TIMESTAMP_KEY);
+            position = putCborHead(record, position, timestampType, timestampValue);
+        }
+        if (appendTopic) {
+            position = put(record, position, CBOR_TOPIC_KEY);
+            position = putCborHead(record, position, CBOR_TEXT_STRING, topicBytes.length);
+            position = put(record, position, topicBytes);
+        }
+        System.arraycopy(payload, 0, record, position, payload.length);
+        return record;
+    }
+
+    private static byte[] encodeBinary(boolean appendTime, boolean appendTopic, Instant timestamp,
+                                       byte[] topicBytes, byte[] payload) {
+        long micros = appendTime ? epochMicros(timestamp) : 0L;
+
+        int headerLength = 1;
+        if (appendTime) {
+            headerLength += varintLength(micros);
+        }
+        if (appendTopic) {
+            headerLength += varintLength(topicBytes.length) + topicBytes.length;
+        }
+
+        byte[] record = new byte[headerLength + payload.length];
+        record[0] = (byte) ((appendTime ? BINARY_FLAG_TIMESTAMP : 0) | (appendTopic ? BINARY_FLAG_TOPIC : 0));
+        int position = 1;
+        if (appendTime) {
+            position = putVarint(record, position, micros);
+        }
+        if (appendTopic) {
+            position = putVarint(record, position, topicBytes.length);
+            position = put(record, position, topicBytes);
+        }
+        System.arraycopy(payload, 0, record, position, payload.length);
+        return record;
+    }
+
+    private static long epochMicros(Instant timestamp) {
+        return timestamp.getEpochSecond() * MICROS_PER_SECOND + timestamp.getNano() / NANOS_PER_MICRO;
+    }
+
+    // Length of a CBOR initial byte with its argument, using the shortest encoding like every CBOR encoder must
+    private static int cborHeadLength(long value) {
+        if (value < 24) {
+            return 1;
+        }
+        if (value <= 0xFFL) {
+            return 2;
+        }
+        if (value <= 0xFFFFL) {
+            return 3;
+        }
+        if (value <= 0xFFFF_FFFFL) {
+            return 5;
+        }
+        return 9;
+    }
+
+    private static int putCborHead(byte[] target, int position, int majorType, long value) {
+        int type = majorType << 5;
+        int length = cborHeadLength(value);
+        if (length == 1) {
+            target[position] = (byte) (type | value);
+            return position + 1;
+        }
+        // Additional information 24, 25, 26 and 27 mean a 1, 2, 4 and 8 byte argument follows
+        int argumentBytes = length - 1;
+        target[position] = (byte) (type | (24 + Integer.numberOfTrailingZeros(argumentBytes)));
+        for (int i = argumentBytes; i > 0; i--) {
+            target[position + i] = (byte) value;
+            value >>>= 8;
+        }
+        return position + length;
+    }
+
+    // Unsigned LEB128: 7 bits per byte, least significant group first, high bit set on all but the last byte
+    private static int varintLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    private static int putVarint(byte[] target, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            target[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target[position++] = (byte) value;
+        return position;
+    }
+
+    private byte[] secondPrefix(long epochSecond) {
+        SecondPrefix cached = cachedSecond;
+        if (cached.epochSecond != epochSecond) {
+            String formatted = SECOND_FORMATTER.format(
+                    LocalDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), zone));
+            cached = new SecondPrefix(epochSecond, formatted.getBytes(StandardCharsets.UTF_8));
+            cachedSecond = cached;
+        }
+        return cached.bytes;
+    }
+
+    private static int put(byte[] target, int position, byte[] source) {
+        System.arraycopy(source, 0, target, position, source.length);
+        return position + source.length;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses stream records with deflate or gzip.
+ *
+ * <p>Every record of a mapping which compresses starts with a flag byte: {@link #RAW_RECORD} when the rest of the
+ * record is appended as is, because it is smaller than the minimum size of the mapping, or
+ * {@link #COMPRESSED_RECORD} when the rest is in the format of the mapping compression type. Consumers drop the flag
+ * byte, and decompress the rest when it is set.
+ *
+ * <p>Each thread keeps one {@link Deflater} per format and level, and an output buffer, reused for every record it
+ * compresses. Ingest workers are long-lived, so nothing is allocated per record but the compressed record itself.
+ * A buffer grown for an unusually large record is not kept. {@link #release()} frees the native memory of the
+ * deflaters of every thread, the next record compressed by a thread creating its deflater again.
+ */
+public class PayloadCompressor {
+    public static final byte RAW_RECORD = 0;
+    public static final byte COMPRESSED_RECORD = 1;
+    private static final int FLAG_LENGTH = 1;
+    private static final int MIN_LEVEL = Deflater.BEST_SPEED;
+    private static final int MAX_LEVEL = Deflater.BEST_COMPRESSION;
+    private static final int LEVELS = MAX_LEVEL + 1;
+    // Magic bytes, deflate method, no flags, no modification time, no extra flags, unknown OS
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int GZIP_TRAILER_LENGTH = 8;
+    private static final int INITIAL_BUFFER_BYTES = 1024;
+    private static final int MAX_KEPT_BUFFER_BYTES = 64 * 1024;
+
+    // Deflaters and buffer of a thread, guarded by itself so that release() never ends a deflater in use
+    private static final class ThreadState {
+        // Indexed by level, then by level + LEVELS for the raw deflaters used by gzip
+        private final Deflater[] deflaters = new Deflater[2 * LEVELS];
+        private byte[] buffer = new byte[INITIAL_BUFFER_BYTES];
+        private volatile boolean released;
+    }
+
+    private final Set<ThreadState> states = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<ThreadState> threadStates = new ThreadLocal<>();
+
+    /**
+     * Compress a record as configured.
+     *
+     * @param record record as it would be appended uncompressed
+     * @param config compression of the mapping, or null
+     * @return the record itself when the mapping does not compress, else a new array with the flag byte followed by
+     *     the record, compressed unless smaller than the minimum size
+     */
+    public byte[] compress(byte[] record, TopicMapping.CompressionConfig config) {
+        if (config == null || config.getType() == null || config.getType() == CompressionType.NONE) {
+            return record;
+        }
+        if (record.length < config.getMinBytes()) {
+            // Too small to gain anything from compression, but flagged like the other records of the mapping
+            byte[] flagged = new byte[FLAG_LENGTH + record.length];
+            flagged[0] = RAW_RECORD;
+            System.arraycopy(record, 0, flagged, FLAG_LENGTH, record.length);
+            return flagged;
+        }
+        boolean gzip = config.getType() == CompressionType.GZIP;
+        int level = Math.min(MAX_LEVEL, Math.max(MIN_LEVEL, config.getLevel()));
+        while (true) {
+            ThreadState state = threadState();
+            synchronized (state) {
+                // Unless released meanwhile, which only happens while stopping
+                if (!state.released) {
+                    return compress(record, gzip, level, state);
+                }
+            }
+        }
+    }
+
+    /**
+     * Free the deflaters and buffers of every thread. The compressor remains usable.
+     */
+    public void release() {
+        for (ThreadState state : states) {
+            synchronized (state) {
+                for (Deflater deflater : state.deflaters) {
+                    if (deflater != null) {
+                        deflater.end();
+                    }
+                }
+                state.released = true;
+            }
+            states.remove(state);
+        }
+    }
+
+    private ThreadState threadState() {
+        ThreadState state = threadStates.get();
+        if (state == null || state.released) {
+            state = new ThreadState();
+            states.add(state);
+            threadStates.set(state);
+        }
+        return state;
+    }
+
+    private static byte[] compress(byte[] record, boolean gzip, int level, ThreadState state) {
+        Deflater deflater = deflater(state, gzip, level);
+        deflater.reset();
+        deflater.setInput(record);
+        deflater.finish();
+
+        byte[] buffer = state.buffer;
+        buffer[0] = COMPRESSED_RECORD;
+        int length = FLAG_LENGTH;
+        if (gzip) {
+            System.arraycopy(GZIP_HEADER, 0, buffer, length, GZIP_HEADER.length);
+            length += GZIP_HEADER.length;
+        }
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        state.buffer = buffer.length > MAX_KEPT_BUFFER_BYTES ? new byte[INITIAL_BUFFER_BYTES] : buffer;
+        if (!gzip) {
+            return Arrays.copyOf(buffer, length);
+        }
+
+        byte[] compressed = Arrays.copyOf(buffer, length + GZIP_TRAILER_LENGTH);
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        putIntLittleEndian(compressed, length, (int) crc.getValue());
+        putIntLittleEndian(compressed, length + 4, record.length);
+        return compressed;
+    }
+
+    private static Deflater deflater(ThreadState state, boolean gzip, int level) {
+        int index = gzip ? level + LEVELS : level;
+        Deflater deflater = state.deflaters[index];
+        if (deflater == null) {
+            // gzip wraps raw deflate data with its own header and trailer
+            deflater = new Deflater(level, gzip);
+            state.deflaters[index] = deflater;
+        }
+        return deflater;
+    }
+
+    private static void putIntLittleEndian(byte[] target, int position, int value) {
+        target[position] = (byte) value;
+        target[position + 1] = (byte) (value >> 8);
+        target[position + 2] = (byte) (value >> 16);
+        target[position + 3] = (byte) (value >> 24);
+    }
+}
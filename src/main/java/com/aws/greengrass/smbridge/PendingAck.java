@@ -0,0 +1,50 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Acknowledges a message once each of its destinations settled it. The message is acknowledged if every destination
+ * stored it, else released so that the broker delivers it again.
+ */
+class PendingAck {
+    private final MessageAck ack;
+    private final AtomicInteger pending;
+    private volatile boolean lost;
+
+    /**
+     * Ctr for PendingAck. A message without destinations is acknowledged right away.
+     *
+     * @param ack          settles the message with the broker
+     * @param destinations number of destinations of the message
+     */
+    PendingAck(MessageAck ack, int destinations) {
+        this.ack = ack;
+        this.pending = new AtomicInteger(destinations);
+        if (destinations == 0) {
+            ack.acknowledge();
+        }
+    }
+
+    /**
+     * Settle one destination of the message.
+     *
+     * @param stored true if the message was appended or spilled, false if it is not stored
+     */
+    void settle(boolean stored) {
+        if (!stored) {
+            lost = true;
+        }
+        if (pending.decrementAndGet() == 0) {
+            if (lost) {
+                ack.release();
+            } else {
+                ack.acknowledge();
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Destinations resolved for a concrete source topic, together with the encoded topic so that it is not encoded
+ * again for every message.
+ */
+@Getter
+public class ResolvedRoute {
+    private final String topic;
+    private final byte[] topicBytes;
+    private final List<TopicMapping.MappingEntry> destinations;
+
+    /**
+     * Ctr for ResolvedRoute.
+     *
+     * @param topic        concrete source topic
+     * @param destinations destinations of messages received on the topic
+     */
+    public ResolvedRoute(String topic, List<TopicMapping.MappingEntry> destinations) {
+        this.topic = topic;
+        this.topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        this.destinations = Collections.unmodifiableList(destinations);
+    }
+}
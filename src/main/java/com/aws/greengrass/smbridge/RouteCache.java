@@ -0,0 +1,142 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache from a concrete source topic to the route it resolved to. Every entry is tagged with the
+ * generation of the mapping it was resolved from, and entries of an older generation are treated as misses.
+ *
+ * <p>The cache is split into segments by topic hash so that concurrent lookups of different topics rarely contend
+ * on the same lock.
+ */
+public class RouteCache {
+    public static final int DEFAULT_CAPACITY = 10_000;
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment[] segments;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static final class Entry {
+        private final long generation;
+        private final ResolvedRoute route;
+
+        private Entry(long generation, ResolvedRoute route) {
+            this.generation = generation;
+            this.route = route;
+        }
+    }
+
+    @SuppressWarnings("PMD.LooseCoupling")
+    private static final class Segment extends LinkedHashMap<String, Entry> {
+        private static final long serialVersionUID = -5413780234785237592L;
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /**
+     * Ctr for RouteCache.
+     *
+     * @param capacity maximum number of topics kept in the cache, 0 disables caching
+     */
+    public RouteCache(int capacity) {
+        if (capacity <= 0) {
+            this.segments = new Segment[0];
+            return;
+        }
+        int segmentCount = Math.min(SEGMENT_COUNT, capacity);
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // Spread the remainder so the total capacity is exactly the requested one
+            segments[i] = new Segment(capacity / segmentCount + (i < capacity % segmentCount ? 1 : 0));
+        }
+    }
+
+    /**
+     * Get the cached route of a topic.
+     *
+     * @param topic      concrete source topic
+     * @param generation current mapping generation
+     * @return cached route, or null if the topic is not cached for this generation
+     */
+    public ResolvedRoute get(String topic, long generation) {
+        Segment segment = segmentFor(topic);
+        if (segment == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(topic);
+        }
+        if (entry == null || entry.generation != generation) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.route;
+    }
+
+    /**
+     * Cache the route of a topic.
+     *
+     * @param generation mapping generation the route was resolved from
+     * @param route      resolved route
+     */
+    public void put(long generation, ResolvedRoute route) {
+        String topic = route.getTopic();
+        Segment segment = segmentFor(topic);
+        if (segment == null) {
+            return;
+        }
+        synchronized (segment) {
+            segment.put(topic, new Entry(generation, route));
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Number of topics currently cached, including entries of older generations not yet evicted.
+     *
+     * @return number of cached topics
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(String topic) {
+        if (segments.length == 0) {
+            return null;
+        }
+        return segments[Math.floorMod(topic.hashCode(), segments.length)];
+    }
+}
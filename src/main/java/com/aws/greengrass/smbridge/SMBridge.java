@@ -21,6 +21,10 @@ import com.aws.greengrass.smbridge.clients.MQTTClient;
 import com.aws.greengrass.smbridge.clients.MQTTClientException;
 import com.aws.greengrass.smbridge.clients.SMClient;
 import com.aws.greengrass.smbridge.clients.SMClientException;
+import com.aws.greengrass.smbridge.clients.SMConnectionSupervisor;
+import com.aws.greengrass.smbridge.spill.FsyncPolicy;
+import com.aws.greengrass.smbridge.spill.SpillLog;
+import com.aws.greengrass.smbridge.spill.SpillReplayer;
 import com.aws.greengrass.util.Coerce;
 import com.aws.greengrass.util.Utils;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -30,6 +34,8 @@ import lombok.AccessLevel;
 import lombok.Getter;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.KeyStoreException;
 import java.security.cert.CertificateException;
 import java.util.Collections;
@@ -52,12 +58,37 @@ public class SMBridge extends PluginService {
     private final MQTTClientKeyStore mqttClientKeyStore;
     private final ExecutorService executorService;
     private MQTTClient mqttClient;
-    private SMClient smClient;
+    @Getter(AccessLevel.PACKAGE) // Getter for unit tests
+    private volatile SMConnectionSupervisor smSupervisor;
+    private StreamStorageMonitor storageMonitor;
+    private IngestDispatcher ingestDispatcher;
+    private SpillLog spillLog;
+    private SpillReplayer spillReplayer;
+    private MessageTracer messageTracer;
     private static final JsonMapper OBJECT_MAPPER =
             JsonMapper.builder().enable(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES).build();
     static final String MQTT_STREAM_MAPPING = "mqttStreamMapping";
     static final String STREAM_DEFINITION = "streamDefinition";
     static final String STREAM_MANAGER_PORT_KEY = "STREAM_MANAGER_SERVER_PORT";
+    static final String STREAM_MANAGER_SERVICE_NAME = "aws.greengrass.StreamManager";
+    static final int DEFAULT_STREAM_MANAGER_PORT = 8088;
+    static final String SM_OUTAGE_BUFFER_BYTES = "smOutageBufferBytes";
+    static final String SM_RECONNECT_MAX_BACKOFF_MS = "smReconnectMaxBackoffMs";
+    static final String STORAGE_POLL_INTERVAL_MS = "storagePollIntervalMs";
+    static final String STORAGE_THROTTLE_THRESHOLD = "storageThrottleThreshold";
+    static final String ROUTE_CACHE_SIZE = "routeCacheSize";
+    static final String INGEST_QUEUE_CAPACITY = "ingestQueueCapacity";
+    static final String INGEST_WORKER_COUNT = "ingestWorkerCount";
+    static final String INGEST_ORDERING = "ingestOrdering";
+    static final String SPILL_MAX_BYTES = "spillMaxBytes";
+    static final String SPILL_SEGMENT_SIZE = "spillSegmentSizeBytes";
+    static final String SPILL_FSYNC_POLICY = "spillFsyncPolicy";
+    static final String SPILL_FSYNC_INTERVAL_MS = "spillFsyncIntervalMs";
+    static final String SPILL_REPLAY_PARALLELISM = "spillReplayParallelism";
+    static final String TRACE_SAMPLE_EVERY = "traceSampleEvery";
+    static final String TRACE_SAMPLES_PER_SECOND = "traceSamplesPerStreamPerSecond";
+    static final String TRACE_SUMMARY_INTERVAL_SECONDS = "traceSummaryIntervalSeconds";
+    static final String MQTT_PERSISTENT_SESSION = "mqttPersistentSession";
     static final String RESERVED_TOPIC = "$SM-BRIDGE/+/#";
     static boolean SINGLE_DEFAULT_STREAM = true;
     static boolean APPEND_TIME_DEFAULT_STREAM = true;
@@ -78,13 +109,22 @@ public class SMBridge extends PluginService {
     @Inject
     public SMBridge(Topics topics, TopicMapping topicMapping, StreamDefinition streamDefinition, Kernel kernel,
                     MQTTClientKeyStore mqttClientKeyStore, ExecutorService executorService) {
-        this(topics, topicMapping, streamDefinition, new MessageBridge(topicMapping), kernel,
-                mqttClientKeyStore, executorService);
+        this(topics, topicMapping, streamDefinition, new MessageBridge(topicMapping,
+                        Coerce.toInt(topics.findOrDefault(RouteCache.DEFAULT_CAPACITY,
+                                KernelConfigResolver.CONFIGURATION_CONFIG_KEY, ROUTE_CACHE_SIZE))),
+                kernel, mqttClientKeyStore, executorService);
     }
 
     protected SMBridge(Topics topics, TopicMapping topicMapping, StreamDefinition streamDefinition,
                        MessageBridge messageBridge, Kernel kernel, MQTTClientKeyStore mqttClientKeyStore,
                        ExecutorService executorService) {
+        this(topics, topicMapping, streamDefinition, messageBridge, kernel, mqttClientKeyStore, executorService,
+                null);
+    }
+
+    protected SMBridge(Topics topics, TopicMapping topicMapping, StreamDefinition streamDefinition,
+                       MessageBridge messageBridge, Kernel kernel, MQTTClientKeyStore mqttClientKeyStore,
+                       ExecutorService executorService, MQTTClient mqttClient) {
         super(topics);
         this.topicMapping = topicMapping;
         this.streamDefinition = streamDefinition;
@@ -92,6 +132,7 @@ public class SMBridge extends PluginService {
         this.mqttClientKeyStore = mqttClientKeyStore;
         this.messageBridge = messageBridge;
         this.executorService = executorService;
+        this.mqttClient = mqttClient;
     }
 
     @Override
@@ -177,44 +218,189 @@ public class SMBridge extends PluginService {
             return;
         }
 
+        long storagePollIntervalMillis = Coerce.toLong(this.config.findOrDefault(
+                StreamStorageMonitor.DEFAULT_POLL_INTERVAL_MILLIS, KernelConfigResolver.CONFIGURATION_CONFIG_KEY,
+                STORAGE_POLL_INTERVAL_MS));
+        try {
+            IngestDispatcher.Ordering ordering = IngestDispatcher.Ordering.fromString(Coerce.toString(
+                    this.config.findOrDefault(IngestDispatcher.DEFAULT_ORDERING,
+                            KernelConfigResolver.CONFIGURATION_CONFIG_KEY, INGEST_ORDERING)));
+            if (storagePollIntervalMillis > 0 && ordering != IngestDispatcher.Ordering.STREAM) {
+                // Throttled messages wait on the lane of their stream, a shared worker would stall every stream
+                logger.atInfo().kv(INGEST_ORDERING, ordering)
+                        .log("Storage monitoring throttles streams on their ingest lane, ordering ingest by stream");
+                ordering = IngestDispatcher.Ordering.STREAM;
+            }
+            ingestDispatcher = new IngestDispatcher(
+                    Coerce.toInt(this.config.findOrDefault(IngestDispatcher.DEFAULT_QUEUE_CAPACITY,
+                            KernelConfigResolver.CONFIGURATION_CONFIG_KEY, INGEST_QUEUE_CAPACITY)),
+                    Coerce.toInt(this.config.findOrDefault(IngestDispatcher.DEFAULT_WORKER_COUNT,
+                            KernelConfigResolver.CONFIGURATION_CONFIG_KEY, INGEST_WORKER_COUNT)),
+                    ordering);
+        } catch (IllegalArgumentException e) {
+            serviceErrored(e);
+            return;
+        }
+        messageBridge.addOrReplaceIngestDispatcher(ingestDispatcher);
+        try {
+            spillLog = openSpillLog();
+        } catch (IllegalArgumentException e) {
+            serviceErrored(e);
+            return;
+        }
+        messageBridge.addOrReplaceSpillLog(spillLog);
+        messageTracer = new MessageTracer(
+                Coerce.toLong(this.config.findOrDefault(MessageTracer.DEFAULT_SAMPLE_EVERY,
+                        KernelConfigResolver.CONFIGURATION_CONFIG_KEY, TRACE_SAMPLE_EVERY)),
+                Coerce.toDouble(this.config.findOrDefault(MessageTracer.DEFAULT_SAMPLES_PER_SECOND,
+                        KernelConfigResolver.CONFIGURATION_CONFIG_KEY, TRACE_SAMPLES_PER_SECOND)),
+                Coerce.toLong(this.config.findOrDefault(MessageTracer.DEFAULT_SUMMARY_INTERVAL_SECONDS,
+                        KernelConfigResolver.CONFIGURATION_CONFIG_KEY, TRACE_SUMMARY_INTERVAL_SECONDS)));
+        messageTracer.start();
+        messageBridge.addOrReplaceMessageTracer(messageTracer);
+
         try {
             if (mqttClient == null) {
-                mqttClient = new MQTTClient(this.config, mqttClientKeyStore, this.executorService);
+                mqttClient = new MQTTClient(this.config, mqttClientKeyStore, this.executorService,
+                        mqttSessionDirectory());
             }
-            mqttClient.start();
-            messageBridge.addOrReplaceMqttClient(mqttClient);
-        } catch (MQTTClientException e) {
+        } catch (MQTTClientException | IllegalArgumentException e) {
             serviceErrored(e);
             return;
         }
-        AtomicInteger port = new AtomicInteger(8088);
+        AtomicInteger port = new AtomicInteger(DEFAULT_STREAM_MANAGER_PORT);
         try {
-            kernel.locate("aws.greengrass.StreamManager").getConfig()
+            kernel.locate(STREAM_MANAGER_SERVICE_NAME).getConfig()
                     .lookup(KernelConfigResolver.CONFIGURATION_CONFIG_KEY, "port").subscribe((why, newv) -> {
-                        String topic = (String) newv.toPOJO();
-                        port.set(Integer.parseInt(topic));
+                        int newPort = Coerce.toInt(newv.toPOJO());
+                        if (newPort <= 0) {
+                            return;
+                        }
+                        port.set(newPort);
+                        SMConnectionSupervisor supervisor = smSupervisor;
+                        if (supervisor != null) {
+                            supervisor.updatePort(newPort);
+                        }
                     });
         } catch (ServiceLoadException e) {
             logger.atError().cause(e).log("Unable to locate {} service while subscribing to custom SM port",
-                    "aws.greengrass.StreamManager");
+                    STREAM_MANAGER_SERVICE_NAME);
         }
 
-        try {
-            smClient = new SMClient(this.config, port.intValue(), streamDefinition);
-            smClient.start();
-            messageBridge.addOrReplaceSMClient(smClient);
-        } catch (SMClientException e) {
-            serviceErrored(e);
-            return;
+        long outageBufferBytes = Coerce.toLong(this.config.findOrDefault(SMConnectionSupervisor.DEFAULT_BUFFER_BYTES,
+                KernelConfigResolver.CONFIGURATION_CONFIG_KEY, SM_OUTAGE_BUFFER_BYTES));
+        long reconnectMaxBackoffMillis = Coerce.toLong(this.config.findOrDefault(
+                SMConnectionSupervisor.DEFAULT_MAX_BACKOFF_MILLIS, KernelConfigResolver.CONFIGURATION_CONFIG_KEY,
+                SM_RECONNECT_MAX_BACKOFF_MS));
+        smSupervisor = new SMConnectionSupervisor(this::createSMClient, port.get(), outageBufferBytes,
+                SMConnectionSupervisor.DEFAULT_INITIAL_BACKOFF_MILLIS, reconnectMaxBackoffMillis);
+        // Connects in the background if Stream Manager is not reachable yet
+        smSupervisor.start();
+        messageBridge.addOrReplaceSMSupervisor(smSupervisor);
+        if (spillLog != null) {
+            spillReplayer = new SpillReplayer(spillLog, smSupervisor::publishWithoutBuffering,
+                    SpillReplayer.DEFAULT_INITIAL_BACKOFF_MILLIS, SpillReplayer.DEFAULT_MAX_BACKOFF_MILLIS,
+                    Coerce.toInt(this.config.findOrDefault(SpillReplayer.DEFAULT_PARALLELISM,
+                            KernelConfigResolver.CONFIGURATION_CONFIG_KEY, SPILL_REPLAY_PARALLELISM)));
+            spillReplayer.start();
         }
+        if (storagePollIntervalMillis > 0) {
+            storageMonitor = new StreamStorageMonitor(smSupervisor::describeStream, storagePollIntervalMillis,
+                    Coerce.toDouble(this.config.findOrDefault(StreamStorageMonitor.DEFAULT_THROTTLE_THRESHOLD,
+                            KernelConfigResolver.CONFIGURATION_CONFIG_KEY, STORAGE_THROTTLE_THRESHOLD)));
+            storageMonitor.start();
+        }
+        messageBridge.addOrReplaceStorageMonitor(storageMonitor);
+
+        // Connect last: the broker delivers the messages queued in a persistent session as soon as connected, and
+        // they go through everything wired above
+        messageBridge.addOrReplaceMqttClient(mqttClient);
+        mqttClient.start();
 
         reportState(State.RUNNING);
     }
 
+    private SMClient createSMClient(int smPort) throws SMClientException {
+        SMClient smClient = new SMClient(this.config, smPort, streamDefinition);
+        smClient.start();
+        return smClient;
+    }
+
+    // Directory keeping the persistent MQTT session, or null for a clean session. At-least-once delivery always
+    // uses a persistent session, so that the broker delivers the released messages again.
+    private Path mqttSessionDirectory() {
+        boolean persistent = Coerce.toBoolean(this.config.findOrDefault(false,
+                KernelConfigResolver.CONFIGURATION_CONFIG_KEY, MQTT_PERSISTENT_SESSION))
+                || MQTTClient.DeliveryMode.fromConfig(this.config) == MQTTClient.DeliveryMode.AT_LEAST_ONCE;
+        if (!persistent) {
+            return null;
+        }
+        try {
+            return Files.createDirectories(kernel.getNucleusPaths().workPath(SERVICE_NAME).resolve("mqtt-session"));
+        } catch (IOException e) {
+            logger.atError().cause(e).log("Unable to keep the MQTT session on disk, using a clean session");
+            return null;
+        }
+    }
+
+    private SpillLog openSpillLog() {
+        // Spilling is opt-in, since the segment files take up to the configured size on disk
+        long maxBytes = Coerce.toLong(this.config.findOrDefault(0L,
+                KernelConfigResolver.CONFIGURATION_CONFIG_KEY, SPILL_MAX_BYTES));
+        if (maxBytes <= 0) {
+            return null;
+        }
+        try {
+            return new SpillLog(kernel.getNucleusPaths().workPath(SERVICE_NAME).resolve("spill"),
+                    Coerce.toInt(this.config.findOrDefault(SpillLog.DEFAULT_SEGMENT_SIZE,
+                            KernelConfigResolver.CONFIGURATION_CONFIG_KEY, SPILL_SEGMENT_SIZE)),
+                    maxBytes,
+                    FsyncPolicy.fromString(Coerce.toString(this.config.findOrDefault(SpillLog.DEFAULT_FSYNC_POLICY,
+                            KernelConfigResolver.CONFIGURATION_CONFIG_KEY, SPILL_FSYNC_POLICY))),
+                    Coerce.toLong(this.config.findOrDefault(SpillLog.DEFAULT_FSYNC_INTERVAL_MILLIS,
+                            KernelConfigResolver.CONFIGURATION_CONFIG_KEY, SPILL_FSYNC_INTERVAL_MS)));
+        } catch (IOException e) {
+            logger.atError().cause(e).log("Unable to open spill log, messages which cannot be published will be "
+                    + "dropped");
+            return null;
+        }
+    }
+
     @Override
     public void shutdown() {
         if (mqttClient != null) {
             mqttClient.stop();
         }
+        if (spillReplayer != null) {
+            spillReplayer.stop();
+            spillReplayer = null;
+        }
+        if (storageMonitor != null) {
+            // Let throttled workers finish quickly
+            messageBridge.addOrReplaceStorageMonitor(null);
+            storageMonitor.stop();
+            storageMonitor = null;
+        }
+        if (ingestDispatcher != null) {
+            // Let the workers finish the messages already received
+            ingestDispatcher.shutdown();
+            ingestDispatcher = null;
+        }
+        // Publish or spill the messages still waiting in a batch
+        messageBridge.flushBatches();
+        messageBridge.releaseCompressors();
+        if (smSupervisor != null) {
+            smSupervisor.stop();
+            smSupervisor = null;
+        }
+        if (spillLog != null) {
+            messageBridge.addOrReplaceSpillLog(null);
+            spillLog.close();
+            spillLog = null;
+        }
+        if (messageTracer != null) {
+            messageTracer.stop();
+            messageTracer = null;
+        }
     }
 }
@@ -11,6 +11,7 @@ import lombok.NoArgsConstructor;
 import lombok.NonNull;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -19,22 +20,87 @@ import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  *  Stream definitions to create new streams in SM Client.
+ *
+ *  <p>Definitions are also indexed by stream name in an immutable snapshot, rebuilt whenever they change, so that
+ *  looking one up does not walk or copy the whole configuration.
  */
 @NoArgsConstructor
 public class StreamDefinition {
+    private static final String DEFAULT_KEY = "default";
+
     @Getter
     private Map<String, MessageStreamDefinition> streams = new HashMap<>();
+    private volatile Index index = Index.EMPTY;
 
     private List<StreamDefinition.UpdateListener> updateListeners = new CopyOnWriteArrayList<>();
 
+    // Configured streams by trimmed name, and the template configured under the "default" key
+    private static final class Index {
+        private static final Index EMPTY = new Index(Collections.emptyMap(), null);
+
+        private final Map<String, MessageStreamDefinition> byName;
+        private final MessageStreamDefinition defaultDefinition;
+
+        private Index(Map<String, MessageStreamDefinition> byName, MessageStreamDefinition defaultDefinition) {
+            this.byName = byName;
+            this.defaultDefinition = defaultDefinition;
+        }
+
+        private static Index of(Map<String, MessageStreamDefinition> streams) {
+            Map<String, MessageStreamDefinition> byName = new HashMap<>();
+            MessageStreamDefinition defaultDefinition = null;
+            for (Map.Entry<String, MessageStreamDefinition> entry : streams.entrySet()) {
+                MessageStreamDefinition definition = entry.getValue();
+                if (DEFAULT_KEY.equalsIgnoreCase(entry.getKey())) {
+                    if (defaultDefinition == null) {
+                        defaultDefinition = definition;
+                    }
+                } else if (definition != null && definition.getName() != null) {
+                    byName.putIfAbsent(definition.getName().trim(), definition);
+                }
+            }
+            return new Index(Collections.unmodifiableMap(byName), defaultDefinition);
+        }
+    }
+
     public void addEntry(String key, MessageStreamDefinition messageStreamDefinition) {
         streams.put(key, messageStreamDefinition);
+        index = Index.of(streams);
     }
 
     public List<MessageStreamDefinition> getList() {
         return new ArrayList<>(streams.values());
     }
 
+    /**
+     * Find the definition of a stream by name, ignoring surrounding whitespace.
+     *
+     * @param streamName stream name
+     * @return the definition, or null if the stream is not configured
+     */
+    public MessageStreamDefinition findByName(String streamName) {
+        return streamName == null ? null : index.byName.get(streamName.trim());
+    }
+
+    /**
+     * Streams configured by name, without the default template.
+     *
+     * @return immutable map of definitions by trimmed stream name
+     */
+    public Map<String, MessageStreamDefinition> getConfiguredStreams() {
+        return index.byName;
+    }
+
+    /**
+     * Definition configured under the "default" key, in any case, used as a template for streams which are not
+     * configured.
+     *
+     * @return the default definition, or null if there is none
+     */
+    public MessageStreamDefinition getDefaultDefinition() {
+        return index.defaultDefinition;
+    }
+
     @FunctionalInterface
     public interface UpdateListener {
         void onUpdate();
@@ -46,6 +112,7 @@ public class StreamDefinition {
      * @param mapping   the key-definition mapping to be updated
      */
     public void updateDefinition(@NonNull Map<String, MessageStreamDefinition> mapping) {
+        this.index = Index.of(mapping);
         this.streams = mapping;
         updateListeners.forEach(UpdateListener::onUpdate);
     }
@@ -54,4 +121,8 @@ public class StreamDefinition {
         updateListeners.add(listener);
     }
 
+    public void stopListeningToUpdates(UpdateListener listener) {
+        updateListeners.remove(listener);
+    }
+
 }
\ No newline at end of file
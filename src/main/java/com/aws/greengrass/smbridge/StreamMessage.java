@@ -5,13 +5,21 @@
 
 package com.aws.greengrass.smbridge;
 
+import lombok.AllArgsConstructor;
 import lombok.Value;
 
 /**
  * Common representation of a Message.
  */
 @Value
+@AllArgsConstructor
 public class StreamMessage {
     private String stream;
     private byte[] payload;
+    // True when the stream is named by the message topic rather than by the configuration
+    private boolean dynamicStream;
+
+    public StreamMessage(String stream, byte[] payload) {
+        this(stream, payload, false);
+    }
 }
@@ -0,0 +1,281 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.amazonaws.greengrass.streammanager.model.MessageStreamDefinition;
+import com.amazonaws.greengrass.streammanager.model.MessageStreamInfo;
+import com.amazonaws.greengrass.streammanager.model.StrategyOnFull;
+import com.aws.greengrass.logging.api.Logger;
+import com.aws.greengrass.logging.impl.LogManager;
+import com.aws.greengrass.smbridge.clients.SMClientException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Slows down publishing to streams which are close to full, instead of running into them at full speed.
+ *
+ * <p>A background thread describes each stream published to recently, once per poll interval, and compares the
+ * bytes it stores with its maximum size. Only streams rejecting new data when full are considered, the others make
+ * room by themselves. Once a stream is filled above the threshold, publishing to it is limited by a token bucket of
+ * payload bytes. The rate starts from the rate observed when the throttling started and shrinks linearly with the
+ * headroom left, down to a minimum when the stream is full. The bucket never holds more than the headroom.
+ */
+public class StreamStorageMonitor {
+    private static final Logger LOGGER = LogManager.getLogger(StreamStorageMonitor.class);
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 5000;
+    public static final double DEFAULT_THROTTLE_THRESHOLD = 0.8;
+    static final double MIN_RATE_BYTES_PER_SECOND = 1024;
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+    private static final String STREAM_KEY = "Stream";
+
+    private final StreamDescriber describer;
+    private final long pollIntervalMillis;
+    private final double throttleThreshold;
+    private final LongSupplier nanoClock;
+    private final Map<String, StreamState> streams = new ConcurrentHashMap<>();
+    private final AtomicLong throttledMessages = new AtomicLong();
+    private final AtomicLong throttleWaitNanos = new AtomicLong();
+    private long lastPollNanos;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Gets the definition and storage status of a stream.
+     */
+    @FunctionalInterface
+    public interface StreamDescriber {
+        MessageStreamInfo describe(String stream) throws SMClientException;
+    }
+
+    private static final class StreamState {
+        // Payload bytes published since the last poll
+        private final AtomicLong publishedBytes = new AtomicLong();
+        // Null while the stream is not throttled
+        private volatile TokenBucket limiter;
+        private volatile double usage;
+        // Publish rate when the throttling started, in bytes per second
+        private double baseRate;
+    }
+
+    /**
+     * Ctr for StreamStorageMonitor.
+     *
+     * @param describer          gets the storage status of a stream
+     * @param pollIntervalMillis time between two checks of each stream
+     * @param throttleThreshold  fraction of the maximum size above which a stream is throttled
+     */
+    public StreamStorageMonitor(StreamDescriber describer, long pollIntervalMillis, double throttleThreshold) {
+        this(describer, pollIntervalMillis, throttleThreshold, System::nanoTime);
+    }
+
+    StreamStorageMonitor(StreamDescriber describer, long pollIntervalMillis, double throttleThreshold,
+                         LongSupplier nanoClock) {
+        this.describer = describer;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.throttleThreshold = throttleThreshold;
+        this.nanoClock = nanoClock;
+        this.lastPollNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Start polling the streams.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "sm-bridge-storage-monitor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop polling the streams and lift all throttling.
+     */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        streams.clear();
+    }
+
+    /**
+     * Called before publishing a message. Waits if the stream is throttled.
+     *
+     * @param stream       stream name
+     * @param payloadBytes size of the message
+     */
+    public void throttle(String stream, int payloadBytes) {
+        long waitNanos = reserve(stream, payloadBytes);
+        if (waitNanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Returns how long to wait before publishing the message
+    long reserve(String stream, int payloadBytes) {
+        StreamState state = streams.computeIfAbsent(stream, key -> new StreamState());
+        state.publishedBytes.addAndGet(payloadBytes);
+        TokenBucket limiter = state.limiter;
+        if (limiter == null) {
+            return 0;
+        }
+        long waitNanos = limiter.reserve(payloadBytes);
+        if (waitNanos <= 0) {
+            return 0;
+        }
+        // Keep the lane responsive to a change of rate, the debt stays in the bucket for the next messages
+        waitNanos = Math.min(waitNanos, TimeUnit.MILLISECONDS.toNanos(pollIntervalMillis));
+        throttledMessages.incrementAndGet();
+        throttleWaitNanos.addAndGet(waitNanos);
+        return waitNanos;
+    }
+
+    /**
+     * Number of streams being throttled.
+     *
+     * @return throttled stream count
+     */
+    public int getThrottledStreamCount() {
+        int count = 0;
+        for (StreamState state : streams.values()) {
+            if (state.limiter != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Number of messages which waited because their stream was throttled.
+     *
+     * @return throttled message count
+     */
+    public long getThrottledMessageCount() {
+        return throttledMessages.get();
+    }
+
+    public long getThrottleWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttleWaitNanos.get());
+    }
+
+    /**
+     * Fraction of the maximum size a stream was using at the last poll.
+     *
+     * @param stream stream name
+     * @return storage usage between 0 and 1, or 0 if unknown
+     */
+    public double getUsage(String stream) {
+        StreamState state = streams.get(stream);
+        return state == null ? 0 : state.usage;
+    }
+
+    /**
+     * Current throttled rate of a stream.
+     *
+     * @param stream stream name
+     * @return payload bytes per second, or 0 if the stream is not throttled
+     */
+    public double getRate(String stream) {
+        StreamState state = streams.get(stream);
+        TokenBucket limiter = state == null ? null : state.limiter;
+        return limiter == null ? 0 : limiter.getRatePerSecond();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(pollIntervalMillis);
+            } catch (InterruptedException e) {
+                // Interrupted by stop
+                return;
+            }
+            poll();
+        }
+    }
+
+    void poll() {
+        long now = nanoClock.getAsLong();
+        double elapsedSeconds = Math.max(1, now - lastPollNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        lastPollNanos = now;
+        for (Map.Entry<String, StreamState> entry : streams.entrySet()) {
+            String stream = entry.getKey();
+            StreamState state = entry.getValue();
+            long published = state.publishedBytes.getAndSet(0);
+            if (published == 0 && state.limiter == null) {
+                // Not published to lately, forget it until it is
+                streams.remove(stream, state);
+                continue;
+            }
+            MessageStreamInfo info;
+            try {
+                info = describer.describe(stream);
+            } catch (SMClientException e) {
+                LOGGER.atDebug().setCause(e).kv(STREAM_KEY, stream).log("Unable to check stream storage");
+                continue;
+            }
+            update(stream, state, info, published / elapsedSeconds);
+        }
+    }
+
+    private void update(String stream, StreamState state, MessageStreamInfo info, double observedRate) {
+        MessageStreamDefinition definition = info == null ? null : info.getDefinition();
+        Long maxSize = definition == null ? null : definition.getMaxSize();
+        Long storedBytes = info == null || info.getStorageStatus() == null ? null
+                : info.getStorageStatus().getTotalBytes();
+        if (definition == null || definition.getStrategyOnFull() != StrategyOnFull.RejectNewData
+                || maxSize == null || maxSize <= 0 || storedBytes == null) {
+            unthrottle(stream, state);
+            return;
+        }
+
+        double usage = Math.min(1.0, (double) storedBytes / maxSize);
+        state.usage = usage;
+        if (usage < throttleThreshold) {
+            unthrottle(stream, state);
+            return;
+        }
+        double headroomFraction = throttleThreshold >= 1 ? 0 : (1 - usage) / (1 - throttleThreshold);
+        TokenBucket limiter = state.limiter;
+        if (limiter == null) {
+            state.baseRate = Math.max(MIN_RATE_BYTES_PER_SECOND, observedRate);
+        }
+        double rate = Math.max(MIN_RATE_BYTES_PER_SECOND, state.baseRate * headroomFraction);
+        double burst = Math.max(MIN_RATE_BYTES_PER_SECOND, Math.min(rate, maxSize - storedBytes));
+        if (limiter == null) {
+            state.limiter = new TokenBucket(rate, burst, nanoClock);
+            LOGGER.atWarn().kv(STREAM_KEY, stream).kv("usage", usage).kv("bytesPerSecond", rate)
+                    .log("Stream close to full, throttling it");
+        } else {
+            limiter.setRate(rate, burst);
+        }
+    }
+
+    private void unthrottle(String stream, StreamState state) {
+        if (state.limiter != null) {
+            state.limiter = null;
+            LOGGER.atInfo().kv(STREAM_KEY, stream).kv("usage", state.usage).log("Stream no longer throttled");
+        }
+    }
+}
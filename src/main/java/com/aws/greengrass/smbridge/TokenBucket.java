@@ -0,0 +1,110 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket rate limiter. Tokens are refilled continuously at a fixed rate up to a maximum burst.
+ */
+public class TokenBucket {
+    private final LongSupplier nanoClock;
+    private double ratePerSecond;
+    private double burst;
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * Ctr for TokenBucket. The bucket starts full.
+     *
+     * @param ratePerSecond tokens added per second
+     * @param burst         maximum number of tokens held
+     */
+    public TokenBucket(double ratePerSecond, double burst) {
+        this(ratePerSecond, burst, System::nanoTime);
+    }
+
+    /**
+     * Ctr for TokenBucket with a custom clock.
+     *
+     * @param ratePerSecond tokens added per second
+     * @param burst         maximum number of tokens held
+     * @param nanoClock     monotonic clock in nanoseconds
+     */
+    public TokenBucket(double ratePerSecond, double burst, LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefillNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Take a token if one is available.
+     *
+     * @return true if a token was taken
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * Take a number of tokens if they are all available.
+     *
+     * @param permits number of tokens to take
+     * @return true if the tokens were taken
+     */
+    public synchronized boolean tryAcquire(double permits) {
+        refill();
+        if (tokens < permits) {
+            return false;
+        }
+        tokens -= permits;
+        return true;
+    }
+
+    /**
+     * Take a number of tokens, going into debt if they are not all available.
+     *
+     * @param permits number of tokens to take
+     * @return nanoseconds the caller should wait before using the tokens, 0 if they were available
+     */
+    public synchronized long reserve(double permits) {
+        refill();
+        tokens -= permits;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens / ratePerSecond * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Change the refill rate and burst. Tokens above the new burst are discarded.
+     *
+     * @param ratePerSecond tokens added per second
+     * @param burst         maximum number of tokens held
+     */
+    public synchronized void setRate(double ratePerSecond, double burst) {
+        refill();
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.tokens = Math.min(tokens, burst);
+    }
+
+    public synchronized double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    private void refill() {
+        long now = nanoClock.getAsLong();
+        long elapsed = now - lastRefillNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(burst, tokens + ratePerSecond * elapsed / TimeUnit.SECONDS.toNanos(1));
+            lastRefillNanos = now;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Level-by-level trie of MQTT topic filters. Filters are split on '/' and stored one level per node, with the
+ * '+' and '#' wildcards kept as regular children. Matching a concrete topic walks only the levels of that topic, so
+ * the cost depends on the topic depth and not on the number of filters.
+ *
+ * <p>A trie is built once and then only read; callers swap in a new instance when the filters change.
+ *
+ * @param <V> type of the values attached to each filter
+ */
+public class TopicFilterTrie<V> {
+    static final String LEVEL_SEPARATOR = "/";
+    static final String SINGLE_LEVEL_WILDCARD = "+";
+    static final String MULTI_LEVEL_WILDCARD = "#";
+
+    private final Node<V> root = new Node<>();
+
+    private static class Node<V> {
+        private final Map<String, Node<V>> children = new HashMap<>();
+        private final List<V> values = new ArrayList<>();
+    }
+
+    /**
+     * Attach a value to a topic filter.
+     *
+     * @param filter MQTT topic filter, may contain '+' and '#' wildcards
+     * @param value  value returned when a topic matches the filter
+     */
+    public void add(String filter, V value) {
+        Node<V> node = root;
+        for (String level : split(filter)) {
+            node = node.children.computeIfAbsent(level, k -> new Node<>());
+        }
+        node.values.add(value);
+    }
+
+    /**
+     * Find the values of all filters matching a concrete topic. Values of filters without a multi-level wildcard
+     * are returned first, exact levels before '+' levels, followed by the values of filters ending in '#'.
+     *
+     * @param topic concrete MQTT topic
+     * @return values of the matching filters, in insertion order per filter
+     */
+    public List<V> match(String topic) {
+        List<V> matched = new ArrayList<>();
+        List<V> multiLevelMatched = new ArrayList<>();
+        match(root, split(topic), 0, matched, multiLevelMatched);
+        matched.addAll(multiLevelMatched);
+        return matched;
+    }
+
+    private void match(Node<V> node, String[] levels, int depth, List<V> matched, List<V> multiLevelMatched) {
+        // '#' matches the parent level as well as any number of child levels
+        Node<V> multiLevel = node.children.get(MULTI_LEVEL_WILDCARD);
+        if (multiLevel != null) {
+            multiLevelMatched.addAll(multiLevel.values);
+        }
+        if (depth == levels.length) {
+            matched.addAll(node.values);
+            return;
+        }
+
+        Node<V> exact = node.children.get(levels[depth]);
+        if (exact != null) {
+            match(exact, levels, depth + 1, matched, multiLevelMatched);
+        }
+        Node<V> singleLevel = node.children.get(SINGLE_LEVEL_WILDCARD);
+        if (singleLevel != null) {
+            match(singleLevel, levels, depth + 1, matched, multiLevelMatched);
+        }
+    }
+
+    static String[] split(String topic) {
+        // Keep trailing empty levels, "a/" and "a" are different topics
+        return topic.split(LEVEL_SEPARATOR, -1);
+    }
+}
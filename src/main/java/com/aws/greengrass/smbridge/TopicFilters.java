@@ -0,0 +1,248 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.aws.greengrass.smbridge.TopicFilterTrie.MULTI_LEVEL_WILDCARD;
+import static com.aws.greengrass.smbridge.TopicFilterTrie.SINGLE_LEVEL_WILDCARD;
+
+/**
+ * Relations between MQTT topic filters, used to subscribe to as few filters as possible.
+ *
+ * <p>As with brokers, a wildcard in the first level of a filter does not match topics starting with '$', so
+ * {@code #} does not cover the reserved topic.
+ */
+public final class TopicFilters {
+    private static final String SYSTEM_TOPIC_PREFIX = "$";
+
+    private TopicFilters() {
+    }
+
+    /**
+     * Drop the filters covered by another one. Each remaining filter takes the highest QoS of the filters it
+     * covers, so that messages are received with at least the QoS their mappings asked for.
+     *
+     * @param qosByFilter QoS of each filter
+     * @return QoS of the filters to subscribe to
+     */
+    public static Map<String, Integer> minimalCover(Map<String, Integer> qosByFilter) {
+        // A filter is only covered by filters with the same first level, or a wildcard there
+        Map<String, List<String>> byFirstLevel = new HashMap<>();
+        for (String filter : qosByFilter.keySet()) {
+            byFirstLevel.computeIfAbsent(firstLevel(filter), k -> new ArrayList<>()).add(filter);
+        }
+
+        Map<String, Integer> cover = new HashMap<>();
+        List<String> covered = new ArrayList<>();
+        for (String filter : qosByFilter.keySet()) {
+            if (coverOf(filter, byFirstLevel, qosByFilter.keySet()) == null) {
+                cover.put(filter, qosByFilter.get(filter));
+            } else {
+                covered.add(filter);
+            }
+        }
+        for (String filter : covered) {
+            // Covering is transitive, so a filter left in the cover covers this one
+            String coverer = coverOf(filter, byFirstLevel, cover.keySet());
+            cover.merge(coverer, qosByFilter.get(filter), Math::max);
+        }
+        return cover;
+    }
+
+    /**
+     * Build a set of filters covering the given ones, no two of which match a common topic, so that the broker
+     * delivers each message once. Partially overlapping filters, such as {@code sensors/+/humidity} and
+     * {@code sensors/thermostat1/+}, are replaced by the narrowest filter covering both, here {@code sensors/+/+}.
+     * Messages received through such a wider filter may match none of the original filters, and are to be routed
+     * against the original filters rather than the subscribed ones.
+     *
+     * @param qosByFilter QoS of each filter
+     * @return QoS of the filters to subscribe to
+     */
+    public static Map<String, Integer> disjointCover(Map<String, Integer> qosByFilter) {
+        Map<String, Integer> cover = minimalCover(qosByFilter);
+        while (true) {
+            Set<String> overlapping = overlapping(cover.keySet());
+            if (overlapping.isEmpty()) {
+                return cover;
+            }
+            // Merge one overlapping pair at a time, the merged filter may cover or overlap other filters
+            String filter = overlapping.iterator().next();
+            String other = null;
+            for (String candidate : overlapping) {
+                if (!candidate.equals(filter) && overlaps(filter, candidate)) {
+                    other = candidate;
+                    break;
+                }
+            }
+            Map<String, Integer> merged = new HashMap<>(cover);
+            int qos = Math.max(merged.remove(filter), merged.remove(other));
+            merged.merge(merge(filter, other), qos, Math::max);
+            cover = minimalCover(merged);
+        }
+    }
+
+    /**
+     * Build the narrowest filter covering two overlapping filters. Levels which differ become {@code +}, and the
+     * filter ends with {@code #} from the first level one of them does not share with the other.
+     *
+     * @param filter a filter
+     * @param other  another filter, overlapping the first one
+     * @return a filter covering both
+     */
+    public static String merge(String filter, String other) {
+        String[] levels = TopicFilterTrie.split(filter);
+        String[] otherLevels = TopicFilterTrie.split(other);
+        StringBuilder merged = new StringBuilder();
+        for (int i = 0; i < Math.max(levels.length, otherLevels.length); i++) {
+            if (i > 0) {
+                merged.append(TopicFilterTrie.LEVEL_SEPARATOR);
+            }
+            if (i == levels.length || i == otherLevels.length || MULTI_LEVEL_WILDCARD.equals(levels[i])
+                    || MULTI_LEVEL_WILDCARD.equals(otherLevels[i])) {
+                return merged.append(MULTI_LEVEL_WILDCARD).toString();
+            }
+            merged.append(levels[i].equals(otherLevels[i]) ? levels[i] : SINGLE_LEVEL_WILDCARD);
+        }
+        return merged.toString();
+    }
+
+    /**
+     * Find the filters which match at least one topic also matched by another filter. The broker may send a copy
+     * of a message on such a topic for each matching filter.
+     *
+     * @param filters filters none of which covers another
+     * @return the overlapping filters
+     */
+    public static Set<String> overlapping(Set<String> filters) {
+        Map<String, List<String>> byFirstLevel = new HashMap<>();
+        for (String filter : filters) {
+            byFirstLevel.computeIfAbsent(firstLevel(filter), k -> new ArrayList<>()).add(filter);
+        }
+        Set<String> overlapping = new HashSet<>();
+        for (String filter : filters) {
+            for (String other : candidates(filter, byFirstLevel, filters)) {
+                if (!other.equals(filter) && overlaps(filter, other)) {
+                    overlapping.add(filter);
+                    break;
+                }
+            }
+        }
+        return overlapping;
+    }
+
+    /**
+     * Check whether every topic matched by a filter is matched by another filter. '#' matches its parent level,
+     * so {@code a/#} covers {@code a}.
+     *
+     * @param filter covering filter
+     * @param other  covered filter
+     * @return true if the filter covers the other one
+     */
+    public static boolean covers(String filter, String other) {
+        String[] levels = TopicFilterTrie.split(filter);
+        String[] otherLevels = TopicFilterTrie.split(other);
+        if (isWildcard(levels[0]) && otherLevels[0].startsWith(SYSTEM_TOPIC_PREFIX)) {
+            return false;
+        }
+        for (int i = 0; i < levels.length; i++) {
+            if (MULTI_LEVEL_WILDCARD.equals(levels[i])) {
+                return true;
+            }
+            if (i == otherLevels.length || MULTI_LEVEL_WILDCARD.equals(otherLevels[i])) {
+                return false;
+            }
+            if (!SINGLE_LEVEL_WILDCARD.equals(levels[i]) && !levels[i].equals(otherLevels[i])) {
+                return false;
+            }
+        }
+        return levels.length == otherLevels.length;
+    }
+
+    /**
+     * Check whether two filters match a topic in common.
+     *
+     * @param filter a filter
+     * @param other  another filter
+     * @return true if a topic matches both filters
+     */
+    public static boolean overlaps(String filter, String other) {
+        String[] levels = TopicFilterTrie.split(filter);
+        String[] otherLevels = TopicFilterTrie.split(other);
+        if (isWildcard(levels[0]) && otherLevels[0].startsWith(SYSTEM_TOPIC_PREFIX)
+                || isWildcard(otherLevels[0]) && levels[0].startsWith(SYSTEM_TOPIC_PREFIX)) {
+            return false;
+        }
+        for (int i = 0; i < levels.length && i < otherLevels.length; i++) {
+            if (MULTI_LEVEL_WILDCARD.equals(levels[i]) || MULTI_LEVEL_WILDCARD.equals(otherLevels[i])) {
+                return true;
+            }
+            if (!isWildcard(levels[i]) && !isWildcard(otherLevels[i]) && !levels[i].equals(otherLevels[i])) {
+                return false;
+            }
+        }
+        // The longer filter may only go on with a '#' matching the parent level
+        int length = Math.min(levels.length, otherLevels.length);
+        return levels.length == otherLevels.length
+                || levels.length > length && MULTI_LEVEL_WILDCARD.equals(levels[length])
+                || otherLevels.length > length && MULTI_LEVEL_WILDCARD.equals(otherLevels[length]);
+    }
+
+    /**
+     * Check whether a concrete topic matches a filter.
+     *
+     * @param filter MQTT topic filter
+     * @param topic  concrete MQTT topic
+     * @return true if the topic matches the filter
+     */
+    public static boolean matches(String filter, String topic) {
+        // A concrete topic has no wildcard, so it overlaps exactly the filters matching it
+        return overlaps(filter, topic);
+    }
+
+    // Distinct filters never cover each other, so the filter covering this one is not covered by it
+    private static String coverOf(String filter, Map<String, List<String>> byFirstLevel, Set<String> filters) {
+        for (String other : candidates(filter, byFirstLevel, filters)) {
+            if (!other.equals(filter) && covers(other, filter)) {
+                return other;
+            }
+        }
+        return null;
+    }
+
+    private static Iterable<String> candidates(String filter, Map<String, List<String>> byFirstLevel,
+                                               Set<String> filters) {
+        String first = firstLevel(filter);
+        if (isWildcard(first)) {
+            return filters;
+        }
+        List<String> candidates = new ArrayList<>();
+        for (String level : new String[]{first, SINGLE_LEVEL_WILDCARD, MULTI_LEVEL_WILDCARD}) {
+            for (String other : byFirstLevel.getOrDefault(level, Collections.emptyList())) {
+                if (filters.contains(other)) {
+                    candidates.add(other);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private static String firstLevel(String filter) {
+        int separator = filter.indexOf(TopicFilterTrie.LEVEL_SEPARATOR);
+        return separator < 0 ? filter : filter.substring(0, separator);
+    }
+
+    private static boolean isWildcard(String level) {
+        return SINGLE_LEVEL_WILDCARD.equals(level) || MULTI_LEVEL_WILDCARD.equals(level);
+    }
+}
@@ -17,6 +17,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Topic mappings from mqtt topic to other topics (iot core or pub sub).
@@ -30,6 +31,13 @@ public class TopicMapping {
 
     private List<UpdateListener> updateListeners = new CopyOnWriteArrayList<>();
 
+    // Incremented on every update so that anything derived from the mapping can tell it is stale
+    private final AtomicLong generation = new AtomicLong();
+
+    public long getGeneration() {
+        return generation.get();
+    }
+
     public List<MappingEntry> getList() {
         return new ArrayList<>(mapping.values());
     }
@@ -41,6 +49,8 @@ public class TopicMapping {
     @NoArgsConstructor
     @EqualsAndHashCode
     public static class MappingEntry {
+        public static final int DEFAULT_QOS = 1;
+
         @Getter
         @JsonProperty("topic")
         private String topic;
@@ -53,16 +63,146 @@ public class TopicMapping {
         @Getter
         @JsonProperty("appendTopic")
         private boolean appendTopic = false;
+        @Getter
+        @JsonProperty("headerFormat")
+        private HeaderFormat headerFormat = HeaderFormat.JSON;
+        // Null unless the messages are batched
+        @Getter
+        @JsonProperty("batch")
+        private BatchConfig batch;
+        // Null unless the payloads are compressed
+        @Getter
+        @JsonProperty("compression")
+        private CompressionConfig compression;
+        // QoS of the subscription to the topic. QoS 0 messages are never acknowledged to the broker.
+        @Getter
+        @JsonProperty("qos")
+        private int qos = DEFAULT_QOS;
+
+        /**
+         * Ctr for a MappingEntry with a JSON metadata header.
+         *
+         * @param topic       source topic filter
+         * @param stream      destination stream
+         * @param appendTime  whether to add the time the message was received to the header
+         * @param appendTopic whether to add the source topic to the header
+         */
+        public MappingEntry(String topic, String stream, boolean appendTime, boolean appendTopic) {
+            this(topic, stream, appendTime, appendTopic, HeaderFormat.JSON);
+        }
+
+        /**
+         * Ctr for a MappingEntry without batching.
+         *
+         * @param topic        source topic filter
+         * @param stream       destination stream
+         * @param appendTime   whether to add the time the message was received to the header
+         * @param appendTopic  whether to add the source topic to the header
+         * @param headerFormat format of the metadata header
+         */
+        public MappingEntry(String topic, String stream, boolean appendTime, boolean appendTopic,
+                            HeaderFormat headerFormat) {
+            this(topic, stream, appendTime, appendTopic, headerFormat, null);
+        }
+
+        /**
+         * Ctr for a MappingEntry without compression.
+         *
+         * @param topic        source topic filter
+         * @param stream       destination stream
+         * @param appendTime   whether to add the time the message was received to the header
+         * @param appendTopic  whether to add the source topic to the header
+         * @param headerFormat format of the metadata header
+         * @param batch        batch limits, or null to publish messages one by one
+         */
+        public MappingEntry(String topic, String stream, boolean appendTime, boolean appendTopic,
+                            HeaderFormat headerFormat, BatchConfig batch) {
+            this(topic, stream, appendTime, appendTopic, headerFormat, batch, null);
+        }
+
+        /**
+         * Ctr for a MappingEntry subscribing with the default QoS.
+         *
+         * @param topic        source topic filter
+         * @param stream       destination stream
+         * @param appendTime   whether to add the time the message was received to the header
+         * @param appendTopic  whether to add the source topic to the header
+         * @param headerFormat format of the metadata header
+         * @param batch        batch limits, or null to publish messages one by one
+         * @param compression  compression of the records, or null
+         */
+        public MappingEntry(String topic, String stream, boolean appendTime, boolean appendTopic,
+                            HeaderFormat headerFormat, BatchConfig batch, CompressionConfig compression) {
+            this(topic, stream, appendTime, appendTopic, headerFormat, batch, compression, DEFAULT_QOS);
+        }
 
         @Override
         public String toString() {
-            return String.format(
-                    "{topic: %s, stream: %s, appendTime: %b, appendTopic: %b}",
-                    topic, stream, appendTime, appendTopic
+            return String.format("{topic: %s, stream: %s, appendTime: %b, appendTopic: %b, headerFormat: %s, "
+                            + "batch: %s, compression: %s, qos: %d}",
+                    topic, stream, appendTime, appendTopic, headerFormat, batch, compression, qos
             );
         }
     }
 
+    /**
+     * Micro-batching of the messages of a mapping. Messages are gathered per stream and appended as a single
+     * record, framed as described in {@link BatchRecordDecoder}, once the batch holds the maximum number of
+     * messages or payload bytes, or the first message in it has waited for the linger time.
+     */
+    @AllArgsConstructor
+    @NoArgsConstructor
+    @EqualsAndHashCode
+    public static class BatchConfig {
+        public static final int DEFAULT_MAX_MESSAGES = 100;
+        public static final int DEFAULT_MAX_BYTES = 64 * 1024;
+        public static final long DEFAULT_LINGER_MILLIS = 100;
+
+        @Getter
+        @JsonProperty("maxMessages")
+        private int maxMessages = DEFAULT_MAX_MESSAGES;
+        @Getter
+        @JsonProperty("maxBytes")
+        private int maxBytes = DEFAULT_MAX_BYTES;
+        @Getter
+        @JsonProperty("lingerMs")
+        private long lingerMs = DEFAULT_LINGER_MILLIS;
+
+        @Override
+        public String toString() {
+            return String.format("{maxMessages: %d, maxBytes: %d, lingerMs: %d}", maxMessages, maxBytes, lingerMs);
+        }
+    }
+
+    /**
+     * Compression of the records of a mapping, applied to each message, or to each batch when the mapping batches.
+     * Records smaller than the minimum size are appended uncompressed. Either way a flag byte tells consumers
+     * whether the record is compressed, see {@link PayloadCompressor}.
+     */
+    @AllArgsConstructor
+    @NoArgsConstructor
+    @EqualsAndHashCode
+    public static class CompressionConfig {
+        public static final int DEFAULT_LEVEL = 6;
+        public static final int DEFAULT_MIN_BYTES = 256;
+
+        @Getter
+        @JsonProperty("type")
+        private CompressionType type = CompressionType.NONE;
+        // 1 (fastest) to 9 (smallest)
+        @Getter
+        @JsonProperty("level")
+        private int level = DEFAULT_LEVEL;
+        @Getter
+        @JsonProperty("minBytes")
+        private int minBytes = DEFAULT_MIN_BYTES;
+
+        @Override
+        public String toString() {
+            return String.format("{type: %s, level: %d, minBytes: %d}", type, level, minBytes);
+        }
+    }
+
     @FunctionalInterface
     public interface UpdateListener {
         void onUpdate();
@@ -77,6 +217,7 @@ public class TopicMapping {
         // TODO: Check for duplicates, General validation + unit tests. Topic strings need to be validated (allowed
         //  filter?, etc)
         this.mapping = mapping;
+        generation.incrementAndGet();
         updateListeners.forEach(UpdateListener::onUpdate);
     }
 
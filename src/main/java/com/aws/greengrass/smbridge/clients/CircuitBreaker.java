@@ -0,0 +1,122 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.clients;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker for a single stream.
+ *
+ * <p>The circuit opens after a number of consecutive failures. While open, calls are refused without reaching
+ * Stream Manager. Once the open time has elapsed, the circuit is half-open: a single probe call is let through,
+ * closing the circuit if it succeeds and opening it again if it fails.
+ */
+public class CircuitBreaker {
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 10_000;
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoClock;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean probeInFlight;
+
+    /**
+     * Ctr for CircuitBreaker.
+     *
+     * @param failureThreshold consecutive failures opening the circuit
+     * @param openMillis       time the circuit stays open before a probe is let through
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this(failureThreshold, openMillis, System::nanoTime);
+    }
+
+    /**
+     * Ctr for CircuitBreaker with a custom clock.
+     *
+     * @param failureThreshold consecutive failures opening the circuit
+     * @param openMillis       time the circuit stays open before a probe is let through
+     * @param nanoClock        monotonic clock in nanoseconds
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis, LongSupplier nanoClock) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Check whether a call may go through. A call let through must be followed by {@link #onSuccess()},
+     * {@link #onFailure()} or {@link #release()}.
+     *
+     * @return false if the call must fail fast
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (nanoClock.getAsLong() - openedAtNanos < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                return true;
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    /**
+     * Record a successful call, closing the circuit.
+     *
+     * @return true if the circuit was not closed before
+     */
+    public synchronized boolean onSuccess() {
+        boolean wasClosed = state == State.CLOSED;
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        return !wasClosed;
+    }
+
+    /**
+     * Record a failed call, opening the circuit after too many of them or if the probe failed.
+     *
+     * @return true if the circuit was closed before and is now open
+     */
+    public synchronized boolean onFailure() {
+        consecutiveFailures++;
+        probeInFlight = false;
+        boolean wasClosed = state == State.CLOSED;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAtNanos = nanoClock.getAsLong();
+        }
+        return wasClosed && state == State.OPEN;
+    }
+
+    /**
+     * Record a call which failed for a reason unrelated to the stream, leaving the circuit as it is.
+     */
+    public synchronized void release() {
+        probeInFlight = false;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,18 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.clients;
+
+/**
+ * Thrown when a message is not published because its stream keeps failing and its circuit breaker is open. The
+ * message was not sent to Stream Manager, so publishing it again once the circuit closes may succeed.
+ */
+public class CircuitOpenException extends SMClientException {
+    static final long serialVersionUID = -6011390372845613207L;
+
+    public CircuitOpenException(String msg) {
+        super(msg, true);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.clients;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Streams which rejected an append because they are full.
+ *
+ * <p>Appends to a full stream are dropped without calling Stream Manager. Once per probe interval, a single append
+ * is let through to find out whether the stream has room again.
+ */
+public class FullStreamTracker {
+    public static final long DEFAULT_PROBE_INTERVAL_MILLIS = 5000;
+
+    private final long probeIntervalNanos;
+    private final LongSupplier nanoClock;
+    // Full streams, with the time after which the next append probes the stream
+    private final ConcurrentHashMap<String, AtomicLong> nextProbeNanos = new ConcurrentHashMap<>();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
+
+    public FullStreamTracker(long probeIntervalMillis) {
+        this(probeIntervalMillis, System::nanoTime);
+    }
+
+    /**
+     * Ctr for FullStreamTracker with a custom clock.
+     *
+     * @param probeIntervalMillis time between two appends probing a full stream
+     * @param nanoClock           monotonic clock in nanoseconds
+     */
+    public FullStreamTracker(long probeIntervalMillis, LongSupplier nanoClock) {
+        this.probeIntervalNanos = TimeUnit.MILLISECONDS.toNanos(probeIntervalMillis);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Check whether an append to the stream may call Stream Manager. Counts the message dropped if not.
+     *
+     * @param stream       stream name
+     * @param payloadBytes size of the message
+     * @return true if the stream is not full or the append probes it
+     */
+    public boolean tryAppend(String stream, int payloadBytes) {
+        AtomicLong probeAt = nextProbeNanos.get(stream);
+        if (probeAt == null) {
+            return true;
+        }
+        long now = nanoClock.getAsLong();
+        long scheduled = probeAt.get();
+        // Only one append probes the stream per interval
+        if (now - scheduled >= 0 && probeAt.compareAndSet(scheduled, now + probeIntervalNanos)) {
+            return true;
+        }
+        countDropped(payloadBytes);
+        return false;
+    }
+
+    /**
+     * Record that the stream rejected an append because it is full. Counts the message dropped.
+     *
+     * @param stream       stream name
+     * @param payloadBytes size of the rejected message
+     * @return true if the stream was not known to be full before
+     */
+    public boolean markFull(String stream, int payloadBytes) {
+        countDropped(payloadBytes);
+        AtomicLong probeAt = new AtomicLong(nanoClock.getAsLong() + probeIntervalNanos);
+        return nextProbeNanos.putIfAbsent(stream, probeAt) == null;
+    }
+
+    /**
+     * Record that the stream accepted an append.
+     *
+     * @param stream stream name
+     * @return true if the stream was full before
+     */
+    public boolean markAccepted(String stream) {
+        return !nextProbeNanos.isEmpty() && nextProbeNanos.remove(stream) != null;
+    }
+
+    public boolean isFull(String stream) {
+        return nextProbeNanos.containsKey(stream);
+    }
+
+    /**
+     * Number of messages dropped because their stream was full.
+     *
+     * @return dropped message count
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Payload bytes of the messages dropped because their stream was full.
+     *
+     * @return dropped bytes
+     */
+    public long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+
+    private void countDropped(int payloadBytes) {
+        droppedCount.incrementAndGet();
+        droppedBytes.addAndGet(payloadBytes);
+    }
+}
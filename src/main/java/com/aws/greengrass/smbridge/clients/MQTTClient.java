@@ -10,36 +10,83 @@ import com.aws.greengrass.config.Topics;
 import com.aws.greengrass.logging.api.Logger;
 import com.aws.greengrass.logging.impl.LogManager;
 import com.aws.greengrass.smbridge.MQTTMessage;
+import com.aws.greengrass.smbridge.MessageAck;
+import com.aws.greengrass.smbridge.TopicMapping;
 import com.aws.greengrass.smbridge.auth.MQTTClientKeyStore;
 import com.aws.greengrass.util.Coerce;
 import com.aws.greengrass.util.Utils;
 import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.Setter;
 import org.eclipse.paho.client.mqttv3.IMqttClient;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.KeyStoreException;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import javax.inject.Inject;
 import javax.net.ssl.SSLSocketFactory;
 
+/**
+ * Subscribes to the local broker and hands the messages received over to the message handler.
+ *
+ * <p>By default, messages are acknowledged to the broker as soon as the handler returns, so a message the handler
+ * has not stored yet is lost if the bridge stops. In at-least-once mode, the client acknowledges a message only once
+ * the handler settles it, and at most a window of messages waits to be settled at a time. When the window is full,
+ * a new message waits for a settled one on the paho callback thread, which stops reading from the broker, pings
+ * included. The wait is bounded to half the keepalive interval so that the connection stays up: a message still
+ * without room is left unacknowledged, like a released one. At-least-once mode needs a persistent session,
+ * since MQTT 3.1.1 has no way to reject a message: a message the handler releases is left unacknowledged, and the
+ * broker only delivers it again on the next connection of the session. Until then, it holds one of the inflight
+ * slots the broker allows the client.
+ *
+ * <p>With a persistent session, the broker keeps the subscriptions and queues the messages while the bridge is
+ * disconnected or stopped, and the client keeps its session state on disk. The topics subscribed to are saved along,
+ * so that when the broker reports the session as present, the client only subscribes to the topics added since.
+ */
 public class MQTTClient {
     private static final Logger LOGGER = LogManager.getLogger(MQTTClient.class);
     private static final String DEFAULT_BROKER_URI = "ssl://localhost:8883";
     private static final String DEFAULT_CLIENT_ID = "sm-bridge-" + Utils.generateRandomString(11);
+    // A persistent session is bound to the client id, which must not change across restarts
+    private static final String DEFAULT_PERSISTENT_CLIENT_ID = "sm-bridge";
+    private static final String SUBSCRIPTIONS_FILE = "subscriptions";
     public static final String BROKER_URI_KEY = "brokerServerUri";
     public static final String CLIENT_ID_KEY = "clientId";
     public static final String TOPIC = "topic";
+    public static final String DELIVERY_MODE_KEY = "deliveryMode";
+    public static final String MAX_INFLIGHT_MESSAGES_KEY = "maxInflightMessages";
+    public static final int DEFAULT_MAX_INFLIGHT_MESSAGES = 100;
+    public static final String SUBSCRIBE_BATCH_SIZE_KEY = "subscribeBatchSize";
+    public static final int DEFAULT_SUBSCRIBE_BATCH_SIZE = 100;
+    private static final int DEFAULT_QOS = TopicMapping.MappingEntry.DEFAULT_QOS;
+    private static final int MAX_QOS = 2;
+    // Granted QoS of a subscription refused by the broker
+    private static final int SUBSCRIPTION_REFUSED = 0x80;
     private static final int MIN_WAIT_RETRY_IN_SECONDS = 1;
     private static final int MAX_WAIT_RETRY_IN_SECONDS = 120;
 
@@ -47,17 +94,75 @@ public class MQTTClient {
     private Consumer<MQTTMessage> messageHandler;
     private final String serverUri;
     private final String clientId;
+    // Topics subscribed to in the persistent session, null with a clean session
+    private final Path subscriptionsFile;
 
     private final MqttClientPersistence dataStore;
     private final ExecutorService executorService;
     private Future<?> connectFuture;
     private IMqttClient mqttClientInternal;
-    @Getter(AccessLevel.PROTECTED)
-    private Set<String> subscribedLocalMqttTopics = new HashSet<>();
-    private Set<String> toSubscribeLocalMqttTopics = new HashSet<>();
+    // Topics with the QoS they were subscribed with, or are to be subscribed with
+    private final Map<String, Integer> subscribedLocalMqttTopics = new HashMap<>();
+    private Map<String, Integer> toSubscribeLocalMqttTopics = new HashMap<>();
 
     private final MQTTClientKeyStore mqttClientKeyStore;
 
+    @Getter
+    private final DeliveryMode deliveryMode;
+    private final int maxInflightMessages;
+    private final int subscribeBatchSize;
+    // Messages received in at-least-once mode and not settled yet, null in at-most-once mode
+    private final Semaphore inflightMessages;
+    // How long a message waits for room in the window before it is left for the broker to deliver again
+    @Setter(AccessLevel.PACKAGE) // Let the unit test shorten the wait
+    private long windowWaitMillis;
+    // Message ids are only valid on the connection they were received on
+    private final AtomicLong connectionGeneration = new AtomicLong();
+
+    /**
+     * How messages received from the broker are acknowledged.
+     */
+    public enum DeliveryMode {
+        /**
+         * Acknowledged once the message handler returns.
+         */
+        AT_MOST_ONCE,
+        /**
+         * Acknowledged once the message handler settled the message.
+         */
+        AT_LEAST_ONCE;
+
+        /**
+         * Parse a delivery mode from the component configuration.
+         *
+         * @param value configured value, such as atLeastOnce, case insensitive
+         * @return delivery mode
+         * @throws IllegalArgumentException if the value is not a known delivery mode
+         */
+        public static DeliveryMode fromString(String value) {
+            String normalized = value.trim().replace("_", "").replace("-", "");
+            for (DeliveryMode mode : values()) {
+                if (mode.name().replace("_", "").equalsIgnoreCase(normalized)) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown delivery mode " + value);
+        }
+
+        /**
+         * Read the delivery mode from the component configuration.
+         *
+         * @param topics component configuration
+         * @return configured delivery mode, at-most-once if not configured
+         * @throws IllegalArgumentException if the configured value is not a known delivery mode
+         */
+        public static DeliveryMode fromConfig(Topics topics) {
+            String mode = Coerce.toString(topics.findOrDefault(null,
+                    KernelConfigResolver.CONFIGURATION_CONFIG_KEY, DELIVERY_MODE_KEY));
+            return Utils.isEmpty(mode) ? AT_MOST_ONCE : fromString(mode);
+        }
+    }
+
     private final MqttCallback mqttCallback = new MqttCallback() {
         @Override
         public void connectionLost(Throwable cause) {
@@ -66,14 +171,39 @@ public class MQTTClient {
         }
 
         @Override
-        public void messageArrived(String topic, org.eclipse.paho.client.mqttv3.MqttMessage message) {
+        public void messageArrived(String topic, org.eclipse.paho.client.mqttv3.MqttMessage message)
+                throws InterruptedException {
             LOGGER.atTrace().kv(TOPIC, topic).log("Received MQTT message");
 
-            if (messageHandler == null) {
+            MessageAck ack = null;
+            // QoS 0 messages are never acknowledged, and take the lighter path of the at-most-once mode
+            if (inflightMessages != null && message.getQos() > 0) {
+                // Hold up the broker while the window is full, but not long enough to miss the ping response. If
+                // interrupted, the paho client drops the connection and the broker delivers the message again.
+                if (!inflightMessages.tryAcquire(windowWaitMillis, TimeUnit.MILLISECONDS)) {
+                    LOGGER.atDebug().kv(TOPIC, topic).kv("messageId", message.getId())
+                            .log("No room for message in the inflight window, leaving it for the broker to deliver "
+                                    + "again");
+                    return;
+                }
+                ack = new InflightAck(message.getId(), message.getQos(), connectionGeneration.get());
+            }
+            Consumer<MQTTMessage> handler = messageHandler;
+            if (handler == null) {
                 LOGGER.atWarn().kv(TOPIC, topic).log("Mqtt message received but message handler not set");
-            } else {
-                MQTTMessage msg = new MQTTMessage(topic, message.getPayload());
-                messageHandler.accept(msg);
+                if (ack != null) {
+                    ack.acknowledge();
+                }
+                return;
+            }
+            MQTTMessage msg = new MQTTMessage(topic, message.getPayload(), ack);
+            try {
+                handler.accept(msg);
+            } catch (RuntimeException e) {
+                if (ack != null) {
+                    ack.release();
+                }
+                throw e;
             }
         }
 
@@ -82,6 +212,46 @@ public class MQTTClient {
         }
     };
 
+    // Acknowledges a message received in at-least-once mode, and frees its place in the window
+    private final class InflightAck implements MessageAck {
+        private final int messageId;
+        private final int qos;
+        private final long generation;
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        private InflightAck(int messageId, int qos, long generation) {
+            this.messageId = messageId;
+            this.qos = qos;
+            this.generation = generation;
+        }
+
+        @Override
+        public void acknowledge() {
+            if (!settled.compareAndSet(false, true)) {
+                return;
+            }
+            // After a reconnect the broker delivers the message again, and the id may belong to another message
+            if (generation == connectionGeneration.get()) {
+                try {
+                    mqttClientInternal.messageArrivedComplete(messageId, qos);
+                } catch (MqttException e) {
+                    LOGGER.atDebug().setCause(e).kv("messageId", messageId)
+                            .log("Unable to acknowledge message, the broker will deliver it again");
+                }
+            }
+            inflightMessages.release();
+        }
+
+        @Override
+        public void release() {
+            if (settled.compareAndSet(false, true)) {
+                LOGGER.atDebug().kv("messageId", messageId)
+                        .log("Message not stored, leaving it for the broker to deliver again");
+                inflightMessages.release();
+            }
+        }
+    }
+
     /**
      * Ctr for MQTTClient.
      *
@@ -89,11 +259,28 @@ public class MQTTClient {
      * @param mqttClientKeyStore KeyStore for MQTT Client
      * @param executorService    Executor service
      * @throws MQTTClientException if unable to create client for the mqtt broker
+     * @throws IllegalArgumentException if the delivery mode is not a known one, or is at-least-once
      */
     @Inject
     public MQTTClient(Topics topics, MQTTClientKeyStore mqttClientKeyStore, ExecutorService executorService)
             throws MQTTClientException {
-        this(topics, mqttClientKeyStore, executorService, null);
+        this(topics, mqttClientKeyStore, executorService, (Path) null);
+    }
+
+    /**
+     * Ctr for MQTTClient.
+     *
+     * @param topics             topics passed in by Nucleus
+     * @param mqttClientKeyStore KeyStore for MQTT Client
+     * @param executorService    Executor service
+     * @param sessionDirectory   directory keeping the state of a persistent session, or null for a clean session
+     * @throws MQTTClientException if unable to create client for the mqtt broker
+     * @throws IllegalArgumentException if the delivery mode is not a known one, or is at-least-once without a
+     *                                  persistent session
+     */
+    public MQTTClient(Topics topics, MQTTClientKeyStore mqttClientKeyStore, ExecutorService executorService,
+                      Path sessionDirectory) throws MQTTClientException {
+        this(topics, mqttClientKeyStore, executorService, null, sessionDirectory);
         // TODO: Handle the case when serverUri is modified
         try {
             this.mqttClientInternal = new MqttClient(serverUri, clientId, dataStore);
@@ -108,17 +295,58 @@ public class MQTTClient {
 
     protected MQTTClient(Topics topics, MQTTClientKeyStore mqttClientKeyStore, ExecutorService executorService,
                          IMqttClient mqttClient) {
+        this(topics, mqttClientKeyStore, executorService, mqttClient, null);
+    }
+
+    protected MQTTClient(Topics topics, MQTTClientKeyStore mqttClientKeyStore, ExecutorService executorService,
+                         IMqttClient mqttClient, Path sessionDirectory) {
         this.mqttClientInternal = mqttClient;
-        this.dataStore = new MemoryPersistence();
         this.serverUri = Coerce.toString(topics.findOrDefault(DEFAULT_BROKER_URI,
                 KernelConfigResolver.CONFIGURATION_CONFIG_KEY, BROKER_URI_KEY));
-        this.clientId = Coerce.toString(topics.findOrDefault(DEFAULT_CLIENT_ID,
-                KernelConfigResolver.CONFIGURATION_CONFIG_KEY, CLIENT_ID_KEY));
+        this.clientId = Coerce.toString(topics.findOrDefault(sessionDirectory == null ? DEFAULT_CLIENT_ID
+                : DEFAULT_PERSISTENT_CLIENT_ID, KernelConfigResolver.CONFIGURATION_CONFIG_KEY, CLIENT_ID_KEY));
+        if (sessionDirectory == null) {
+            this.dataStore = new MemoryPersistence();
+            this.subscriptionsFile = null;
+        } else {
+            this.dataStore = new MqttDefaultFilePersistence(sessionDirectory.toString());
+            this.subscriptionsFile = sessionDirectory.resolve(SUBSCRIPTIONS_FILE);
+            loadSubscriptions();
+        }
+        this.deliveryMode = DeliveryMode.fromConfig(topics);
+        if (deliveryMode == DeliveryMode.AT_LEAST_ONCE && sessionDirectory == null) {
+            // A released message would never be delivered again, and keep its inflight slot in the broker
+            throw new IllegalArgumentException("The atLeastOnce delivery mode needs a persistent MQTT session");
+        }
+        int maxInflight = Coerce.toInt(topics.findOrDefault(DEFAULT_MAX_INFLIGHT_MESSAGES,
+                KernelConfigResolver.CONFIGURATION_CONFIG_KEY, MAX_INFLIGHT_MESSAGES_KEY));
+        this.maxInflightMessages = maxInflight > 0 ? maxInflight : DEFAULT_MAX_INFLIGHT_MESSAGES;
+        this.inflightMessages = deliveryMode == DeliveryMode.AT_LEAST_ONCE ? new Semaphore(maxInflightMessages)
+                : null;
+        // Without keepalive, nothing is missed while waiting
+        int keepAliveSeconds = connOpts.getKeepAliveInterval();
+        this.windowWaitMillis = keepAliveSeconds > 0 ? TimeUnit.SECONDS.toMillis(keepAliveSeconds) / 2 : Long.MAX_VALUE;
+        int batchSize = Coerce.toInt(topics.findOrDefault(DEFAULT_SUBSCRIBE_BATCH_SIZE,
+                KernelConfigResolver.CONFIGURATION_CONFIG_KEY, SUBSCRIBE_BATCH_SIZE_KEY));
+        this.subscribeBatchSize = batchSize > 0 ? batchSize : DEFAULT_SUBSCRIBE_BATCH_SIZE;
         this.mqttClientKeyStore = mqttClientKeyStore;
         this.mqttClientKeyStore.listenToUpdates(this::reset);
         this.executorService = executorService;
     }
 
+    protected synchronized Set<String> getSubscribedLocalMqttTopics() {
+        return subscribedLocalMqttTopics.keySet();
+    }
+
+    /**
+     * Number of messages received in at-least-once mode and not settled yet.
+     *
+     * @return inflight message count, always 0 in at-most-once mode
+     */
+    public int getInflightMessageCount() {
+        return inflightMessages == null ? 0 : maxInflightMessages - inflightMessages.availablePermits();
+    }
+
     void reset() {
         if (mqttClientInternal.isConnected()) {
             try {
@@ -142,6 +370,11 @@ public class MQTTClient {
      */
     public void start() {
         mqttClientInternal.setCallback(mqttCallback);
+        if (deliveryMode == DeliveryMode.AT_LEAST_ONCE) {
+            mqttClientInternal.setManualAcks(true);
+            LOGGER.atInfo().kv(MAX_INFLIGHT_MESSAGES_KEY, maxInflightMessages)
+                    .log("Acknowledging messages once stored");
+        }
         try {
             connectAndSubscribe();
         } catch (KeyStoreException e) {
@@ -154,7 +387,10 @@ public class MQTTClient {
      * Stop the {@link MQTTClient}.
      */
     public void stop() {
-        removeMappingAndSubscriptions();
+        if (subscriptionsFile == null) {
+            removeMappingAndSubscriptions();
+        }
+        // Else keep the subscriptions, the broker queues the messages for the next start
 
         try {
             if (mqttClientInternal.isConnected()) {
@@ -174,27 +410,37 @@ public class MQTTClient {
     private void unsubscribeAll() {
         LOGGER.atDebug().kv("mapping", subscribedLocalMqttTopics).log("Unsubscribe from local MQTT topics");
 
-        this.subscribedLocalMqttTopics.forEach(s -> {
-            try {
-                mqttClientInternal.unsubscribe(s);
-                LOGGER.atDebug().kv(TOPIC, s).log("Unsubscribed from topic");
-            } catch (MqttException e) {
-                LOGGER.atWarn().kv(TOPIC, s).setCause(e).log("Unable to unsubscribe");
-            }
-        });
+        forEachBatch(new ArrayList<>(subscribedLocalMqttTopics.keySet()), this::unsubscribe);
     }
 
     /**
-     * Called to update the client's subscribed topics.
+     * Called to update the client's subscribed topics, subscribing with the default QoS.
      *
      * @param topics         The set of topics to subscribe to
      * @param messageHandler The handler for messages
      */
-    public synchronized void updateSubscriptions(Set<String> topics, Consumer<MQTTMessage> messageHandler) {
+    public void updateSubscriptions(Set<String> topics, Consumer<MQTTMessage> messageHandler) {
+        updateSubscriptions(topics, Collections.emptyMap(), messageHandler);
+    }
+
+    /**
+     * Called to update the client's subscribed topics. A topic whose QoS changed is subscribed to again.
+     *
+     * @param topics         The set of topics to subscribe to
+     * @param qosByTopic     QoS of the subscription to each topic, the default QoS for the topics missing
+     * @param messageHandler The handler for messages
+     */
+    public synchronized void updateSubscriptions(Set<String> topics, Map<String, Integer> qosByTopic,
+                                                 Consumer<MQTTMessage> messageHandler) {
         this.messageHandler = messageHandler;
 
-        this.toSubscribeLocalMqttTopics = new HashSet<>(topics);
-        LOGGER.atDebug().kv("topics", topics).log("Updated local MQTT topics to subscribe");
+        Map<String, Integer> toSubscribe = new HashMap<>();
+        for (String topic : topics) {
+            int qos = qosByTopic.getOrDefault(topic, DEFAULT_QOS);
+            toSubscribe.put(topic, Math.max(0, Math.min(MAX_QOS, qos)));
+        }
+        this.toSubscribeLocalMqttTopics = toSubscribe;
+        LOGGER.atDebug().kv("topics", toSubscribe).log("Updated local MQTT topics to subscribe");
 
         if (mqttClientInternal.isConnected()) {
             updateSubscriptionsInternal();
@@ -202,40 +448,122 @@ public class MQTTClient {
     }
 
     private synchronized void updateSubscriptionsInternal() {
-        Set<String> topicsToRemove = new HashSet<>(subscribedLocalMqttTopics);
-        topicsToRemove.removeAll(toSubscribeLocalMqttTopics);
-        topicsToRemove.forEach(s -> {
-            try {
-                mqttClientInternal.unsubscribe(s);
-                LOGGER.atDebug().kv(TOPIC, s).log("Unsubscribed from topic");
-                subscribedLocalMqttTopics.remove(s);
-            } catch (MqttException e) {
-                LOGGER.atError().kv(TOPIC, s).setCause(e).log("Unable to unsubscribe");
-                // If we are unable to unsubscribe, leave the topic in the set so that we can try to remove next time.
+        Map<String, Integer> subscribedBefore = new HashMap<>(subscribedLocalMqttTopics);
+        List<String> topicsToRemove = new ArrayList<>(subscribedLocalMqttTopics.keySet());
+        topicsToRemove.removeAll(toSubscribeLocalMqttTopics.keySet());
+        forEachBatch(topicsToRemove, this::unsubscribe);
+
+        // Subscribing again to a topic replaces the QoS of its subscription
+        List<String> topicsToSubscribe = new ArrayList<>();
+        toSubscribeLocalMqttTopics.forEach((topic, qos) -> {
+            if (!qos.equals(subscribedLocalMqttTopics.get(topic))) {
+                topicsToSubscribe.add(topic);
             }
         });
+        // TODO: add retry
+        forEachBatch(topicsToSubscribe, this::subscribe);
+
+        if (subscriptionsFile != null && !subscribedBefore.equals(subscribedLocalMqttTopics)) {
+            saveSubscriptions();
+        }
+    }
+
+    // Each SUBSCRIBE or UNSUBSCRIBE packet is a round trip to the broker, so send up to a batch of topics in each
+    private void forEachBatch(List<String> topics, Consumer<List<String>> action) {
+        for (int from = 0; from < topics.size(); from += subscribeBatchSize) {
+            action.accept(topics.subList(from, Math.min(topics.size(), from + subscribeBatchSize)));
+        }
+    }
+
+    private void subscribe(List<String> topics) {
+        String[] topicFilters = topics.toArray(new String[0]);
+        int[] qos = new int[topicFilters.length];
+        for (int i = 0; i < topicFilters.length; i++) {
+            qos[i] = toSubscribeLocalMqttTopics.get(topicFilters[i]);
+        }
+        try {
+            // Replaces the requested QoS of each topic by the one granted by the broker
+            mqttClientInternal.subscribe(topicFilters, qos);
+        } catch (MqttException e) {
+            if (topics.size() > 1) {
+                // The whole batch failed, subscribe one by one so that a single bad topic does not hold back the rest
+                topics.forEach(topic -> subscribe(Collections.singletonList(topic)));
+                return;
+            }
+            // Left out of the subscribed topics, so that the subscription is tried again next time
+            LOGGER.atError().kv(TOPIC, topics.get(0)).setCause(e).log("Failed to subscribe");
+            return;
+        }
+        for (int i = 0; i < topicFilters.length; i++) {
+            if (qos[i] == SUBSCRIPTION_REFUSED) {
+                // Left out of the subscribed topics, so that the subscription is tried again next time
+                LOGGER.atError().kv(TOPIC, topicFilters[i]).log("Failed to subscribe");
+            } else {
+                LOGGER.atDebug().kv(TOPIC, topicFilters[i]).kv("qos", qos[i]).log("Subscribed to topic");
+                // The requested QoS, so that a lower QoS granted by the broker is not asked for again
+                subscribedLocalMqttTopics.put(topicFilters[i], toSubscribeLocalMqttTopics.get(topicFilters[i]));
+            }
+        }
+    }
 
-        Set<String> topicsToSubscribe = new HashSet<>(toSubscribeLocalMqttTopics);
-        topicsToSubscribe.removeAll(subscribedLocalMqttTopics);
+    private void unsubscribe(List<String> topics) {
+        try {
+            mqttClientInternal.unsubscribe(topics.toArray(new String[0]));
+            LOGGER.atDebug().kv("topics", topics).log("Unsubscribed from topics");
+            subscribedLocalMqttTopics.keySet().removeAll(topics);
+        } catch (MqttException e) {
+            if (topics.size() > 1) {
+                // The broker does not report which topic failed, find out one by one
+                topics.forEach(topic -> unsubscribe(Collections.singletonList(topic)));
+                return;
+            }
+            LOGGER.atError().kv(TOPIC, topics.get(0)).setCause(e).log("Unable to unsubscribe");
+            // If we are unable to unsubscribe, leave the topic in the set so that we can try to remove next time.
+        }
+    }
 
-        // TODO: Support configurable qos, add retry
-        topicsToSubscribe.forEach(s -> {
+    private void loadSubscriptions() {
+        if (!Files.exists(subscriptionsFile)) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(subscriptionsFile, StandardCharsets.UTF_8)) {
+                // The QoS, a space, then the topic
+                if (line.length() > 2 && line.charAt(1) == ' ' && line.charAt(0) >= '0'
+                        && line.charAt(0) <= '0' + MAX_QOS) {
+                    subscribedLocalMqttTopics.put(line.substring(2), line.charAt(0) - '0');
+                }
+            }
+        } catch (IOException e) {
+            // Subscribe to all the topics again on connect
+            LOGGER.atWarn().setCause(e).log("Unable to read the topics subscribed to in the persistent session");
+        }
+    }
+
+    private void saveSubscriptions() {
+        Path temporary = subscriptionsFile.resolveSibling(SUBSCRIPTIONS_FILE + ".tmp");
+        try {
+            List<String> lines = new ArrayList<>(subscribedLocalMqttTopics.size());
+            subscribedLocalMqttTopics.forEach((topic, qos) -> lines.add(qos + " " + topic));
+            Files.write(temporary, lines, StandardCharsets.UTF_8);
+            Files.move(temporary, subscriptionsFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Without the file, the client subscribes to all the topics again on the next start
+            LOGGER.atWarn().setCause(e).log("Unable to save the topics subscribed to in the persistent session");
             try {
-                mqttClientInternal.subscribe(s);
-                LOGGER.atDebug().kv(TOPIC, s).log("Subscribed to topic");
-                subscribedLocalMqttTopics.add(s);
-            } catch (MqttException e) {
-                LOGGER.atError().kv(TOPIC, s).log("Failed to subscribe");
+                Files.deleteIfExists(subscriptionsFile);
+            } catch (IOException ignored) {
+                // Nothing more to do
             }
-        });
+        }
     }
 
     private synchronized void connectAndSubscribe() throws KeyStoreException {
         if (connectFuture != null) {
             connectFuture.cancel(true);
         }
-        //TODO: persistent session could be used
-        connOpts.setCleanSession(true);
+        connOpts.setCleanSession(subscriptionsFile == null);
 
         if (serverUri.startsWith("ssl")) {
             SSLSocketFactory ssf = mqttClientKeyStore.getSSLSocketFactory();
@@ -245,20 +573,28 @@ public class MQTTClient {
         connectFuture = executorService.submit(this::reconnectAndResubscribe);
     }
 
-    private synchronized void doConnect() throws MqttException {
+    // Returns true if the broker kept the subscriptions of the persistent session
+    private synchronized boolean doConnect() throws MqttException {
         if (!mqttClientInternal.isConnected()) {
-            mqttClientInternal.connect(connOpts);
-            LOGGER.atInfo().kv("uri", serverUri).kv(CLIENT_ID_KEY, clientId).log("Connected to broker");
+            // Acknowledgements still pending belong to the previous connection
+            connectionGeneration.incrementAndGet();
+            IMqttToken token = mqttClientInternal.connectWithResult(connOpts);
+            boolean sessionPresent = !connOpts.isCleanSession() && token.getSessionPresent();
+            LOGGER.atInfo().kv("uri", serverUri).kv(CLIENT_ID_KEY, clientId).kv("sessionPresent", sessionPresent)
+                    .log("Connected to broker");
+            return sessionPresent;
         }
+        return false;
     }
 
     private void reconnectAndResubscribe() {
         int waitBeforeRetry = MIN_WAIT_RETRY_IN_SECONDS;
+        boolean sessionPresent = false;
 
         while (!mqttClientInternal.isConnected()) {
             try {
                 //TODO: Clean up this loop
-                doConnect();
+                sessionPresent = doConnect();
             } catch (MqttException e) {
                 LOGGER.atDebug().setCause(e)
                         .log("Unable to connect. Will be retried after {} seconds", waitBeforeRetry);
@@ -272,7 +608,12 @@ public class MQTTClient {
             }
         }
 
-        resubscribe();
+        if (sessionPresent) {
+            // Only apply the changes made since the subscriptions were last saved
+            updateSubscriptionsInternal();
+        } else {
+            resubscribe();
+        }
     }
 
     private synchronized void resubscribe() {
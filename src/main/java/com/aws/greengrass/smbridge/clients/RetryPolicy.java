@@ -0,0 +1,59 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.clients;
+
+import lombok.Getter;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How many times a failed Stream Manager call is attempted, and how long to wait between attempts.
+ *
+ * <p>The wait doubles after each attempt, from the base delay up to the maximum delay. Jitter takes a random part
+ * of up to that fraction off each wait, so that publishers failing together do not retry together.
+ */
+@Getter
+public class RetryPolicy {
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 50;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 1000;
+    public static final double DEFAULT_JITTER = 1.0;
+    public static final RetryPolicy NO_RETRY = new RetryPolicy(1, 0, 0, 0);
+    // Doubling more often than this overflows, and the maximum delay is reached long before anyway
+    private static final int MAX_DOUBLINGS = 30;
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final double jitter;
+
+    /**
+     * Ctr for RetryPolicy.
+     *
+     * @param maxAttempts     attempts including the first one, at least 1
+     * @param baseDelayMillis wait after the first failed attempt
+     * @param maxDelayMillis  maximum wait between two attempts
+     * @param jitter          fraction of each wait which is random, between 0 and 1
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, double jitter) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = Math.max(0, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+        this.jitter = Math.min(1.0, Math.max(0.0, jitter));
+    }
+
+    /**
+     * Wait before the next attempt.
+     *
+     * @param failedAttempts number of attempts which failed so far, at least 1
+     * @return wait in milliseconds
+     */
+    public long delayMillis(int failedAttempts) {
+        long delay = Math.min(maxDelayMillis,
+                baseDelayMillis << Math.min(MAX_DOUBLINGS, Math.max(0, failedAttempts - 1)));
+        return delay - (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+    }
+}
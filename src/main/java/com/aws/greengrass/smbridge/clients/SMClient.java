@@ -9,29 +9,90 @@ import com.amazonaws.greengrass.streammanager.client.StreamManagerClient;
 import com.amazonaws.greengrass.streammanager.client.StreamManagerClientFactory;
 import com.amazonaws.greengrass.streammanager.client.config.StreamManagerClientConfig;
 import com.amazonaws.greengrass.streammanager.client.config.StreamManagerServerInfo;
+import com.amazonaws.greengrass.streammanager.client.exception.ConnectFailedException;
+import com.amazonaws.greengrass.streammanager.client.exception.InvalidRequestException;
+import com.amazonaws.greengrass.streammanager.client.exception.RequestPayloadTooLargeException;
+import com.amazonaws.greengrass.streammanager.client.exception.ResourceNotFoundException;
 import com.amazonaws.greengrass.streammanager.client.exception.StreamManagerException;
 import com.amazonaws.greengrass.streammanager.model.MessageStreamDefinition;
+import com.amazonaws.greengrass.streammanager.model.MessageStreamInfo;
 import com.amazonaws.greengrass.streammanager.model.StrategyOnFull;
+import com.aws.greengrass.componentmanager.KernelConfigResolver;
 import com.aws.greengrass.config.Topics;
 import com.aws.greengrass.logging.api.Logger;
 import com.aws.greengrass.logging.impl.LogManager;
 import com.aws.greengrass.smbridge.StreamDefinition;
 import com.aws.greengrass.smbridge.StreamMessage;
+import com.aws.greengrass.smbridge.TokenBucket;
+import com.aws.greengrass.util.Coerce;
 import lombok.AccessLevel;
 import lombok.Getter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import javax.inject.Inject;
 
 public class SMClient {
     private static final Logger LOGGER = LogManager.getLogger(SMClient.class);
+    public static final String MAX_DYNAMIC_STREAMS_KEY = "maxDynamicStreams";
+    public static final String DYNAMIC_STREAM_CREATION_RATE_KEY = "dynamicStreamCreationsPerSecond";
+    public static final String CONNECTION_POOL_SIZE_KEY = "streamManagerConnections";
+    private static final int DEFAULT_CONNECTION_POOL_SIZE = 1;
+    public static final String PUBLISH_MAX_ATTEMPTS_KEY = "publishMaxAttempts";
+    public static final String PUBLISH_RETRY_BASE_DELAY_MS_KEY = "publishRetryBaseDelayMs";
+    public static final String PUBLISH_RETRY_MAX_DELAY_MS_KEY = "publishRetryMaxDelayMs";
+    public static final String PUBLISH_RETRY_JITTER_KEY = "publishRetryJitter";
+    public static final String CIRCUIT_BREAKER_FAILURE_THRESHOLD_KEY = "circuitBreakerFailureThreshold";
+    public static final String CIRCUIT_BREAKER_OPEN_MS_KEY = "circuitBreakerOpenMs";
+    public static final String FULL_STREAM_PROBE_INTERVAL_MS_KEY = "fullStreamProbeIntervalMs";
+    public static final String STREAM_PROVISIONING_THREADS_KEY = "streamProvisioningThreads";
+    // Stream Manager has no dedicated status for a RejectNewData stream being full: it reports an InvalidRequest
+    // error, told apart from other invalid requests by its message
+    private static final Pattern STREAM_FULL_PATTERN = Pattern.compile("\\bfull\\b", Pattern.CASE_INSENSITIVE);
+    private static final int DEFAULT_MAX_DYNAMIC_STREAMS = 100;
+    private static final double DEFAULT_DYNAMIC_STREAM_CREATION_RATE = 1.0;
+    private static final double DYNAMIC_STREAM_CREATION_BURST = 10.0;
 
-    private StreamManagerClient streamManagerClient;
+    // Connections to Stream Manager. Each stream always uses the same one, so that its messages stay in order while
+    // appends to different streams run in parallel. Replaced when the connection supervisor reconnects.
+    private volatile List<StreamManagerClient> streamManagerClients;
+    private final int connectionPoolSize;
     @SuppressWarnings("PMD.ImmutableField")
     private AtomicReference<StreamDefinition> streamDefinition = new AtomicReference<>();
     @Getter(AccessLevel.PACKAGE) // Let the unit test inspect this value
-    private MessageStreamDefinition defaultStreamDefinition;
+    private volatile MessageStreamDefinition defaultStreamDefinition;
+    private final StreamDefinition.UpdateListener definitionListener = this::onDefinitionUpdate;
+    // Creates the configured streams ahead of the first message to them, null when disabled
+    private final StreamReconciler reconciler;
+    // Streams known to exist in Stream Manager. Publishing to one of them is a single append.
+    @Getter(AccessLevel.PACKAGE) // Let the unit test inspect this value
+    private final Set<String> knownStreams = ConcurrentHashMap.newKeySet();
+    // Streams being checked or created, so that concurrent publishes to a new stream wait for a single creation
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> pendingCreations = new ConcurrentHashMap<>();
+
+    // Limits on streams created for the reserved topic, where devices choose the stream name. A non-positive
+    // value means unlimited.
+    private final int maxDynamicStreams;
+    private final TokenBucket dynamicStreamCreationLimiter;
+    private final AtomicInteger dynamicStreamsCreated = new AtomicInteger();
+
+    private final RetryPolicy retryPolicy;
+    // Creates the circuit breaker of a stream, null when circuit breaking is disabled
+    private final Supplier<CircuitBreaker> circuitBreakerFactory;
+    private final ConcurrentHashMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    @Getter
+    private final FullStreamTracker fullStreams;
 
     /**
      * Ctr for SMClient.
@@ -43,57 +104,401 @@ public class SMClient {
      */
     @Inject
     public SMClient(Topics topics, int port, StreamDefinition streamDefinition) throws SMClientException {
-        this(topics, streamDefinition, null);
+        this(topics, streamDefinition, createStreamManagerClients(port, Math.max(1, Coerce.toInt(
+                topics.findOrDefault(DEFAULT_CONNECTION_POOL_SIZE, KernelConfigResolver.CONFIGURATION_CONFIG_KEY,
+                        CONNECTION_POOL_SIZE_KEY)))), retryPolicy(topics), circuitBreakerFactory(topics),
+                new FullStreamTracker(Coerce.toLong(topics.findOrDefault(
+                        FullStreamTracker.DEFAULT_PROBE_INTERVAL_MILLIS, KernelConfigResolver.CONFIGURATION_CONFIG_KEY,
+                        FULL_STREAM_PROBE_INTERVAL_MS_KEY))),
+                Coerce.toInt(topics.findOrDefault(StreamReconciler.DEFAULT_PARALLELISM,
+                        KernelConfigResolver.CONFIGURATION_CONFIG_KEY, STREAM_PROVISIONING_THREADS_KEY)));
+        LOGGER.atInfo().kv("port", port).kv("connections", connectionPoolSize)
+                .log("Created new Stream Manager client");
+    }
+
+    protected SMClient(Topics topics, StreamDefinition streamDefinition, StreamManagerClient streamManagerClient) {
+        this(topics, streamDefinition, Collections.singletonList(streamManagerClient));
+    }
+
+    protected SMClient(Topics topics, StreamDefinition streamDefinition,
+                       List<StreamManagerClient> streamManagerClients) {
+        this(topics, streamDefinition, streamManagerClients, RetryPolicy.NO_RETRY, null,
+                new FullStreamTracker(FullStreamTracker.DEFAULT_PROBE_INTERVAL_MILLIS));
+    }
+
+    protected SMClient(Topics topics, StreamDefinition streamDefinition,
+                       List<StreamManagerClient> streamManagerClients, RetryPolicy retryPolicy,
+                       Supplier<CircuitBreaker> circuitBreakerFactory, FullStreamTracker fullStreams) {
+        this(topics, streamDefinition, streamManagerClients, retryPolicy, circuitBreakerFactory, fullStreams, 0);
+    }
+
+    protected SMClient(Topics topics, StreamDefinition streamDefinition,
+                       List<StreamManagerClient> streamManagerClients, RetryPolicy retryPolicy,
+                       Supplier<CircuitBreaker> circuitBreakerFactory, FullStreamTracker fullStreams,
+                       int provisioningThreads) {
+        this.streamManagerClients = streamManagerClients;
+        this.retryPolicy = retryPolicy;
+        this.circuitBreakerFactory = circuitBreakerFactory;
+        this.fullStreams = fullStreams;
+        this.connectionPoolSize = streamManagerClients.size();
+        this.streamDefinition.set(streamDefinition);
+        this.maxDynamicStreams = Coerce.toInt(topics.findOrDefault(DEFAULT_MAX_DYNAMIC_STREAMS,
+                KernelConfigResolver.CONFIGURATION_CONFIG_KEY, MAX_DYNAMIC_STREAMS_KEY));
+        double creationRate = Coerce.toDouble(topics.findOrDefault(DEFAULT_DYNAMIC_STREAM_CREATION_RATE,
+                KernelConfigResolver.CONFIGURATION_CONFIG_KEY, DYNAMIC_STREAM_CREATION_RATE_KEY));
+        this.dynamicStreamCreationLimiter = creationRate > 0
+                ? new TokenBucket(creationRate, Math.max(creationRate, DYNAMIC_STREAM_CREATION_BURST)) : null;
+        this.reconciler = provisioningThreads > 0
+                ? new StreamReconciler(this::provisionStream, this::updateStream, provisioningThreads) : null;
+    }
+
+    private static RetryPolicy retryPolicy(Topics topics) {
+        return new RetryPolicy(
+                Coerce.toInt(topics.findOrDefault(RetryPolicy.DEFAULT_MAX_ATTEMPTS,
+                        KernelConfigResolver.CONFIGURATION_CONFIG_KEY, PUBLISH_MAX_ATTEMPTS_KEY)),
+                Coerce.toLong(topics.findOrDefault(RetryPolicy.DEFAULT_BASE_DELAY_MILLIS,
+                        KernelConfigResolver.CONFIGURATION_CONFIG_KEY, PUBLISH_RETRY_BASE_DELAY_MS_KEY)),
+                Coerce.toLong(topics.findOrDefault(RetryPolicy.DEFAULT_MAX_DELAY_MILLIS,
+                        KernelConfigResolver.CONFIGURATION_CONFIG_KEY, PUBLISH_RETRY_MAX_DELAY_MS_KEY)),
+                Coerce.toDouble(topics.findOrDefault(RetryPolicy.DEFAULT_JITTER,
+                        KernelConfigResolver.CONFIGURATION_CONFIG_KEY, PUBLISH_RETRY_JITTER_KEY)));
+    }
+
+    private static Supplier<CircuitBreaker> circuitBreakerFactory(Topics topics) {
+        int failureThreshold = Coerce.toInt(topics.findOrDefault(CircuitBreaker.DEFAULT_FAILURE_THRESHOLD,
+                KernelConfigResolver.CONFIGURATION_CONFIG_KEY, CIRCUIT_BREAKER_FAILURE_THRESHOLD_KEY));
+        long openMillis = Coerce.toLong(topics.findOrDefault(CircuitBreaker.DEFAULT_OPEN_MILLIS,
+                KernelConfigResolver.CONFIGURATION_CONFIG_KEY, CIRCUIT_BREAKER_OPEN_MS_KEY));
+        if (failureThreshold <= 0) {
+            return null;
+        }
+        return () -> new CircuitBreaker(failureThreshold, openMillis);
+    }
+
+    private static List<StreamManagerClient> createStreamManagerClients(int port, int count)
+            throws SMClientException {
+        final StreamManagerClientConfig config = StreamManagerClientConfig.builder()
+                .serverInfo(StreamManagerServerInfo.builder().port(port).build()).build();
+        List<StreamManagerClient> clients = new ArrayList<>(count);
         try {
-            final StreamManagerClientConfig config = StreamManagerClientConfig.builder()
-                    .serverInfo(StreamManagerServerInfo.builder().port(port).build()).build();
-            this.streamManagerClient = StreamManagerClientFactory.standard().withClientConfig(config).build();
+            for (int i = 0; i < count; i++) {
+                clients.add(StreamManagerClientFactory.standard().withClientConfig(config).build());
+            }
         } catch (StreamManagerException e) {
+            clients.forEach(SMClient::closeQuietly);
             throw new SMClientException("Unable to create a SM client", e);
         }
-        LOGGER.atInfo().kv("port", port).log("Created new Stream Manager client");
+        return Collections.unmodifiableList(clients);
     }
 
-    @SuppressWarnings("PMD.UnusedFormalParameter") // topics may be needed later for extensibility with kernel interact
-    protected SMClient(Topics topics, StreamDefinition streamDefinition, StreamManagerClient streamManagerClient) {
-        this.streamManagerClient = streamManagerClient;
-        this.streamDefinition.set(streamDefinition);
+    // Connection used for everything about the given stream
+    private StreamManagerClient clientFor(String stream) {
+        List<StreamManagerClient> clients = streamManagerClients;
+        return clients.get(Math.floorMod(stream.hashCode(), clients.size()));
     }
 
     /**
-     *  Called after instantiation to set the default stream configuration.
+     *  Called after instantiation to set the default stream configuration, learn the existing streams and start
+     *  provisioning the configured ones.
      */
     public void start() {
-        for (String key : streamDefinition.get().getStreams().keySet()) {
-            if ("default".equalsIgnoreCase(key)) {
-                defaultStreamDefinition = streamDefinition.get().getStreams().get(key);
-                LOGGER.atDebug("Set default stream configuration");
-                return;
-            }
+        loadKnownStreams();
+        updateDefaultStreamDefinition();
+        streamDefinition.get().listenToUpdates(definitionListener);
+        if (reconciler != null) {
+            reconciler.reconcile(streamDefinition.get().getConfiguredStreams());
         }
-        defaultStreamDefinition = new MessageStreamDefinition();
-        defaultStreamDefinition.setStrategyOnFull(StrategyOnFull.RejectNewData);
     }
 
-    private Optional<MessageStreamDefinition> findStreamDefinition(String streamName) {
-        for (MessageStreamDefinition messageStreamDefinition : streamDefinition.get().getList()) {
-            if (messageStreamDefinition.getName().trim().equals(streamName.trim())) {
-                return Optional.of(messageStreamDefinition);
-            }
+    private void onDefinitionUpdate() {
+        updateDefaultStreamDefinition();
+        if (reconciler != null) {
+            // Only submits the changes, the configuration thread does not wait for Stream Manager
+            reconciler.reconcile(streamDefinition.get().getConfiguredStreams());
+        }
+    }
+
+    private void updateDefaultStreamDefinition() {
+        MessageStreamDefinition configuredDefault = streamDefinition.get().getDefaultDefinition();
+        if (configuredDefault != null) {
+            defaultStreamDefinition = configuredDefault;
+            LOGGER.atDebug("Set default stream configuration");
+            return;
+        }
+        MessageStreamDefinition definition = new MessageStreamDefinition();
+        definition.setStrategyOnFull(StrategyOnFull.RejectNewData);
+        defaultStreamDefinition = definition;
+    }
+
+    private void loadKnownStreams() {
+        try {
+            knownStreams.addAll(streamManagerClients.get(0).listStreams());
+            LOGGER.atDebug().kv("count", knownStreams.size()).log("Loaded existing streams");
+        } catch (StreamManagerException e) {
+            LOGGER.atWarn().setCause(e).log("Unable to list streams, they will be checked on first publish");
+        }
+    }
+
+    /**
+     * Replace the connection to Stream Manager with a new one, and learn the existing streams again since Stream
+     * Manager may have been restarted in between.
+     *
+     * @param  port              Stream Manager port to connect to
+     * @throws SMClientException if unable to connect
+     */
+    public void reconnect(int port) throws SMClientException {
+        List<StreamManagerClient> previous = streamManagerClients;
+        streamManagerClients = createStreamManagerClients(port, connectionPoolSize);
+        previous.forEach(SMClient::closeQuietly);
+        knownStreams.clear();
+        loadKnownStreams();
+        if (reconciler != null) {
+            // Stream Manager may have lost streams while restarting
+            reconciler.resync(streamDefinition.get().getConfiguredStreams());
+        }
+        LOGGER.atInfo().kv("port", port).log("Reconnected Stream Manager client");
+    }
+
+    /**
+     * Stop provisioning streams and close the connections to Stream Manager.
+     */
+    public void close() {
+        streamDefinition.get().stopListeningToUpdates(definitionListener);
+        if (reconciler != null) {
+            reconciler.stop();
         }
-        return Optional.empty();
+        streamManagerClients.forEach(SMClient::closeQuietly);
+    }
+
+    @SuppressWarnings("PMD.AvoidCatchingGenericException")
+    private static void closeQuietly(StreamManagerClient client) {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.close();
+        } catch (Exception e) {
+            LOGGER.atDebug().setCause(e).log("Unable to close Stream Manager client");
+        }
+    }
+
+    private Optional<MessageStreamDefinition> findStreamDefinition(String streamName) {
+        return Optional.ofNullable(streamDefinition.get().findByName(streamName));
     }
 
     /**
      * Called by the Message Bridge message handler to publish a message to a given stream.
      *
-     * @param  message            encapsulates a stream name and byte-wise payload
-     * @throws SMClientException  thrown if encounters an error at any point
+     * <p>Failures reported by Stream Manager for the stream are retried according to the retry policy. While a
+     * stream keeps failing, its circuit breaker makes publishes to it fail fast with a
+     * {@link CircuitOpenException}, which is retryable: the message should be kept and published again later.
+     *
+     * @param  message              encapsulates a stream name and byte-wise payload
+     * @throws CircuitOpenException if the circuit breaker of the stream is open
+     * @throws SMClientException    thrown if encounters an error at any point
      */
-    @SuppressWarnings("PMD.AvoidDuplicateLiterals")
     public void publish(StreamMessage message) throws SMClientException {
+        String stream = message.getStream();
+        CircuitBreaker breaker = circuitBreakerFactory == null ? null
+                : circuitBreakers.computeIfAbsent(stream, key -> circuitBreakerFactory.get());
+        if (breaker != null && !breaker.tryAcquire()) {
+            throw new CircuitOpenException(String.format("Stream %s keeps failing, not publishing to it for now",
+                    stream));
+        }
+
+        int attempt = 1;
+        while (true) {
+            try {
+                publishOnce(message);
+                if (breaker != null && breaker.onSuccess()) {
+                    LOGGER.atInfo().kv("Stream", stream).log("Stream recovered, publishing to it again");
+                }
+                return;
+            } catch (SMClientException e) {
+                boolean streamFailure = isStreamFailure(e);
+                if (!streamFailure || attempt >= retryPolicy.getMaxAttempts()) {
+                    recordFailure(breaker, stream, streamFailure);
+                    throw e;
+                }
+                backOff(stream, attempt, e);
+                attempt++;
+            }
+        }
+    }
+
+    private void recordFailure(CircuitBreaker breaker, String stream, boolean streamFailure) {
+        if (breaker == null) {
+            return;
+        }
+        if (!streamFailure) {
+            breaker.release();
+        } else if (breaker.onFailure()) {
+            LOGGER.atWarn().kv("Stream", stream).log("Stream keeps failing, failing fast publishes to it");
+        }
+    }
+
+    private void backOff(String stream, int failedAttempts, SMClientException cause) throws SMClientException {
+        long delayMillis = retryPolicy.delayMillis(failedAttempts);
+        LOGGER.atDebug().kv("Stream", stream).kv("attempt", failedAttempts).kv("delayMillis", delayMillis)
+                .log("Retrying publish");
+        try {
+            TimeUnit.MILLISECONDS.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw cause;
+        }
+    }
+
+    // Whether Stream Manager reported an error for the stream which may go away, as opposed to an error about the
+    // message, a local limit, or a broken connection which the connection supervisor handles
+    private static boolean isStreamFailure(SMClientException e) {
+        if (!e.isRetryable()) {
+            return false;
+        }
+        boolean streamManagerError = false;
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectFailedException) {
+                return false;
+            }
+            streamManagerError |= cause instanceof StreamManagerException;
+        }
+        return streamManagerError;
+    }
+
+    @SuppressWarnings("PMD.AvoidDuplicateLiterals")
+    private void publishOnce(StreamMessage message) throws SMClientException {
+        String stream = message.getStream();
+        int payloadBytes = message.getPayload().length;
+        if (!fullStreams.tryAppend(stream, payloadBytes)) {
+            throw new StreamFullException(String.format("Stream %s is full, dropping message", stream));
+        }
+        if (!knownStreams.contains(stream)) {
+            createStreamIfMissing(message);
+        }
+
+        try {
+            // Not logged here, MessageBridge traces a sample of the published messages
+            clientFor(stream).appendMessage(stream, message.getPayload());
+        } catch (ResourceNotFoundException e) {
+            // The stream was deleted behind our back, check it again on next publish
+            knownStreams.remove(stream);
+            LOGGER.atError().kv("Stream", stream).log("Unable to append to stream, stream not found");
+            throw new SMClientException(e.getMessage(), e);
+        } catch (InvalidRequestException e) {
+            // A full RejectNewData stream is reported as an invalid request, which must not be taken for a
+            // rejected message
+            if (isStreamFullRejection(e)) {
+                throw streamFull(stream, payloadBytes, e);
+            }
+            LOGGER.atError().kv("Stream", stream).log("Unable to append to stream, message rejected");
+            throw new SMClientException(e.getMessage(), e, false);
+        } catch (RequestPayloadTooLargeException e) {
+            LOGGER.atError().kv("Stream", stream).log("Unable to append to stream, message rejected");
+            throw new SMClientException(e.getMessage(), e, false);
+        } catch (StreamManagerException e) {
+            if (isStreamFullRejection(e)) {
+                throw streamFull(stream, payloadBytes, e);
+            }
+            LOGGER.atError().kv("Stream", stream).log("Unable to append to stream");
+            throw new SMClientException(e.getMessage(), e);
+        }
+        if (fullStreams.markAccepted(stream)) {
+            LOGGER.atInfo().kv("Stream", stream).kv("droppedMessages", fullStreams.getDroppedCount())
+                    .kv("droppedBytes", fullStreams.getDroppedBytes()).log("Stream has room again");
+        }
+    }
+
+    private StreamFullException streamFull(String stream, int payloadBytes, StreamManagerException cause) {
+        if (fullStreams.markFull(stream, payloadBytes)) {
+            LOGGER.atWarn().kv("Stream", stream).log("Stream is full, dropping messages to it until it has room again");
+        }
+        return new StreamFullException(cause.getMessage(), cause);
+    }
+
+    private static boolean isStreamFullRejection(StreamManagerException e) {
+        return e.getMessage() != null && STREAM_FULL_PATTERN.matcher(e.getMessage()).find();
+    }
+
+    private void createStreamIfMissing(StreamMessage message) throws SMClientException {
+        String stream = message.getStream();
+        createOnce(stream, () -> {
+            // The previous creation may have finished between the caller's check and this one
+            if (!knownStreams.contains(stream)) {
+                doCreateStreamIfMissing(message);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface CreationStep {
+        void run() throws SMClientException;
+    }
+
+    // Runs the creation of a stream, or waits for the one already in progress, so that a stream is created once
+    private void createOnce(String stream, CreationStep step) throws SMClientException {
+        CompletableFuture<Void> creation = new CompletableFuture<>();
+        CompletableFuture<Void> inFlight = pendingCreations.putIfAbsent(stream, creation);
+        if (inFlight != null) {
+            // Another publish is already creating this stream, wait for it instead of creating it again
+            awaitCreation(stream, inFlight);
+            return;
+        }
+
+        try {
+            step.run();
+            creation.complete(null);
+        } catch (SMClientException e) {
+            creation.completeExceptionally(e);
+            throw e;
+        } finally {
+            // Never leave waiters blocked, even if the creation failed unexpectedly
+            if (!creation.isDone()) {
+                creation.completeExceptionally(
+                        new SMClientException(String.format("Unable to create stream %s", stream)));
+            }
+            pendingCreations.remove(stream, creation);
+        }
+    }
+
+    private void awaitCreation(String stream, CompletableFuture<Void> creation) throws SMClientException {
+        try {
+            creation.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw new SMClientException(cause.getMessage(), cause,
+                    !(cause instanceof SMClientException) || ((SMClientException) cause).isRetryable());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SMClientException(String.format("Interrupted while waiting for stream %s creation", stream),
+                    e);
+        }
+    }
+
+    private void checkDynamicStreamRate(StreamMessage message) throws SMClientException {
+        if (message.isDynamicStream() && dynamicStreamCreationLimiter != null
+                && !dynamicStreamCreationLimiter.tryAcquire()) {
+            LOGGER.atWarn().kv("Stream", message.getStream()).log("Dynamic stream creation rate exceeded");
+            throw new SMClientException(
+                    String.format("Dynamic stream creation rate exceeded for stream %s", message.getStream()));
+        }
+    }
+
+    private void checkDynamicStreamCap(StreamMessage message) throws SMClientException {
+        if (message.isDynamicStream() && maxDynamicStreams > 0 && dynamicStreamsCreated.get() >= maxDynamicStreams) {
+            LOGGER.atWarn().kv("Stream", message.getStream()).kv("max", maxDynamicStreams)
+                    .log("Dynamic stream limit reached");
+            throw new SMClientException(String.format("Dynamic stream limit of %d reached, not creating stream %s",
+                    maxDynamicStreams, message.getStream()), false);
+        }
+    }
+
+    @SuppressWarnings("PMD.AvoidDuplicateLiterals")
+    private void doCreateStreamIfMissing(StreamMessage message) throws SMClientException {
         try {
             if (!checkStreamExists(message.getStream())) {
+                // Only creations count against the limits, not streams which already exist
+                checkDynamicStreamCap(message);
+                checkDynamicStreamRate(message);
                 Optional<MessageStreamDefinition> newStream = findStreamDefinition(message.getStream());
                 if (!newStream.isPresent()) {
                     newStream = Optional.of(new MessageStreamDefinition(
@@ -107,22 +512,90 @@ public class SMClient {
                             defaultStreamDefinition.getExportDefinition()
                     ));
                 }
-                streamManagerClient.createMessageStream(newStream.get());
+                clientFor(message.getStream()).createMessageStream(newStream.get());
+                if (message.isDynamicStream()) {
+                    dynamicStreamsCreated.incrementAndGet();
+                }
                 LOGGER.atInfo().kv("Stream", message.getStream()).log("Created new stream");
                 LOGGER.atDebug().kv("Definition", newStream.get().toString()).log("New stream");
             }
+            knownStreams.add(message.getStream());
         } catch (StreamManagerException e) {
             LOGGER.atError().kv("Stream", message.getStream()).log("Unable to create stream");
-            // TODO: Retry
             throw new SMClientException(e.getMessage(), e);
         }
+    }
+
+    // Create a configured stream ahead of the first message to it, or bring an existing one to its definition
+    private void provisionStream(MessageStreamDefinition definition) throws SMClientException {
+        String stream = definition.getName();
+        createOnce(stream, () -> {
+            try {
+                MessageStreamInfo info = describeIfExists(stream);
+                if (info == null) {
+                    clientFor(stream).createMessageStream(definition);
+                    LOGGER.atInfo().kv("Stream", stream).log("Provisioned new stream");
+                } else if (!matchesConfigured(definition, info.getDefinition())) {
+                    clientFor(stream).updateMessageStream(definition);
+                    LOGGER.atInfo().kv("Stream", stream).log("Updated stream definition");
+                }
+                knownStreams.add(stream);
+            } catch (StreamManagerException e) {
+                throw new SMClientException(e.getMessage(), e);
+            }
+        });
+    }
+
+    // The server fills in every field of a definition, so only the fields the configuration sets are compared
+    private static boolean matchesConfigured(MessageStreamDefinition configured, MessageStreamDefinition actual) {
+        return actual != null
+                && matchesConfigured(configured.getMaxSize(), actual.getMaxSize())
+                && matchesConfigured(configured.getStreamSegmentSize(), actual.getStreamSegmentSize())
+                && matchesConfigured(configured.getTimeToLiveMillis(), actual.getTimeToLiveMillis())
+                && matchesConfigured(configured.getStrategyOnFull(), actual.getStrategyOnFull())
+                && matchesConfigured(configured.getPersistence(), actual.getPersistence())
+                && matchesConfigured(configured.getFlushOnWrite(), actual.getFlushOnWrite())
+                && matchesConfigured(configured.getExportDefinition(), actual.getExportDefinition());
+    }
+
+    private static boolean matchesConfigured(Object configured, Object actual) {
+        return configured == null || configured.equals(actual);
+    }
+
+    // Bring a configured stream to its changed definition, creating it if it does not exist anymore
+    private void updateStream(MessageStreamDefinition definition) throws SMClientException {
+        String stream = definition.getName();
+        try {
+            clientFor(stream).updateMessageStream(definition);
+            knownStreams.add(stream);
+            LOGGER.atInfo().kv("Stream", stream).log("Updated stream definition");
+        } catch (ResourceNotFoundException e) {
+            knownStreams.remove(stream);
+            provisionStream(definition);
+        } catch (StreamManagerException e) {
+            throw new SMClientException(e.getMessage(), e);
+        }
+    }
 
+    private MessageStreamInfo describeIfExists(String stream) throws StreamManagerException {
+        try {
+            return clientFor(stream).describeMessageStream(stream);
+        } catch (ResourceNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the definition and storage status of a stream.
+     *
+     * @param  stream            stream name
+     * @return stream information
+     * @throws SMClientException if the stream cannot be described
+     */
+    public MessageStreamInfo describeStream(String stream) throws SMClientException {
         try {
-            streamManagerClient.appendMessage(message.getStream(), message.getPayload());
-            LOGGER.atInfo().kv("Stream", message.getStream()).log("Appended message to stream");
+            return clientFor(stream).describeMessageStream(stream);
         } catch (StreamManagerException e) {
-            LOGGER.atError().kv("Stream", message.getStream()).log("Unable to append to stream");
-            // TODO: Retry
             throw new SMClientException(e.getMessage(), e);
         }
     }
@@ -130,7 +603,7 @@ public class SMClient {
     private boolean checkStreamExists(String stream) {
         try {
             // Return type: MessageStreamInfo
-            streamManagerClient.describeMessageStream(stream);
+            clientFor(stream).describeMessageStream(stream);
         } catch (StreamManagerException e) {
             return false;
         }
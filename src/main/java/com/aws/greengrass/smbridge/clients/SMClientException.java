@@ -11,11 +11,43 @@ package com.aws.greengrass.smbridge.clients;
 public class SMClientException extends Exception {
     static final long serialVersionUID = -3387516993124229948L;
 
+    // Whether publishing the same message again later may succeed
+    private final boolean retryable;
+
     public SMClientException(String msg, Throwable cause) {
         super(msg, cause);
+        this.retryable = true;
     }
 
     public SMClientException(String msg) {
         super(msg);
+        this.retryable = true;
+    }
+
+    /**
+     * Ctr for SMClientException.
+     *
+     * @param msg       message
+     * @param retryable whether publishing the same message again later may succeed
+     */
+    public SMClientException(String msg, boolean retryable) {
+        super(msg);
+        this.retryable = retryable;
+    }
+
+    /**
+     * Ctr for SMClientException.
+     *
+     * @param msg       message
+     * @param cause     cause
+     * @param retryable whether publishing the same message again later may succeed
+     */
+    public SMClientException(String msg, Throwable cause, boolean retryable) {
+        super(msg, cause);
+        this.retryable = retryable;
+    }
+
+    public boolean isRetryable() {
+        return retryable;
     }
 }
@@ -0,0 +1,419 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.clients;
+
+import com.amazonaws.greengrass.streammanager.client.exception.ConnectFailedException;
+import com.amazonaws.greengrass.streammanager.model.MessageStreamInfo;
+import com.aws.greengrass.logging.api.Logger;
+import com.aws.greengrass.logging.impl.LogManager;
+import com.aws.greengrass.smbridge.StreamMessage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the bridge connected to Stream Manager.
+ *
+ * <p>A publish failing because the connection is broken marks the bridge disconnected. A background thread then
+ * reconnects with exponential backoff, to the latest known Stream Manager port. Messages published in the meantime
+ * are held in a bounded in-memory buffer and published in order once reconnected, before any new message. A buffered
+ * message failing with a retryable error stays first in the buffer and is published again after a backoff. When the
+ * buffer is full, publishing fails with a retryable {@link SMClientException}.
+ */
+public class SMConnectionSupervisor {
+    private static final Logger LOGGER = LogManager.getLogger(SMConnectionSupervisor.class);
+    public static final long DEFAULT_BUFFER_BYTES = 8L * 1024 * 1024;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 100;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 30_000;
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+    private static final String PORT_KEY = "port";
+
+    private final ClientFactory clientFactory;
+    private final long maxBufferBytes;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private volatile SMClient client;
+    private volatile boolean connected;
+    private volatile int port;
+    private volatile int connectedPort;
+    // Messages published while disconnected, oldest first
+    private final Deque<StreamMessage> buffer = new ArrayDeque<>();
+    private long bufferedBytes;
+    private boolean connectedBefore;
+    private long outageStartMillis;
+    private boolean running;
+    private Thread thread;
+
+    private final AtomicLong reconnectCount = new AtomicLong();
+    private final AtomicLong totalOutageMillis = new AtomicLong();
+    private volatile long lastOutageMillis;
+
+    /**
+     * Creates and starts a client connected to the given port.
+     */
+    @FunctionalInterface
+    public interface ClientFactory {
+        SMClient create(int port) throws SMClientException;
+    }
+
+    // Outcome of publishing the buffered messages
+    private enum Drain {
+        // No message left, the bridge is connected
+        DONE,
+        // Stream Manager refused a message for now, it stays first in the buffer
+        RETRY,
+        // The connection broke again or the port changed meanwhile
+        RECONNECT
+    }
+
+    /**
+     * Ctr for SMConnectionSupervisor with the default backoff.
+     *
+     * @param clientFactory  creates the client on first connection
+     * @param port           Stream Manager port
+     * @param maxBufferBytes maximum payload bytes held while disconnected, 0 to fail publishes instead
+     */
+    public SMConnectionSupervisor(ClientFactory clientFactory, int port, long maxBufferBytes) {
+        this(clientFactory, port, maxBufferBytes, DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Ctr for SMConnectionSupervisor.
+     *
+     * @param clientFactory        creates the client on first connection
+     * @param port                 Stream Manager port
+     * @param maxBufferBytes       maximum payload bytes held while disconnected, 0 to fail publishes instead
+     * @param initialBackoffMillis wait after the first failed connection attempt
+     * @param maxBackoffMillis     maximum wait between two connection attempts
+     */
+    public SMConnectionSupervisor(ClientFactory clientFactory, int port, long maxBufferBytes,
+                                  long initialBackoffMillis, long maxBackoffMillis) {
+        this.clientFactory = clientFactory;
+        this.port = port;
+        this.maxBufferBytes = maxBufferBytes;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Connect to Stream Manager and start supervising the connection. If Stream Manager cannot be reached, messages
+     * are buffered until it can.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        outageStartMillis = System.currentTimeMillis();
+        if (connect()) {
+            markConnected();
+        }
+        thread = new Thread(this::supervise, "sm-bridge-sm-connection");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop supervising the connection and close it. Messages still buffered are dropped.
+     */
+    public void stop() {
+        Thread supervisor;
+        synchronized (this) {
+            running = false;
+            connected = false;
+            supervisor = thread;
+            thread = null;
+            notifyAll();
+        }
+        if (supervisor != null) {
+            supervisor.interrupt();
+            try {
+                supervisor.join(STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        SMClient current = client;
+        if (current != null) {
+            current.close();
+        }
+        synchronized (this) {
+            if (!buffer.isEmpty()) {
+                LOGGER.atWarn().kv("count", buffer.size()).log("Dropping messages buffered while disconnected");
+            }
+            buffer.clear();
+            bufferedBytes = 0;
+        }
+    }
+
+    /**
+     * Called when the Stream Manager port changes. Reconnects to the new port.
+     *
+     * @param newPort Stream Manager port
+     */
+    public synchronized void updatePort(int newPort) {
+        if (newPort == port) {
+            return;
+        }
+        LOGGER.atInfo().kv("oldPort", port).kv(PORT_KEY, newPort).log("Stream Manager port changed, reconnecting");
+        port = newPort;
+        markDisconnected();
+        // Wake up the supervisor if it is backing off, the new port may work right away
+        notifyAll();
+    }
+
+    /**
+     * Publish a message, or buffer it until reconnected if the connection to Stream Manager is broken.
+     *
+     * @param  message           message to publish
+     * @throws SMClientException if publishing fails for another reason, or the buffer is full
+     */
+    public void publish(StreamMessage message) throws SMClientException {
+        do {
+            if (connected && publishConnected(message)) {
+                return;
+            }
+        } while (!tryBuffer(message));
+    }
+
+    /**
+     * Publish a message without buffering it, for callers which keep the message themselves until it is published.
+     *
+     * @param  message           message to publish
+     * @throws SMClientException if disconnected or publishing fails
+     */
+    public void publishWithoutBuffering(StreamMessage message) throws SMClientException {
+        if (!connected || !publishConnected(message)) {
+            throw new SMClientException("Not connected to Stream Manager");
+        }
+    }
+
+    /**
+     * Get the definition and storage status of a stream.
+     *
+     * @param  stream            stream name
+     * @return stream information
+     * @throws SMClientException if disconnected or the stream cannot be described
+     */
+    public MessageStreamInfo describeStream(String stream) throws SMClientException {
+        SMClient current = client;
+        if (!connected || current == null) {
+            throw new SMClientException("Not connected to Stream Manager");
+        }
+        return current.describeStream(stream);
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Number of times the connection was restored after being lost.
+     *
+     * @return reconnect count
+     */
+    public long getReconnectCount() {
+        return reconnectCount.get();
+    }
+
+    /**
+     * Length of the last outage, from losing the connection to publishing the buffered messages.
+     *
+     * @return outage length in milliseconds, 0 if the connection was never lost
+     */
+    public long getLastOutageMillis() {
+        return lastOutageMillis;
+    }
+
+    public long getTotalOutageMillis() {
+        return totalOutageMillis.get();
+    }
+
+    /**
+     * Length of the ongoing outage.
+     *
+     * @return outage length in milliseconds, 0 if connected
+     */
+    public synchronized long getCurrentOutageMillis() {
+        return connected || outageStartMillis == 0 ? 0 : System.currentTimeMillis() - outageStartMillis;
+    }
+
+    public synchronized int getBufferedCount() {
+        return buffer.size();
+    }
+
+    // Returns false if the message was not published because the connection is broken
+    private boolean publishConnected(StreamMessage message) throws SMClientException {
+        SMClient current = client;
+        try {
+            current.publish(message);
+            return true;
+        } catch (SMClientException e) {
+            if (!isConnectionFailure(e)) {
+                throw e;
+            }
+            connectionLost(current, e);
+            return false;
+        }
+    }
+
+    // Returns false if the connection was restored meanwhile, so that the message is published right away
+    private synchronized boolean tryBuffer(StreamMessage message) throws SMClientException {
+        if (connected) {
+            return false;
+        }
+        long size = message.getPayload().length;
+        if (bufferedBytes + size > maxBufferBytes) {
+            throw new SMClientException(String.format(
+                    "Not connected to Stream Manager and the outage buffer is full, unable to publish to stream %s",
+                    message.getStream()));
+        }
+        buffer.addLast(message);
+        bufferedBytes += size;
+        return true;
+    }
+
+    @SuppressWarnings("PMD.CompareObjectsWithEquals") // Clients are compared by identity
+    private synchronized void connectionLost(SMClient current, SMClientException cause) {
+        // Another publish may have already noticed, or the client may have been replaced since
+        if (connected && client == current) {
+            LOGGER.atWarn().setCause(cause).kv(PORT_KEY, port).log("Lost connection to Stream Manager");
+            markDisconnected();
+        }
+    }
+
+    private void markDisconnected() {
+        if (connected) {
+            connected = false;
+            outageStartMillis = System.currentTimeMillis();
+            notifyAll();
+        }
+    }
+
+    private void markConnected() {
+        connected = true;
+        if (connectedBefore) {
+            long outageMillis = System.currentTimeMillis() - outageStartMillis;
+            reconnectCount.incrementAndGet();
+            lastOutageMillis = outageMillis;
+            totalOutageMillis.addAndGet(outageMillis);
+            LOGGER.atInfo().kv(PORT_KEY, port).kv("outageMillis", outageMillis)
+                    .kv("reconnects", reconnectCount.get()).log("Reconnected to Stream Manager");
+        } else {
+            connectedBefore = true;
+            LOGGER.atInfo().kv(PORT_KEY, port).log("Connected to Stream Manager");
+        }
+    }
+
+    private void supervise() {
+        long backoffMillis = initialBackoffMillis;
+        boolean clientConnected = false;
+        try {
+            while (awaitDisconnected()) {
+                if (!clientConnected || connectedPort != port) {
+                    clientConnected = connect();
+                }
+                if (clientConnected) {
+                    Drain drain = drainBuffer();
+                    if (drain == Drain.DONE) {
+                        backoffMillis = initialBackoffMillis;
+                        clientConnected = false;
+                        continue;
+                    }
+                    // A retryable failure only needs a wait, a broken connection or a changed port a new connection
+                    clientConnected = drain == Drain.RETRY;
+                }
+                synchronized (this) {
+                    if (running) {
+                        wait(backoffMillis);
+                    }
+                }
+                backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+            }
+        } catch (InterruptedException e) {
+            // Interrupted by stop
+        }
+    }
+
+    // Returns false once stopped
+    private synchronized boolean awaitDisconnected() throws InterruptedException {
+        while (running && connected) {
+            wait();
+        }
+        return running;
+    }
+
+    private boolean connect() {
+        int targetPort = port;
+        try {
+            SMClient current = client;
+            if (current == null) {
+                client = clientFactory.create(targetPort);
+            } else {
+                current.reconnect(targetPort);
+            }
+            connectedPort = targetPort;
+            return true;
+        } catch (SMClientException e) {
+            LOGGER.atDebug().setCause(e).kv(PORT_KEY, targetPort).log("Unable to connect to Stream Manager");
+            return false;
+        }
+    }
+
+    // Publishes the buffered messages in order and marks the bridge connected once none is left
+    private Drain drainBuffer() {
+        SMClient current = client;
+        for (StreamMessage message = nextBuffered(); message != null; message = nextBuffered()) {
+            try {
+                current.publish(message);
+            } catch (SMClientException e) {
+                if (isConnectionFailure(e)) {
+                    LOGGER.atDebug().setCause(e).log("Lost connection to Stream Manager while publishing buffered "
+                            + "messages");
+                    return Drain.RECONNECT;
+                }
+                if (e.isRetryable()) {
+                    // Such as an open circuit or a throttled stream, publishing again later may succeed
+                    LOGGER.atDebug().setCause(e).kv("Stream", message.getStream())
+                            .log("Unable to publish buffered message, retrying");
+                    return Drain.RETRY;
+                }
+                LOGGER.atError().setCause(e).kv("Stream", message.getStream())
+                        .log("Dropping buffered message which cannot be published");
+            }
+            removeBuffered(message);
+        }
+        return connected ? Drain.DONE : Drain.RECONNECT;
+    }
+
+    // Returns null and marks the bridge connected if the buffer is empty, so that no message overtakes a buffered one
+    private synchronized StreamMessage nextBuffered() {
+        if (!running) {
+            return null;
+        }
+        StreamMessage message = buffer.peekFirst();
+        if (message == null && connectedPort == port) {
+            markConnected();
+        }
+        return message;
+    }
+
+    private synchronized void removeBuffered(StreamMessage message) {
+        buffer.pollFirst();
+        bufferedBytes -= message.getPayload().length;
+    }
+
+    static boolean isConnectionFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectFailedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.clients;
+
+/**
+ * Thrown when a message is dropped because its stream is full and rejects new data.
+ */
+public class StreamFullException extends SMClientException {
+    static final long serialVersionUID = 4127590365146230711L;
+
+    public StreamFullException(String msg) {
+        super(msg, false);
+    }
+
+    public StreamFullException(String msg, Throwable cause) {
+        super(msg, cause, false);
+    }
+}
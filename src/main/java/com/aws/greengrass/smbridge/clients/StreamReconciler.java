@@ -0,0 +1,185 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.clients;
+
+import com.amazonaws.greengrass.streammanager.model.MessageStreamDefinition;
+import com.aws.greengrass.logging.api.Logger;
+import com.aws.greengrass.logging.impl.LogManager;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Brings the streams in Stream Manager in line with the configured stream definitions, in the background.
+ *
+ * <p>Each reconciliation compares the configured definitions with the ones requested by the previous one, and only
+ * creates the streams which were added and updates the ones which changed. Streams are provisioned in parallel,
+ * while the changes to a single stream are applied in order. Streams removed from the configuration are kept, with
+ * their data. A stream which fails to be provisioned is tried again on the next reconciliation, and in the meantime
+ * is created by the first publish to it as before.
+ */
+public class StreamReconciler {
+    private static final Logger LOGGER = LogManager.getLogger(StreamReconciler.class);
+    public static final int DEFAULT_PARALLELISM = 4;
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+    private static final String STREAM_KEY = "Stream";
+
+    private final StreamAction create;
+    private final StreamAction update;
+    private final ExecutorService executor;
+    // Definitions by stream name as last requested, guarded by this
+    private final Map<String, MessageStreamDefinition> requested = new HashMap<>();
+    // Last provisioning task of each stream, so that the changes to a stream are applied in order
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> lanes = new ConcurrentHashMap<>();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * Creates or updates a stream to match its definition.
+     */
+    @FunctionalInterface
+    public interface StreamAction {
+        void apply(MessageStreamDefinition definition) throws SMClientException;
+    }
+
+    /**
+     * Ctr for StreamReconciler.
+     *
+     * @param create      creates a stream which was added to the configuration, or updates it if it already exists
+     * @param update      updates a stream whose definition changed
+     * @param parallelism number of streams provisioned at the same time
+     */
+    public StreamReconciler(StreamAction create, StreamAction update, int parallelism) {
+        this(create, update, Executors.newFixedThreadPool(Math.max(1, parallelism), new ProvisioningThreadFactory()));
+    }
+
+    StreamReconciler(StreamAction create, StreamAction update, ExecutorService executor) {
+        this.create = create;
+        this.update = update;
+        this.executor = executor;
+    }
+
+    /**
+     * Provision the streams added or changed since the previous reconciliation. Returns without waiting for them.
+     *
+     * @param configured stream definitions by stream name
+     * @return number of streams to create or update
+     */
+    public synchronized int reconcile(Map<String, MessageStreamDefinition> configured) {
+        int changes = 0;
+        for (Map.Entry<String, MessageStreamDefinition> entry : configured.entrySet()) {
+            MessageStreamDefinition definition = entry.getValue();
+            MessageStreamDefinition previous = requested.get(entry.getKey());
+            if (definition.equals(previous)) {
+                continue;
+            }
+            requested.put(entry.getKey(), definition);
+            submit(entry.getKey(), definition, previous == null ? create : update);
+            changes++;
+        }
+        Iterator<String> names = requested.keySet().iterator();
+        while (names.hasNext()) {
+            String name = names.next();
+            if (!configured.containsKey(name)) {
+                names.remove();
+                LOGGER.atInfo().kv(STREAM_KEY, name).log("Stream no longer configured, keeping it as it is");
+            }
+        }
+        if (changes > 0) {
+            LOGGER.atDebug().kv("count", changes).log("Provisioning streams");
+        }
+        return changes;
+    }
+
+    /**
+     * Forget what was provisioned and provision all the streams again, for instance after Stream Manager restarted.
+     *
+     * @param configured stream definitions by stream name
+     * @return number of streams to create or update
+     */
+    public synchronized int resync(Map<String, MessageStreamDefinition> configured) {
+        requested.clear();
+        return reconcile(configured);
+    }
+
+    /**
+     * Stop provisioning streams. Provisioning in progress is interrupted.
+     */
+    public void stop() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Number of streams which could not be created or updated.
+     *
+     * @return failed provisioning count
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Number of streams waiting to be created or updated.
+     *
+     * @return pending stream count
+     */
+    public int getPendingCount() {
+        return lanes.size();
+    }
+
+    private void submit(String name, MessageStreamDefinition definition, StreamAction action) {
+        Runnable task = () -> apply(name, definition, action);
+        try {
+            CompletableFuture<Void> lane = lanes.compute(name, (key, previous) -> previous == null
+                    ? CompletableFuture.runAsync(task, executor) : previous.thenRunAsync(task, executor));
+            lane.whenComplete((ignored, e) -> lanes.remove(name, lane));
+        } catch (RejectedExecutionException e) {
+            // Stopped, nothing is provisioned anymore
+            requested.remove(name, definition);
+        }
+    }
+
+    @SuppressWarnings("PMD.AvoidCatchingGenericException")
+    private void apply(String name, MessageStreamDefinition definition, StreamAction action) {
+        try {
+            action.apply(definition);
+            return;
+        } catch (SMClientException | RuntimeException e) {
+            // Never break the lane, the next change to the stream must still be applied
+            LOGGER.atWarn().setCause(e).kv(STREAM_KEY, name).log("Unable to provision stream");
+        }
+        synchronized (this) {
+            // Try again on the next reconciliation, unless the definition changed in the meantime
+            requested.remove(name, definition);
+        }
+        failedCount.incrementAndGet();
+    }
+
+    private static class ProvisioningThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "sm-bridge-stream-provisioning-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.spill;
+
+import java.util.Locale;
+
+/**
+ * When spilled records are forced from the page cache to disk.
+ */
+public enum FsyncPolicy {
+    /**
+     * Leave it to the operating system. Records survive a process crash but not a power loss.
+     */
+    NEVER,
+    /**
+     * Force at most once per interval, when records are appended.
+     */
+    INTERVAL,
+    /**
+     * Force after every record.
+     */
+    ALWAYS;
+
+    /**
+     * Parse a policy from the component configuration.
+     *
+     * @param value configured value, case insensitive
+     * @return fsync policy
+     * @throws IllegalArgumentException if the value is not a known policy
+     */
+    public static FsyncPolicy fromString(String value) {
+        return FsyncPolicy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
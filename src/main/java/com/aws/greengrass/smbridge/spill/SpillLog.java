@@ -0,0 +1,532 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.spill;
+
+import com.aws.greengrass.logging.api.Logger;
+import com.aws.greengrass.logging.impl.LogManager;
+import com.aws.greengrass.smbridge.StreamMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Disk-backed, append-only log of messages which could not be published to Stream Manager, read back per stream in
+ * the order they were appended.
+ *
+ * <p>The log is a set of fixed-size, memory-mapped segment files. Records are appended to the newest segment. Each
+ * stream is consumed on its own, in order, so that a stream which cannot be published does not hold up the others:
+ * the location of the unconsumed records of each stream is kept in memory, 8 bytes per record. A segment whose
+ * records are all consumed is put back in a free pool and reused for new records, so the files are created once and
+ * never grow past the configured total size. When every segment is in use, appends fail and the message is dropped.
+ *
+ * <p>Each segment starts with a magic number and a sequence number ordering the segments, 0 when the segment is
+ * free. Each record is its body length, a flags byte marking it consumed, a CRC32 of the body, and the body: a
+ * dynamic stream byte, the stream name length and name, and the payload. The length is written last, and a record
+ * whose CRC does not match ends the segment, so a record torn by a crash is ignored on recovery.
+ */
+public class SpillLog implements Closeable {
+    private static final Logger LOGGER = LogManager.getLogger(SpillLog.class);
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final String DEFAULT_FSYNC_POLICY = "interval";
+    public static final long DEFAULT_FSYNC_INTERVAL_MILLIS = 1000;
+
+    private static final int SEGMENT_MAGIC = 0x534D4253;
+    private static final long FREE_SEQUENCE = 0;
+    static final int SEGMENT_HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    static final int RECORD_HEADER_SIZE = Integer.BYTES + 1 + Integer.BYTES;
+    private static final int FLAGS_OFFSET = Integer.BYTES;
+    private static final int CRC_OFFSET = Integer.BYTES + 1;
+    private static final byte FLAG_CONSUMED = 1;
+    // Dynamic stream byte and stream name length
+    private static final int BODY_PREFIX_SIZE = 1 + Short.BYTES;
+    private static final int MAX_STREAM_NAME_BYTES = 0xFFFF;
+    private static final String SEGMENT_FILE_FORMAT = "segment-%d.spill";
+    private static final Pattern SEGMENT_FILE_PATTERN = Pattern.compile("segment-(\\d{1,9})\\.spill");
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+
+    // Segments holding records, oldest first. Records are appended to the last one.
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final Deque<Segment> freeSegments = new ArrayDeque<>();
+    private final Map<Integer, Segment> segmentsBySlot = new HashMap<>();
+    private int nextSlot;
+    private long nextSequence = 1;
+    private long lastForceNanos = System.nanoTime();
+    private boolean closed;
+
+    // Unconsumed records of each stream, only streams with such records are present. Written under the lock, read
+    // without it so that publishers can cheaply check whether their stream has messages waiting.
+    private final Map<String, RecordLocations> pendingByStream = new ConcurrentHashMap<>();
+    private volatile long pendingRecords;
+    private final AtomicLong spilledCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    static final class Segment {
+        private final int slot;
+        private final MappedByteBuffer buffer;
+        private long sequence;
+        private int writePosition = SEGMENT_HEADER_SIZE;
+        private int unconsumedRecords;
+
+        private Segment(int slot, MappedByteBuffer buffer, long sequence) {
+            this.slot = slot;
+            this.buffer = buffer;
+            this.sequence = sequence;
+        }
+    }
+
+    // Queue of record locations, the segment slot in the high 32 bits and the position in the low ones
+    private static final class RecordLocations {
+        private long[] locations = new long[16];
+        private int head;
+        private int size;
+
+        private void add(long location) {
+            if (size == locations.length) {
+                long[] grown = new long[locations.length * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = locations[(head + i) % locations.length];
+                }
+                locations = grown;
+                head = 0;
+            }
+            locations[(head + size) % locations.length] = location;
+            size++;
+        }
+
+        private long first() {
+            return locations[head];
+        }
+
+        private void removeFirst() {
+            head = (head + 1) % locations.length;
+            size--;
+        }
+    }
+
+    /**
+     * Ctr for SpillLog. Opens the segments found in the directory and recovers their unconsumed records.
+     *
+     * @param directory           directory holding the segment files, created if missing
+     * @param segmentSize         size of each segment file in bytes
+     * @param maxBytes            maximum total size of the segment files in bytes
+     * @param fsyncPolicy         when records are forced to disk
+     * @param fsyncIntervalMillis minimum time between two forces with {@link FsyncPolicy#INTERVAL}
+     * @throws IOException              if the directory or a segment cannot be opened
+     * @throws IllegalArgumentException if a segment cannot hold a record, or the total size cannot hold a segment
+     */
+    public SpillLog(Path directory, int segmentSize, long maxBytes, FsyncPolicy fsyncPolicy,
+                    long fsyncIntervalMillis) throws IOException {
+        if (segmentSize <= SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE + BODY_PREFIX_SIZE || maxBytes < segmentSize) {
+            throw new IllegalArgumentException(String.format(
+                    "Spill segment size must be more than %d bytes and at most the total size, got %d and %d",
+                    SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE + BODY_PREFIX_SIZE, segmentSize, maxBytes));
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.min(Integer.MAX_VALUE, maxBytes / segmentSize);
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+
+        Files.createDirectories(directory);
+        List<Segment> usedSegments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher matcher = SEGMENT_FILE_PATTERN.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                int slot = Integer.parseInt(matcher.group(1));
+                nextSlot = Math.max(nextSlot, slot + 1);
+                Segment segment = openSegment(slot);
+                segmentsBySlot.put(slot, segment);
+                if (segment.sequence == FREE_SEQUENCE) {
+                    freeSegments.add(segment);
+                } else {
+                    usedSegments.add(segment);
+                }
+            }
+        }
+        // Recover in append order, so that the records of each stream are read back in order
+        usedSegments.sort(Comparator.comparingLong(segment -> segment.sequence));
+        for (Segment segment : usedSegments) {
+            recover(segment);
+            segments.add(segment);
+        }
+        if (!segments.isEmpty()) {
+            nextSequence = segments.peekLast().sequence + 1;
+        }
+        for (Segment segment : usedSegments) {
+            recycleIfConsumed(segment);
+        }
+        LOGGER.atInfo().kv("directory", directory).kv("segments", segments.size() + freeSegments.size())
+                .kv("pendingRecords", pendingRecords).log("Opened spill log");
+    }
+
+    /**
+     * Append a message to the log.
+     *
+     * @param message message to append
+     * @return false if the message was dropped because the log is full, closed, or the message is too large
+     */
+    public synchronized boolean append(StreamMessage message) {
+        byte[] streamBytes = message.getStream().getBytes(StandardCharsets.UTF_8);
+        byte[] payload = message.getPayload();
+        int bodyLength = BODY_PREFIX_SIZE + streamBytes.length + payload.length;
+        if (closed || streamBytes.length > MAX_STREAM_NAME_BYTES
+                || bodyLength > segmentSize - SEGMENT_HEADER_SIZE - RECORD_HEADER_SIZE) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        int recordLength = RECORD_HEADER_SIZE + bodyLength;
+
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.writePosition + recordLength > tail.buffer.capacity()) {
+            tail = startSegment();
+            if (tail == null) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+        }
+        if (pendingRecords == 0) {
+            LOGGER.atWarn().kv("directory", directory).log("Spilling messages to disk until they can be published");
+        }
+
+        MappedByteBuffer buffer = tail.buffer;
+        int position = tail.writePosition;
+        int bodyPosition = position + RECORD_HEADER_SIZE;
+        ByteBuffer body = buffer.duplicate();
+        body.position(bodyPosition);
+        body.put((byte) (message.isDynamicStream() ? 1 : 0));
+        body.putShort((short) streamBytes.length);
+        body.put(streamBytes);
+        body.put(payload);
+        int end = bodyPosition + bodyLength;
+        if (end + Integer.BYTES <= buffer.capacity()) {
+            // Stale records of a recycled segment must not be read as part of this one
+            buffer.putInt(end, 0);
+        }
+        buffer.putInt(position + CRC_OFFSET, crc(buffer, bodyPosition, bodyLength));
+        buffer.put(position + FLAGS_OFFSET, (byte) 0);
+        buffer.putInt(position, bodyLength);
+        tail.writePosition = end;
+
+        addPending(message.getStream(), tail, position);
+        spilledCount.incrementAndGet();
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            buffer.force();
+        } else if (fsyncPolicy == FsyncPolicy.INTERVAL && System.nanoTime() - lastForceNanos >= fsyncIntervalNanos) {
+            buffer.force();
+            lastForceNanos = System.nanoTime();
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Get the oldest record of a stream not consumed yet.
+     *
+     * @param stream stream name
+     * @return oldest unconsumed record of the stream, or null if there is none
+     */
+    public synchronized SpillRecord peek(String stream) {
+        RecordLocations locations = pendingByStream.get(stream);
+        if (locations == null) {
+            return null;
+        }
+        long location = locations.first();
+        Segment segment = segmentsBySlot.get((int) (location >>> 32));
+        int position = (int) location;
+        MappedByteBuffer buffer = segment.buffer;
+        int bodyLength = buffer.getInt(position);
+        int bodyPosition = position + RECORD_HEADER_SIZE;
+        ByteBuffer body = buffer.duplicate();
+        body.position(bodyPosition);
+        boolean dynamicStream = body.get() != 0;
+        byte[] streamBytes = new byte[body.getShort() & MAX_STREAM_NAME_BYTES];
+        body.get(streamBytes);
+        byte[] payload = new byte[bodyLength - BODY_PREFIX_SIZE - streamBytes.length];
+        body.get(payload);
+        return new SpillRecord(segment, position, bodyPosition + bodyLength,
+                new StreamMessage(stream, payload, dynamicStream));
+    }
+
+    /**
+     * Streams with unconsumed records.
+     *
+     * @return snapshot of the stream names
+     */
+    public Set<String> getPendingStreams() {
+        return new HashSet<>(pendingByStream.keySet());
+    }
+
+    /**
+     * Check whether a stream has unconsumed records. Messages to such a stream must be spilled behind them to keep
+     * the stream in order.
+     *
+     * @param stream stream name
+     * @return true if the stream has unconsumed records
+     */
+    public boolean hasPending(String stream) {
+        return pendingByStream.containsKey(stream);
+    }
+
+    /**
+     * Wait for a stream to have unconsumed records, unless one already has. Returns after the first wake up, which
+     * may be {@link #wakeUp()} rather than an append.
+     *
+     * @param excluded      streams not to wait for, such as the ones already being consumed
+     * @param timeoutMillis maximum time to wait
+     * @return streams with unconsumed records, other than the excluded ones, possibly none
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized Set<String> awaitPendingStreams(Set<String> excluded, long timeoutMillis)
+            throws InterruptedException {
+        Set<String> streams = getPendingStreams();
+        streams.removeAll(excluded);
+        if (streams.isEmpty() && !closed && timeoutMillis > 0) {
+            wait(timeoutMillis);
+            streams = getPendingStreams();
+            streams.removeAll(excluded);
+        }
+        return streams;
+    }
+
+    /**
+     * Wake up the threads waiting in {@link #awaitPendingStreams(Set, long)}.
+     */
+    public synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    /**
+     * Mark a record consumed. The records of a stream must be consumed in order, each one after
+     * {@link #peek(String)} returned it.
+     *
+     * @param record record returned by the last peek of its stream
+     * @throws IllegalStateException if the record is not the oldest unconsumed one of its stream
+     */
+    public synchronized void markConsumed(SpillRecord record) {
+        String stream = record.getMessage().getStream();
+        RecordLocations locations = pendingByStream.get(stream);
+        Segment segment = record.getSegment();
+        if (locations == null || locations.first() != location(segment, record.getPosition())) {
+            throw new IllegalStateException("Spilled records of a stream must be consumed in order");
+        }
+        segment.buffer.put(record.getPosition() + FLAGS_OFFSET, FLAG_CONSUMED);
+        locations.removeFirst();
+        if (locations.size == 0) {
+            pendingByStream.remove(stream);
+        }
+        segment.unconsumedRecords--;
+        pendingRecords--;
+        recycleIfConsumed(segment);
+        if (pendingRecords == 0) {
+            LOGGER.atInfo().kv("spilled", spilledCount.get()).log("All spilled messages consumed");
+        }
+    }
+
+    public boolean isEmpty() {
+        return pendingRecords == 0;
+    }
+
+    public long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    /**
+     * Number of messages appended since the log was opened.
+     *
+     * @return spilled message count
+     */
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    /**
+     * Number of messages which could not be appended.
+     *
+     * @return dropped message count
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Number of segment files, in use or free.
+     *
+     * @return segment file count
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size() + freeSegments.size();
+    }
+
+    /**
+     * Force all records to disk and stop accepting new ones.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        notifyAll();
+    }
+
+    private Segment startSegment() {
+        Segment previous = segments.peekLast();
+        if (previous != null && previous.unconsumedRecords == 0) {
+            // Full and already consumed, reuse it right away
+            segments.pollLast();
+            recycle(previous);
+            previous = null;
+        }
+        Segment segment = freeSegments.pollFirst();
+        if (segment == null) {
+            if (getSegmentCount() >= maxSegments) {
+                return null;
+            }
+            try {
+                segment = openSegment(nextSlot);
+            } catch (IOException e) {
+                LOGGER.atError().setCause(e).kv("directory", directory).log("Unable to create spill segment");
+                return null;
+            }
+            segmentsBySlot.put(nextSlot, segment);
+            nextSlot++;
+        }
+        if (previous != null && fsyncPolicy != FsyncPolicy.NEVER) {
+            previous.buffer.force();
+        }
+        segment.writePosition = SEGMENT_HEADER_SIZE;
+        segment.buffer.putInt(SEGMENT_HEADER_SIZE, 0);
+        writeHeader(segment, nextSequence);
+        nextSequence++;
+        segments.add(segment);
+        return segment;
+    }
+
+    private void addPending(String stream, Segment segment, int position) {
+        pendingByStream.computeIfAbsent(stream, k -> new RecordLocations()).add(location(segment, position));
+        segment.unconsumedRecords++;
+        pendingRecords++;
+    }
+
+    private static long location(Segment segment, int position) {
+        return ((long) segment.slot << 32) | (position & 0xFFFFFFFFL);
+    }
+
+    @SuppressWarnings("PMD.CompareObjectsWithEquals") // Segments are compared by identity
+    private void recycleIfConsumed(Segment segment) {
+        // The last segment is still written to
+        if (segment.unconsumedRecords == 0 && segment != segments.peekLast() && segments.remove(segment)) {
+            recycle(segment);
+        }
+    }
+
+    private void recycle(Segment segment) {
+        writeHeader(segment, FREE_SEQUENCE);
+        if (segment.buffer.capacity() == segmentSize) {
+            freeSegments.add(segment);
+            return;
+        }
+        // Written with another segment size, replace it with one of the configured size
+        segmentsBySlot.remove(segment.slot);
+        try {
+            Files.deleteIfExists(segmentPath(segment.slot));
+        } catch (IOException e) {
+            LOGGER.atDebug().setCause(e).kv("slot", segment.slot).log("Unable to delete resized spill segment");
+        }
+    }
+
+    private static void writeHeader(Segment segment, long sequence) {
+        segment.sequence = sequence;
+        segment.buffer.putInt(0, SEGMENT_MAGIC);
+        segment.buffer.putLong(Integer.BYTES, sequence);
+    }
+
+    private Segment openSegment(int slot) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath(slot).toFile(), "rw")) {
+            long sequence = FREE_SEQUENCE;
+            if (file.length() >= SEGMENT_HEADER_SIZE && file.readInt() == SEGMENT_MAGIC) {
+                sequence = file.readLong();
+            }
+            // Segments holding records keep their size, free ones get the configured size
+            int size = sequence == FREE_SEQUENCE || file.length() > Integer.MAX_VALUE ? segmentSize
+                    : (int) file.length();
+            if (file.length() != size) {
+                file.setLength(size);
+            }
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new Segment(slot, buffer, sequence);
+        }
+    }
+
+    private Path segmentPath(int slot) {
+        return directory.resolve(String.format(SEGMENT_FILE_FORMAT, slot));
+    }
+
+    private void recover(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = SEGMENT_HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int bodyLength = buffer.getInt(position);
+            int bodyPosition = position + RECORD_HEADER_SIZE;
+            if (bodyLength < BODY_PREFIX_SIZE || bodyLength > buffer.capacity() - bodyPosition
+                    || crc(buffer, bodyPosition, bodyLength) != buffer.getInt(position + CRC_OFFSET)) {
+                break;
+            }
+            if ((buffer.get(position + FLAGS_OFFSET) & FLAG_CONSUMED) == 0) {
+                ByteBuffer body = buffer.duplicate();
+                body.position(bodyPosition + 1);
+                byte[] streamBytes = new byte[body.getShort() & MAX_STREAM_NAME_BYTES];
+                body.get(streamBytes);
+                addPending(new String(streamBytes, StandardCharsets.UTF_8), segment, position);
+            }
+            position = bodyPosition + bodyLength;
+        }
+        segment.writePosition = position;
+    }
+
+    private static int crc(ByteBuffer buffer, int position, int length) {
+        ByteBuffer body = buffer.duplicate();
+        body.position(position);
+        body.limit(position + length);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.spill;
+
+import com.aws.greengrass.smbridge.StreamMessage;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A message read back from the {@link SpillLog}, along with where it is stored so that it can be marked consumed.
+ */
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
+public class SpillRecord {
+    @Getter(AccessLevel.PACKAGE)
+    private final SpillLog.Segment segment;
+    @Getter(AccessLevel.PACKAGE)
+    private final int position;
+    @Getter(AccessLevel.PACKAGE)
+    private final int nextPosition;
+    @Getter
+    private final StreamMessage message;
+}
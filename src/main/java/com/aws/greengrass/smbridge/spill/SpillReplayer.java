@@ -0,0 +1,221 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.spill;
+
+import com.aws.greengrass.logging.api.Logger;
+import com.aws.greengrass.logging.impl.LogManager;
+import com.aws.greengrass.smbridge.StreamMessage;
+import com.aws.greengrass.smbridge.clients.SMClientException;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background threads draining the {@link SpillLog} into Stream Manager, each stream in order.
+ *
+ * <p>Streams are replayed in parallel, up to the configured number at a time, so that a stream which cannot be
+ * published does not hold up the others. When a record cannot be published and the failure is retryable, its stream
+ * backs off exponentially and the same record is retried, so nothing overtakes it. A record failing for a reason
+ * which retrying cannot fix is dropped. A stream is replayed for a bounded number of records at a time, so that
+ * streams with a long backlog take turns with the others.
+ */
+public class SpillReplayer {
+    private static final Logger LOGGER = LogManager.getLogger(SpillReplayer.class);
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 100;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 30_000;
+    public static final int DEFAULT_PARALLELISM = 4;
+    private static final long POLL_MILLIS = 1000;
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+    private static final int RECORDS_PER_TURN = 256;
+
+    private final SpillLog spillLog;
+    private final Publisher publisher;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int parallelism;
+    // Streams being replayed, at most one task per stream
+    private final Set<String> activeStreams = ConcurrentHashMap.newKeySet();
+    // Streams backing off after a retryable failure
+    private final Map<String, Backoff> backoffs = new ConcurrentHashMap<>();
+    private final AtomicLong replayedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile boolean running;
+    private Thread thread;
+    private ExecutorService executor;
+
+    private static final class Backoff {
+        private final long delayMillis;
+        private final long retryAtNanos;
+
+        private Backoff(long delayMillis) {
+            this.delayMillis = delayMillis;
+            this.retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        }
+    }
+
+    /**
+     * Publishes a replayed message.
+     */
+    @FunctionalInterface
+    public interface Publisher {
+        void publish(StreamMessage message) throws SMClientException;
+    }
+
+    /**
+     * Ctr for SpillReplayer with the default backoff and parallelism.
+     *
+     * @param spillLog  spill log to drain
+     * @param publisher publishes the replayed messages
+     */
+    public SpillReplayer(SpillLog spillLog, Publisher publisher) {
+        this(spillLog, publisher, DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Ctr for SpillReplayer.
+     *
+     * @param spillLog             spill log to drain
+     * @param publisher            publishes the replayed messages
+     * @param initialBackoffMillis wait after the first failure to publish a record
+     * @param maxBackoffMillis     maximum wait between two attempts to publish a record
+     * @param parallelism          number of streams replayed at the same time
+     */
+    public SpillReplayer(SpillLog spillLog, Publisher publisher, long initialBackoffMillis, long maxBackoffMillis,
+                         int parallelism) {
+        this.spillLog = spillLog;
+        this.publisher = publisher;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Start the replay threads.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread worker = new Thread(runnable, "sm-bridge-spill-replay-" + threadCount.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+        thread = new Thread(this::schedule, "sm-bridge-spill-replay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the replay threads. The records being replayed, if any, stay in the log.
+     */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        executor.shutdownNow();
+        try {
+            thread.join(STOP_TIMEOUT_MILLIS);
+            executor.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        executor = null;
+    }
+
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    /**
+     * Number of spilled messages dropped because publishing them failed for a reason retrying cannot fix.
+     *
+     * @return dropped message count
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    // Hands each stream with records to replay over to a worker, unless it is already replayed or backing off
+    private void schedule() {
+        ExecutorService workers = executor;
+        while (running) {
+            try {
+                long waitMillis = POLL_MILLIS;
+                Set<String> excluded = new HashSet<>(activeStreams);
+                long nowNanos = System.nanoTime();
+                for (Map.Entry<String, Backoff> backoff : backoffs.entrySet()) {
+                    long remainingNanos = backoff.getValue().retryAtNanos - nowNanos;
+                    if (remainingNanos > 0) {
+                        excluded.add(backoff.getKey());
+                        waitMillis = Math.min(waitMillis, Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos)));
+                    }
+                }
+                for (String stream : spillLog.awaitPendingStreams(excluded, waitMillis)) {
+                    if (activeStreams.add(stream)) {
+                        workers.execute(() -> replay(stream));
+                    }
+                }
+            } catch (InterruptedException | RejectedExecutionException e) {
+                // Stopped
+                return;
+            }
+        }
+    }
+
+    private void replay(String stream) {
+        try {
+            for (int i = 0; i < RECORDS_PER_TURN && running; i++) {
+                SpillRecord record = spillLog.peek(stream);
+                if (record == null) {
+                    return;
+                }
+                StreamMessage message = record.getMessage();
+                try {
+                    publisher.publish(message);
+                    replayedCount.incrementAndGet();
+                } catch (SMClientException e) {
+                    if (e.isRetryable()) {
+                        backOff(stream, e);
+                        return;
+                    }
+                    droppedCount.incrementAndGet();
+                    LOGGER.atError().setCause(e).kv("Stream", stream)
+                            .log("Dropping spilled message which cannot be published");
+                }
+                spillLog.markConsumed(record);
+                backoffs.remove(stream);
+            }
+        } finally {
+            activeStreams.remove(stream);
+            // Let the scheduler hand the stream over again, or another one
+            spillLog.wakeUp();
+        }
+    }
+
+    private void backOff(String stream, SMClientException cause) {
+        Backoff previous = backoffs.get(stream);
+        if (previous == null) {
+            LOGGER.atWarn().setCause(cause).kv("Stream", stream)
+                    .log("Unable to replay spilled message, retrying with backoff");
+        }
+        backoffs.put(stream, new Backoff(previous == null ? initialBackoffMillis
+                : Math.min(previous.delayMillis * 2, maxBackoffMillis)));
+    }
+}
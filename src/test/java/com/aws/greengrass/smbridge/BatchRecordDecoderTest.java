@@ -0,0 +1,48 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+@ExtendWith(GGExtension.class)
+public class BatchRecordDecoderTest {
+
+    @Test
+    void GIVEN_encoded_batch_WHEN_decode_THEN_messages_returned_in_order() {
+        byte[] large = new byte[300];
+        Arrays.fill(large, (byte) 7);
+        List<byte[]> payloads = Arrays.asList("first".getBytes(), new byte[0], large);
+        byte[] record = MessageBatcher.encode(payloads, 5 + 300);
+
+        Assertions.assertTrue(BatchRecordDecoder.isBatchRecord(record));
+        List<byte[]> decoded = BatchRecordDecoder.decode(record);
+        Assertions.assertEquals(3, decoded.size());
+        for (int i = 0; i < payloads.size(); i++) {
+            Assertions.assertArrayEquals(payloads.get(i), decoded.get(i));
+        }
+    }
+
+    @Test
+    void GIVEN_malformed_record_WHEN_decode_THEN_throws() {
+        byte[] record = MessageBatcher.encode(Arrays.asList("first".getBytes(), "second".getBytes()), 11);
+
+        Assertions.assertFalse(BatchRecordDecoder.isBatchRecord("plain payload".getBytes()));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> BatchRecordDecoder.decode("plain payload".getBytes()));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> BatchRecordDecoder.decode(Arrays.copyOf(record, record.length - 1)));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> BatchRecordDecoder.decode(Arrays.copyOf(record, record.length + 1)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BatchRecordDecoder.decode(
+                new byte[]{'S', 'B', 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F}));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+@ExtendWith({MockitoExtension.class, GGExtension.class})
+public class IngestDispatcherTest {
+
+    @Test
+    void GIVEN_dispatcher_WHEN_dispatch_THEN_task_runs_on_worker_thread() throws Exception {
+        IngestDispatcher dispatcher = new IngestDispatcher(10, 2);
+        AtomicReference<Thread> workerThread = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        dispatcher.dispatch("key", () -> {
+            workerThread.set(Thread.currentThread());
+            done.countDown();
+        });
+
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertThat(workerThread.get(), is(not(sameInstance(Thread.currentThread()))));
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void GIVEN_full_queue_WHEN_dispatch_THEN_task_runs_on_caller_thread() throws Exception {
+        IngestDispatcher dispatcher = new IngestDispatcher(1, 1);
+        CountDownLatch blockWorker = new CountDownLatch(1);
+        CountDownLatch workerBusy = new CountDownLatch(1);
+
+        dispatcher.dispatch("key", () -> {
+            workerBusy.countDown();
+            try {
+                blockWorker.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assertions.assertTrue(workerBusy.await(5, TimeUnit.SECONDS));
+        // Fills the queue
+        dispatcher.dispatch("key", () -> {
+        });
+
+        AtomicReference<Thread> overflowThread = new AtomicReference<>();
+        dispatcher.dispatch("key", () -> overflowThread.set(Thread.currentThread()));
+
+        assertThat(overflowThread.get(), is(sameInstance(Thread.currentThread())));
+        assertThat(dispatcher.getOverflowCount(), is(1L));
+        blockWorker.countDown();
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void GIVEN_queued_tasks_WHEN_shutdown_THEN_queued_tasks_complete() {
+        IngestDispatcher dispatcher = new IngestDispatcher(100, 1);
+        AtomicInteger completed = new AtomicInteger();
+        for (int i = 0; i < 50; i++) {
+            dispatcher.dispatch("key" + i, completed::incrementAndGet);
+        }
+
+        dispatcher.shutdown();
+        assertThat(completed.get(), is(50));
+    }
+
+    @Test
+    void GIVEN_ordered_dispatcher_WHEN_dispatch_same_key_THEN_tasks_run_in_order() {
+        IngestDispatcher dispatcher = new IngestDispatcher(4, 4, IngestDispatcher.Ordering.STREAM);
+        List<Integer> stream1 = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> stream2 = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final int sequence = i;
+            // Lanes hold a single task, so most of these wait for room
+            dispatcher.dispatch("stream1", () -> stream1.add(sequence));
+            dispatcher.dispatch("stream2", () -> stream2.add(sequence));
+            expected.add(i);
+        }
+
+        dispatcher.shutdown();
+        assertThat(stream1, is(equalTo(expected)));
+        assertThat(stream2, is(equalTo(expected)));
+    }
+
+    @Test
+    void GIVEN_ordering_names_WHEN_parse_THEN_case_insensitive() {
+        assertThat(IngestDispatcher.Ordering.fromString("Stream"), is(IngestDispatcher.Ordering.STREAM));
+        assertThat(IngestDispatcher.Ordering.fromString(IngestDispatcher.DEFAULT_ORDERING),
+                is(IngestDispatcher.Ordering.NONE));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> IngestDispatcher.Ordering.fromString("x"));
+    }
+
+    @Test
+    void GIVEN_invalid_configuration_WHEN_create_THEN_throws() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new IngestDispatcher(0, 1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new IngestDispatcher(1, 0));
+    }
+
+    @Test
+    void GIVEN_full_queue_WHEN_try_dispatch_THEN_task_not_queued() throws Exception {
+        IngestDispatcher dispatcher = new IngestDispatcher(1, 1);
+        CountDownLatch blockWorker = new CountDownLatch(1);
+        CountDownLatch workerBusy = new CountDownLatch(1);
+
+        Assertions.assertTrue(dispatcher.tryDispatch("key", () -> {
+            workerBusy.countDown();
+            try {
+                blockWorker.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        Assertions.assertTrue(workerBusy.await(5, TimeUnit.SECONDS));
+        AtomicInteger ran = new AtomicInteger();
+        Assertions.assertTrue(dispatcher.tryDispatch("key", ran::incrementAndGet));
+        Assertions.assertFalse(dispatcher.tryDispatch("key", ran::incrementAndGet));
+        assertThat(dispatcher.getOverflowCount(), is(1L));
+
+        blockWorker.countDown();
+        dispatcher.shutdown();
+        assertThat(ran.get(), is(1));
+        Assertions.assertFalse(dispatcher.tryDispatch("key", ran::incrementAndGet));
+    }
+}
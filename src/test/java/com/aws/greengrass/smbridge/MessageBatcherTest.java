@@ -0,0 +1,202 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@ExtendWith(GGExtension.class)
+public class MessageBatcherTest {
+    private static final long LONG_LINGER_MILLIS = 60_000;
+
+    @Test
+    void GIVEN_batch_WHEN_max_messages_reached_THEN_published_as_one_record() {
+        List<StreamMessage> records = new CopyOnWriteArrayList<>();
+        MessageBatcher batcher = new MessageBatcher((record, unbuffered) -> records.add(record));
+        TopicMapping.BatchConfig config = new TopicMapping.BatchConfig(3, 1024, LONG_LINGER_MILLIS);
+
+        for (int i = 0; i < 7; i++) {
+            batcher.add(new StreamMessage("testStream", ("message" + i).getBytes()), config);
+        }
+
+        Assertions.assertEquals(2, records.size());
+        Assertions.assertEquals("testStream", records.get(0).getStream());
+        List<byte[]> messages = BatchRecordDecoder.decode(records.get(1).getPayload());
+        Assertions.assertEquals(3, messages.size());
+        Assertions.assertArrayEquals("message3".getBytes(), messages.get(0));
+
+        batcher.flushAll();
+        Assertions.assertEquals(3, records.size());
+        Assertions.assertEquals(1, BatchRecordDecoder.decode(records.get(2).getPayload()).size());
+        Assertions.assertEquals(7, batcher.getBatchedMessageCount());
+        Assertions.assertEquals(3, batcher.getPublishedRecordCount());
+    }
+
+    @Test
+    void GIVEN_batch_WHEN_max_bytes_would_be_exceeded_THEN_published_before_adding() {
+        List<StreamMessage> records = new CopyOnWriteArrayList<>();
+        MessageBatcher batcher = new MessageBatcher((record, unbuffered) -> records.add(record));
+        TopicMapping.BatchConfig config = new TopicMapping.BatchConfig(100, 10, LONG_LINGER_MILLIS);
+
+        batcher.add(new StreamMessage("testStream", new byte[6]), config);
+        batcher.add(new StreamMessage("testStream", new byte[6]), config);
+        Assertions.assertEquals(1, records.size());
+        Assertions.assertEquals(1, BatchRecordDecoder.decode(records.get(0).getPayload()).size());
+
+        // A message over the limit on its own is published alone
+        batcher.add(new StreamMessage("testStream", new byte[20]), config);
+        Assertions.assertEquals(3, records.size());
+        batcher.flushAll();
+    }
+
+    @Test
+    void GIVEN_batch_WHEN_linger_time_elapsed_THEN_published() throws Exception {
+        BlockingQueue<StreamMessage> records = new LinkedBlockingQueue<>();
+        MessageBatcher batcher = new MessageBatcher((record, unbuffered) -> records.add(record));
+        TopicMapping.BatchConfig config = new TopicMapping.BatchConfig(100, 1024, 10);
+
+        batcher.add(new StreamMessage("stream1", "a".getBytes()), config);
+        batcher.add(new StreamMessage("stream2", "b".getBytes()), config);
+        batcher.add(new StreamMessage("stream1", "c".getBytes()), config);
+
+        StreamMessage first = records.poll(5, TimeUnit.SECONDS);
+        StreamMessage second = records.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(first);
+        Assertions.assertNotNull(second);
+        StreamMessage stream1 = "stream1".equals(first.getStream()) ? first : second;
+        Assertions.assertEquals(2, BatchRecordDecoder.decode(stream1.getPayload()).size());
+        batcher.flushAll();
+        Assertions.assertTrue(records.isEmpty());
+    }
+
+    @Test
+    void GIVEN_messages_to_acknowledge_WHEN_batch_published_THEN_settled_with_publish_result() {
+        AtomicBoolean stored = new AtomicBoolean(true);
+        List<Boolean> unbufferedRecords = new CopyOnWriteArrayList<>();
+        MessageBatcher batcher = new MessageBatcher((record, unbuffered) -> {
+            unbufferedRecords.add(unbuffered);
+            return stored.get();
+        });
+        TopicMapping.BatchConfig config = new TopicMapping.BatchConfig(2, 1024, LONG_LINGER_MILLIS);
+        AtomicInteger acknowledged = new AtomicInteger();
+        AtomicInteger released = new AtomicInteger();
+        MessageAck ack = new MessageAck() {
+            @Override
+            public void acknowledge() {
+                acknowledged.incrementAndGet();
+            }
+
+            @Override
+            public void release() {
+                released.incrementAndGet();
+            }
+        };
+
+        batcher.add(new StreamMessage("testStream", "a".getBytes()), config, null, new PendingAck(ack, 1));
+        Assertions.assertEquals(0, acknowledged.get());
+        batcher.add(new StreamMessage("testStream", "b".getBytes()), config, null, new PendingAck(ack, 1));
+        Assertions.assertEquals(2, acknowledged.get());
+
+        stored.set(false);
+        batcher.add(new StreamMessage("testStream", "c".getBytes()), config, null, new PendingAck(ack, 1));
+        batcher.flushAll();
+        Assertions.assertEquals(2, acknowledged.get());
+        Assertions.assertEquals(1, released.get());
+        Assertions.assertEquals(2, unbufferedRecords.size());
+        Assertions.assertTrue(unbufferedRecords.get(0));
+    }
+
+    @Test
+    void GIVEN_mappings_with_different_settings_WHEN_same_stream_THEN_batched_separately() {
+        List<StreamMessage> records = new CopyOnWriteArrayList<>();
+        MessageBatcher batcher = new MessageBatcher((record, unbuffered) -> records.add(record));
+        TopicMapping.BatchConfig small = new TopicMapping.BatchConfig(2, 1024, LONG_LINGER_MILLIS);
+        TopicMapping.BatchConfig large = new TopicMapping.BatchConfig(3, 1024, LONG_LINGER_MILLIS);
+
+        batcher.add(new StreamMessage("testStream", "small1".getBytes()), small);
+        batcher.add(new StreamMessage("testStream", "large1".getBytes()), large);
+        batcher.add(new StreamMessage("testStream", "small2".getBytes()), small);
+
+        Assertions.assertEquals(1, records.size());
+        List<byte[]> messages = BatchRecordDecoder.decode(records.get(0).getPayload());
+        Assertions.assertEquals(2, messages.size());
+        Assertions.assertArrayEquals("small2".getBytes(), messages.get(1));
+        batcher.flushAll();
+        Assertions.assertEquals(2, records.size());
+        Assertions.assertEquals(1, BatchRecordDecoder.decode(records.get(1).getPayload()).size());
+    }
+
+    @Test
+    void GIVEN_batch_WHEN_linger_time_elapsed_THEN_published_on_lane_of_stream() throws Exception {
+        List<StreamMessage> records = new CopyOnWriteArrayList<>();
+        BlockingQueue<Runnable> laneTasks = new LinkedBlockingQueue<>();
+        AtomicBoolean laneFull = new AtomicBoolean(true);
+        List<String> laneStreams = new CopyOnWriteArrayList<>();
+        MessageBatcher batcher = new MessageBatcher((record, unbuffered) -> records.add(record),
+                new PayloadCompressor(), (stream, task) -> {
+                    laneStreams.add(stream);
+                    // Refused once, as a full lane would
+                    return !laneFull.getAndSet(false) && laneTasks.add(task);
+                });
+        TopicMapping.BatchConfig config = new TopicMapping.BatchConfig(100, 1024, 10);
+
+        batcher.add(new StreamMessage("testStream", "a".getBytes()), config);
+        Runnable flush = laneTasks.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(flush);
+        Assertions.assertEquals(2, laneStreams.size());
+        Assertions.assertEquals("testStream", laneStreams.get(1));
+        // The linger thread only hands the batch over
+        Assertions.assertTrue(records.isEmpty());
+
+        flush.run();
+        Assertions.assertEquals(1, records.size());
+        batcher.flushAll();
+        Assertions.assertEquals(1, records.size());
+    }
+
+    @Test
+    void GIVEN_batch_being_published_WHEN_message_added_THEN_add_does_not_wait_for_publish() throws Exception {
+        CountDownLatch publishing = new CountDownLatch(1);
+        CountDownLatch published = new CountDownLatch(1);
+        List<StreamMessage> records = new CopyOnWriteArrayList<>();
+        MessageBatcher batcher = new MessageBatcher((record, unbuffered) -> {
+            publishing.countDown();
+            try {
+                published.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return records.add(record);
+        });
+        TopicMapping.BatchConfig config = new TopicMapping.BatchConfig(2, 1024, LONG_LINGER_MILLIS);
+
+        Thread publisher = new Thread(() -> {
+            batcher.add(new StreamMessage("testStream", "a".getBytes()), config);
+            batcher.add(new StreamMessage("testStream", "b".getBytes()), config);
+        });
+        publisher.start();
+        Assertions.assertTrue(publishing.await(5, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        batcher.add(new StreamMessage("testStream", "c".getBytes()), config);
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        published.countDown();
+        publisher.join(5000);
+        batcher.flushAll();
+        Assertions.assertEquals(2, records.size());
+    }
+}
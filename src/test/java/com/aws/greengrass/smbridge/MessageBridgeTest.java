@@ -6,7 +6,10 @@
 package com.aws.greengrass.smbridge;
 
 import com.aws.greengrass.smbridge.clients.MQTTClient;
-import com.aws.greengrass.smbridge.clients.SMClient;
+import com.aws.greengrass.smbridge.clients.SMClientException;
+import com.aws.greengrass.smbridge.clients.SMConnectionSupervisor;
+import com.aws.greengrass.smbridge.clients.StreamFullException;
+import com.aws.greengrass.smbridge.spill.SpillLog;
 
 import com.aws.greengrass.testcommons.testutilities.GGExtension;
 import com.aws.greengrass.util.Utils;
@@ -20,13 +23,20 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.mockito.internal.verification.VerificationModeFactory.times;
 
 @ExtendWith({MockitoExtension.class, GGExtension.class})
@@ -34,7 +44,7 @@ public class MessageBridgeTest {
     @Mock
     private MQTTClient mockMqttClient;
     @Mock
-    private SMClient mockSmClient;
+    private SMConnectionSupervisor mockSmClient;
     @Mock
     private TopicMapping mockTopicMapping;
 
@@ -56,7 +66,7 @@ public class MessageBridgeTest {
         MessageBridge messageBridge = new MessageBridge(mapping);
         messageBridge.addOrReplaceMqttClient(mockMqttClient);
         ArgumentCaptor<Set<String>> topicsArgumentCaptor = ArgumentCaptor.forClass(Set.class);
-        verify(mockMqttClient, times(1)).updateSubscriptions(topicsArgumentCaptor.capture(), any());
+        verify(mockMqttClient, times(1)).updateSubscriptions(topicsArgumentCaptor.capture(), any(), any());
         // We expect one more than the mapping, because it listens to the default topic as well
         MatcherAssert.assertThat(topicsArgumentCaptor.getValue(), Matchers.hasSize(4));
         MatcherAssert
@@ -82,12 +92,12 @@ public class MessageBridgeTest {
         mapping.updateMapping(mappingToUpdate);
 
         ArgumentCaptor<Set<String>> topicsArgumentCaptor = ArgumentCaptor.forClass(Set.class);
-        verify(mockMqttClient, times(1)).updateSubscriptions(topicsArgumentCaptor.capture(), any());
-        // We expect one more than the mapping, because it listens to the default topic as well
-        MatcherAssert.assertThat(topicsArgumentCaptor.getValue(), Matchers.hasSize(7));
+        verify(mockMqttClient, times(1)).updateSubscriptions(topicsArgumentCaptor.capture(), any(), any());
+        // It listens to the default topic as well. mqtt/+/topic and mqtt/topic/# overlap, so they are merged into
+        // mqtt/+/#, which covers the other mapped topics.
+        MatcherAssert.assertThat(topicsArgumentCaptor.getValue(), Matchers.hasSize(2));
         MatcherAssert.assertThat(topicsArgumentCaptor.getValue(),
-                Matchers.containsInAnyOrder(
-                        "mqtt/topic", "mqtt/topic2", "mqtt/topic/#", "mqtt/topic3", "mqtt/topic4", "mqtt/+/topic", SMBridge.RESERVED_TOPIC));
+                Matchers.containsInAnyOrder("mqtt/+/#", SMBridge.RESERVED_TOPIC));
     }
 
     @Test
@@ -118,7 +128,7 @@ public class MessageBridgeTest {
         mapping.updateMapping(mappingToUpdate);
 
         ArgumentCaptor<Set<String>> topicsArgumentCaptorLocalMqtt = ArgumentCaptor.forClass(Set.class);
-        verify(mockMqttClient, times(1)).updateSubscriptions(topicsArgumentCaptorLocalMqtt.capture(), any());
+        verify(mockMqttClient, times(1)).updateSubscriptions(topicsArgumentCaptorLocalMqtt.capture(), any(), any());
         // We expect one more than the mapping, because it listens to the default topic as well
         MatcherAssert.assertThat(topicsArgumentCaptorLocalMqtt.getValue(), Matchers.hasSize(5));
         MatcherAssert.assertThat(topicsArgumentCaptorLocalMqtt.getValue(),
@@ -128,7 +138,7 @@ public class MessageBridgeTest {
         reset(mockMqttClient);
         mapping.updateMapping(Collections.EMPTY_MAP);
         topicsArgumentCaptorLocalMqtt = ArgumentCaptor.forClass(Set.class);
-        verify(mockMqttClient, times(1)).updateSubscriptions(topicsArgumentCaptorLocalMqtt.capture(), any());
+        verify(mockMqttClient, times(1)).updateSubscriptions(topicsArgumentCaptorLocalMqtt.capture(), any(), any());
         MatcherAssert.assertThat(topicsArgumentCaptorLocalMqtt.getValue(), Matchers.hasSize(1));
         MatcherAssert.assertThat(topicsArgumentCaptorLocalMqtt.getValue(),
                 Matchers.containsInAnyOrder(SMBridge.RESERVED_TOPIC));
@@ -149,10 +159,10 @@ public class MessageBridgeTest {
         MessageBridge messageBridge = new MessageBridge(mapping);
 
         messageBridge.addOrReplaceMqttClient(mockMqttClient);
-        messageBridge.addOrReplaceSMClient(mockSmClient);
+        messageBridge.addOrReplaceSMSupervisor(mockSmClient);
 
         ArgumentCaptor<Consumer> messageHandlerLocalMqttCaptor = ArgumentCaptor.forClass(Consumer.class);
-        verify(mockMqttClient, times(1)).updateSubscriptions(any(), messageHandlerLocalMqttCaptor.capture());
+        verify(mockMqttClient, times(1)).updateSubscriptions(any(), any(), messageHandlerLocalMqttCaptor.capture());
 
         byte[] messageOnTopic1 = "message from topic mqtt/topic".getBytes();
         byte[] messageOnTopic2 = "message from topic mqtt/topic2".getBytes();
@@ -187,10 +197,10 @@ public class MessageBridgeTest {
         MessageBridge messageBridge = new MessageBridge(mapping);
 
         messageBridge.addOrReplaceMqttClient(mockMqttClient);
-        messageBridge.addOrReplaceSMClient(mockSmClient);
+        messageBridge.addOrReplaceSMSupervisor(mockSmClient);
 
         ArgumentCaptor<Consumer> messageHandlerLocalMqttCaptor = ArgumentCaptor.forClass(Consumer.class);
-        verify(mockMqttClient, times(1)).updateSubscriptions(any(), messageHandlerLocalMqttCaptor.capture());
+        verify(mockMqttClient, times(1)).updateSubscriptions(any(), any(), messageHandlerLocalMqttCaptor.capture());
 
         byte[] messageOnTopic1 = "message from topic mqtt/topic".getBytes();
         String GenericMessageOnTopic1 = "xx{\"timestamp\":\"yyyy/MM/dd HH:mm:ss.SSSSSS\"}message from topic mqtt/topic";
@@ -238,10 +248,10 @@ public class MessageBridgeTest {
         MessageBridge messageBridge = new MessageBridge(mapping);
 
         messageBridge.addOrReplaceMqttClient(mockMqttClient);
-        messageBridge.addOrReplaceSMClient(mockSmClient);
+        messageBridge.addOrReplaceSMSupervisor(mockSmClient);
 
         ArgumentCaptor<Consumer> messageHandlerLocalMqttCaptor = ArgumentCaptor.forClass(Consumer.class);
-        verify(mockMqttClient, times(1)).updateSubscriptions(any(), messageHandlerLocalMqttCaptor.capture());
+        verify(mockMqttClient, times(1)).updateSubscriptions(any(), any(), messageHandlerLocalMqttCaptor.capture());
 
         byte[] messageFromThermostat1 = "humidity = 40%".getBytes();
         byte[] messageFromThermostat2 = "humidity = 41%".getBytes();
@@ -297,10 +307,10 @@ public class MessageBridgeTest {
         MessageBridge messageBridge = new MessageBridge(new TopicMapping());
 
         messageBridge.addOrReplaceMqttClient(mockMqttClient);
-        messageBridge.addOrReplaceSMClient(mockSmClient);
+        messageBridge.addOrReplaceSMSupervisor(mockSmClient);
 
         ArgumentCaptor<Consumer> messageHandlerLocalMqttCaptor = ArgumentCaptor.forClass(Consumer.class);
-        verify(mockMqttClient, times(1)).updateSubscriptions(any(), messageHandlerLocalMqttCaptor.capture());
+        verify(mockMqttClient, times(1)).updateSubscriptions(any(), any(), messageHandlerLocalMqttCaptor.capture());
 
         byte[] messageFromThermostat1 = "humidity = 40%".getBytes();
         String GenericMessage = "x" + new Character((char) 87).toString() +
@@ -321,4 +331,362 @@ public class MessageBridgeTest {
         Assertions.assertEquals(GenericMessage.getBytes().length, messageCaptor.getAllValues().get(0).getPayload().length);
         Assertions.assertEquals(GenericMessage.getBytes()[1], messageCaptor.getAllValues().get(0).getPayload()[1]);
     }
+
+    @Test
+    void GIVEN_sm_bridge_WHEN_same_topic_received_again_THEN_route_cached_until_mapping_updated() throws Exception {
+        TopicMapping mapping = new TopicMapping();
+        mapping.updateMapping(Utils.immutableMap(
+                "m1", new TopicMapping.MappingEntry("mqtt/+", "RandomStream", false, false)));
+
+        MessageBridge messageBridge = new MessageBridge(mapping);
+
+        messageBridge.addOrReplaceMqttClient(mockMqttClient);
+        messageBridge.addOrReplaceSMSupervisor(mockSmClient);
+
+        ArgumentCaptor<Consumer> messageHandlerLocalMqttCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(mockMqttClient, times(1)).updateSubscriptions(any(), any(), messageHandlerLocalMqttCaptor.capture());
+
+        byte[] message = "message from topic mqtt/topic".getBytes();
+        messageHandlerLocalMqttCaptor.getValue().accept(new MQTTMessage("mqtt/topic", message));
+        messageHandlerLocalMqttCaptor.getValue().accept(new MQTTMessage("mqtt/topic", message));
+        Assertions.assertEquals(1L, messageBridge.getRouteCache().getHits());
+        Assertions.assertEquals(1L, messageBridge.getRouteCache().getMisses());
+
+        mapping.updateMapping(Utils.immutableMap(
+                "m1", new TopicMapping.MappingEntry("mqtt/+", "RandomStream2", false, false)));
+        messageHandlerLocalMqttCaptor.getValue().accept(new MQTTMessage("mqtt/topic", message));
+        Assertions.assertEquals(2L, messageBridge.getRouteCache().getMisses());
+
+        ArgumentCaptor<StreamMessage> messageSmCaptor = ArgumentCaptor.forClass(StreamMessage.class);
+        verify(mockSmClient, times(3)).publish(messageSmCaptor.capture());
+        MatcherAssert.assertThat(messageSmCaptor.getAllValues().get(1).getStream(),
+                Matchers.is(Matchers.equalTo("RandomStream")));
+        MatcherAssert.assertThat(messageSmCaptor.getAllValues().get(2).getStream(),
+                Matchers.is(Matchers.equalTo("RandomStream2")));
+    }
+
+    @Test
+    void GIVEN_ordered_ingest_WHEN_receive_mqtt_messages_THEN_published_in_order_per_stream() throws Exception {
+        TopicMapping mapping = new TopicMapping();
+        mapping.updateMapping(Utils.immutableMap(
+                "m1", new TopicMapping.MappingEntry("mqtt/topic", "RandomStream", false, false),
+                "m2", new TopicMapping.MappingEntry("mqtt/#", "RandomStream2", false, false)));
+
+        MessageBridge messageBridge = new MessageBridge(mapping);
+        IngestDispatcher dispatcher = new IngestDispatcher(2, 2, IngestDispatcher.Ordering.STREAM);
+        messageBridge.addOrReplaceIngestDispatcher(dispatcher);
+        messageBridge.addOrReplaceMqttClient(mockMqttClient);
+        messageBridge.addOrReplaceSMSupervisor(mockSmClient);
+
+        ArgumentCaptor<Consumer> messageHandlerLocalMqttCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(mockMqttClient, times(1)).updateSubscriptions(any(), any(), messageHandlerLocalMqttCaptor.capture());
+
+        for (int i = 0; i < 100; i++) {
+            messageHandlerLocalMqttCaptor.getValue().accept(new MQTTMessage("mqtt/topic", new byte[]{(byte) i}));
+        }
+        dispatcher.shutdown();
+
+        ArgumentCaptor<StreamMessage> messageSmCaptor = ArgumentCaptor.forClass(StreamMessage.class);
+        verify(mockSmClient, times(200)).publish(messageSmCaptor.capture());
+        for (String stream : new String[]{"RandomStream", "RandomStream2"}) {
+            List<StreamMessage> received = messageSmCaptor.getAllValues().stream()
+                    .filter(streamMessage -> stream.equals(streamMessage.getStream()))
+                    .collect(Collectors.toList());
+            Assertions.assertEquals(100, received.size());
+            for (int i = 0; i < received.size(); i++) {
+                Assertions.assertEquals((byte) i, received.get(i).getPayload()[0]);
+            }
+        }
+    }
+
+    @Test
+    void GIVEN_storage_monitor_WHEN_receive_mqtt_message_THEN_throttled_only_on_stream_lane() throws Exception {
+        TopicMapping mapping = new TopicMapping();
+        mapping.updateMapping(Utils.immutableMap(
+                "m1", new TopicMapping.MappingEntry("mqtt/topic", "RandomStream", false, false)));
+
+        MessageBridge messageBridge = new MessageBridge(mapping);
+        StreamStorageMonitor storageMonitor = mock(StreamStorageMonitor.class);
+        messageBridge.addOrReplaceStorageMonitor(storageMonitor);
+        messageBridge.addOrReplaceMqttClient(mockMqttClient);
+        messageBridge.addOrReplaceSMSupervisor(mockSmClient);
+
+        ArgumentCaptor<Consumer> messageHandlerCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(mockMqttClient, times(1)).updateSubscriptions(any(), any(), messageHandlerCaptor.capture());
+
+        // Shared workers and the MQTT client callback thread never wait
+        IngestDispatcher unordered = new IngestDispatcher(2, 2, IngestDispatcher.Ordering.NONE);
+        messageBridge.addOrReplaceIngestDispatcher(unordered);
+        messageHandlerCaptor.getValue().accept(new MQTTMessage("mqtt/topic", "message".getBytes()));
+        unordered.shutdown();
+        messageBridge.addOrReplaceIngestDispatcher(null);
+        messageHandlerCaptor.getValue().accept(new MQTTMessage("mqtt/topic", "message".getBytes()));
+        verify(storageMonitor, never()).throttle(any(), anyInt());
+
+        IngestDispatcher ordered = new IngestDispatcher(2, 2, IngestDispatcher.Ordering.STREAM);
+        messageBridge.addOrReplaceIngestDispatcher(ordered);
+        messageHandlerCaptor.getValue().accept(new MQTTMessage("mqtt/topic", "message".getBytes()));
+        ordered.shutdown();
+
+        verify(storageMonitor).throttle("RandomStream", "message".length());
+        verify(mockSmClient, times(3)).publish(any());
+    }
+
+    @Test
+    void GIVEN_topic_mapped_to_several_streams_WHEN_receive_mqtt_message_THEN_payload_prepared_once_per_shape()
+            throws Exception {
+        TopicMapping mapping = new TopicMapping();
+        mapping.updateMapping(Utils.immutableMap(
+                "m1", new TopicMapping.MappingEntry("mqtt/topic", "RandomStream", true, true),
+                "m2", new TopicMapping.MappingEntry("mqtt/topic", "RandomStream2", true, true),
+                "m3", new TopicMapping.MappingEntry("mqtt/#", "RandomStream3", true, false),
+                "m4", new TopicMapping.MappingEntry("mqtt/#", "RandomStream4", false, false)));
+
+        MessageBridge messageBridge = new MessageBridge(mapping);
+        messageBridge.addOrReplaceMqttClient(mockMqttClient);
+        messageBridge.addOrReplaceSMSupervisor(mockSmClient);
+
+        ArgumentCaptor<Consumer> messageHandlerLocalMqttCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(mockMqttClient, times(1)).updateSubscriptions(any(), any(), messageHandlerLocalMqttCaptor.capture());
+
+        byte[] payload = "message from topic mqtt/topic".getBytes();
+        messageHandlerLocalMqttCaptor.getValue().accept(new MQTTMessage("mqtt/topic", payload));
+
+        ArgumentCaptor<StreamMessage> messageSmCaptor = ArgumentCaptor.forClass(StreamMessage.class);
+        verify(mockSmClient, times(4)).publish(messageSmCaptor.capture());
+        Map<String, byte[]> payloadsByStream = messageSmCaptor.getAllValues().stream()
+                .collect(Collectors.toMap(StreamMessage::getStream, StreamMessage::getPayload));
+
+        MatcherAssert.assertThat(payloadsByStream.get("RandomStream"),
+                Matchers.is(Matchers.sameInstance(payloadsByStream.get("RandomStream2"))));
+        MatcherAssert.assertThat(payloadsByStream.get("RandomStream4"), Matchers.is(Matchers.sameInstance(payload)));
+        // Both headers start with {"timestamp":" after the length prefix, and share the same timestamp
+        String timestamp = new String(payloadsByStream.get("RandomStream"), 16, 26);
+        MatcherAssert.assertThat(new String(payloadsByStream.get("RandomStream3"), 16, 26),
+                Matchers.is(Matchers.equalTo(timestamp)));
+    }
+
+    @Test
+    void GIVEN_batching_mapping_WHEN_receive_mqtt_messages_THEN_published_as_batch_record() throws Exception {
+        TopicMapping mapping = new TopicMapping();
+        mapping.updateMapping(Utils.immutableMap(
+                "m1", new TopicMapping.MappingEntry("mqtt/batched", "BatchedStream", false, false,
+                        HeaderFormat.JSON, new TopicMapping.BatchConfig(2, 1024, 60_000)),
+                "m2", new TopicMapping.MappingEntry("mqtt/single", "SingleStream", false, false)));
+
+        MessageBridge messageBridge = new MessageBridge(mapping);
+        messageBridge.addOrReplaceMqttClient(mockMqttClient);
+        messageBridge.addOrReplaceSMSupervisor(mockSmClient);
+
+        ArgumentCaptor<Consumer> messageHandlerCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(mockMqttClient, times(1)).updateSubscriptions(any(), any(), messageHandlerCaptor.capture());
+        messageHandlerCaptor.getValue().accept(new MQTTMessage("mqtt/batched", "first".getBytes()));
+        messageHandlerCaptor.getValue().accept(new MQTTMessage("mqtt/single", "single".getBytes()));
+        messageHandlerCaptor.getValue().accept(new MQTTMessage("mqtt/batched", "second".getBytes()));
+
+        ArgumentCaptor<StreamMessage> messageSmCaptor = ArgumentCaptor.forClass(StreamMessage.class);
+        verify(mockSmClient, times(2)).publish(messageSmCaptor.capture());
+        Assertions.assertArrayEquals("single".getBytes(), messageSmCaptor.getAllValues().get(0).getPayload());
+        StreamMessage batch = messageSmCaptor.getAllValues().get(1);
+        Assertions.assertEquals("BatchedStream", batch.getStream());
+        List<byte[]> messages = BatchRecordDecoder.decode(batch.getPayload());
+        Assertions.assertArrayEquals("first".getBytes(), messages.get(0));
+        Assertions.assertArrayEquals("second".getBytes(), messages.get(1));
+    }
+
+    @Test
+    void GIVEN_message_to_acknowledge_WHEN_published_to_all_streams_THEN_acknowledged() throws Exception {
+        TopicMapping mapping = new TopicMapping();
+        mapping.updateMapping(Utils.immutableMap(
+                "m1", new TopicMapping.MappingEntry("mqtt/topic", "RandomStream", false, false),
+                "m2", new TopicMapping.MappingEntry("mqtt/#", "RandomStream2", false, false)));
+
+        MessageBridge messageBridge = new MessageBridge(mapping);
+        messageBridge.addOrReplaceMqttClient(mockMqttClient);
+        messageBridge.addOrReplaceSMSupervisor(mockSmClient);
+
+        ArgumentCaptor<Consumer> messageHandlerCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(mockMqttClient, times(1)).updateSubscriptions(any(), any(), messageHandlerCaptor.capture());
+
+        MessageAck ack = mock(MessageAck.class);
+        messageHandlerCaptor.getValue().accept(new MQTTMessage("mqtt/topic", "message".getBytes(), ack));
+        // Not buffered in memory, the message is only acknowledged once stored
+        verify(mockSmClient, times(2)).publishWithoutBuffering(any());
+        verify(mockSmClient, never()).publish(any());
+        verify(ack).acknowledge();
+        verify(ack, never()).release();
+    }
+
+    @Test
+    void GIVEN_message_to_acknowledge_WHEN_publish_fails_for_one_stream_THEN_released() throws Exception {
+        TopicMapping mapping = new TopicMapping();
+        mapping.updateMapping(Utils.immutableMap(
+                "m1", new TopicMapping.MappingEntry("mqtt/topic", "RandomStream", false, false),
+                "m2", new TopicMapping.MappingEntry("mqtt/#", "RandomStream2", false, false)));
+
+        MessageBridge messageBridge = new MessageBridge(mapping);
+        messageBridge.addOrReplaceMqttClient(mockMqttClient);
+        messageBridge.addOrReplaceSMSupervisor(mockSmClient);
+        doAnswer(invocation -> {
+            if ("RandomStream2".equals(invocation.<StreamMessage>getArgument(0).getStream())) {
+                throw new SMClientException("Not connected to Stream Manager");
+            }
+            return null;
+        }).when(mockSmClient).publishWithoutBuffering(any());
+
+        ArgumentCaptor<Consumer> messageHandlerCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(mockMqttClient, times(1)).updateSubscriptions(any(), any(), messageHandlerCaptor.capture());
+
+        MessageAck ack = mock(MessageAck.class);
+        messageHandlerCaptor.getValue().accept(new MQTTMessage("mqtt/topic", "message".getBytes(), ack));
+        verify(ack).release();
+        verify(ack, never()).acknowledge();
+    }
+
+    @Test
+    void GIVEN_message_to_acknowledge_WHEN_stream_full_or_message_rejected_THEN_released() throws Exception {
+        TopicMapping mapping = new TopicMapping();
+        mapping.updateMapping(Utils.immutableMap(
+                "m1", new TopicMapping.MappingEntry("mqtt/full", "FullStream", false, false),
+                "m2", new TopicMapping.MappingEntry("mqtt/rejected", "RandomStream", false, false)));
+
+        MessageBridge messageBridge = new MessageBridge(mapping);
+        messageBridge.addOrReplaceMqttClient(mockMqttClient);
+        messageBridge.addOrReplaceSMSupervisor(mockSmClient);
+        doAnswer(invocation -> {
+            if ("FullStream".equals(invocation.<StreamMessage>getArgument(0).getStream())) {
+                throw new StreamFullException("Stream FullStream is full, dropping message");
+            }
+            throw new SMClientException("Message rejected", false);
+        }).when(mockSmClient).publishWithoutBuffering(any());
+
+        ArgumentCaptor<Consumer> messageHandlerCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(mockMqttClient, times(1)).updateSubscriptions(any(), any(), messageHandlerCaptor.capture());
+
+        // Neither message is stored, so neither is acknowledged
+        MessageAck fullAck = mock(MessageAck.class);
+        messageHandlerCaptor.getValue().accept(new MQTTMessage("mqtt/full", "message".getBytes(), fullAck));
+        verify(fullAck).release();
+        verify(fullAck, never()).acknowledge();
+        MessageAck rejectedAck = mock(MessageAck.class);
+        messageHandlerCaptor.getValue().accept(new MQTTMessage("mqtt/rejected", "message".getBytes(), rejectedAck));
+        verify(rejectedAck).release();
+        verify(rejectedAck, never()).acknowledge();
+    }
+
+    @Test
+    void GIVEN_mappings_of_same_topic_with_different_qos_WHEN_subscribed_THEN_highest_qos_used() throws Exception {
+        TopicMapping mapping = new TopicMapping();
+        mapping.updateMapping(Utils.immutableMap(
+                "m1", new TopicMapping.MappingEntry("mqtt/topic", "RandomStream", false, false, HeaderFormat.JSON,
+                        null, null, 0),
+                "m2", new TopicMapping.MappingEntry("mqtt/topic", "RandomStream2", false, false, HeaderFormat.JSON,
+                        null, null, 2),
+                "m3", new TopicMapping.MappingEntry("mqtt/telemetry", "RandomStream3", false, false,
+                        HeaderFormat.JSON, null, null, 0)));
+
+        MessageBridge messageBridge = new MessageBridge(mapping);
+        messageBridge.addOrReplaceMqttClient(mockMqttClient);
+
+        ArgumentCaptor<Map<String, Integer>> qosCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(mockMqttClient, times(1)).updateSubscriptions(any(), qosCaptor.capture(), any());
+        MatcherAssert.assertThat(qosCaptor.getValue().get("mqtt/topic"), Matchers.is(2));
+        MatcherAssert.assertThat(qosCaptor.getValue().get("mqtt/telemetry"), Matchers.is(0));
+    }
+
+    @Test
+    void GIVEN_filter_covering_another_WHEN_subscribed_THEN_only_covering_filter_subscribed_with_highest_qos()
+            throws Exception {
+        TopicMapping mapping = new TopicMapping();
+        mapping.updateMapping(Utils.immutableMap(
+                "m1", new TopicMapping.MappingEntry("factory/#", "RandomStream", false, false, HeaderFormat.JSON,
+                        null, null, 0),
+                "m2", new TopicMapping.MappingEntry("factory/line1/+", "RandomStream2", false, false,
+                        HeaderFormat.JSON, null, null, 2)));
+
+        MessageBridge messageBridge = new MessageBridge(mapping);
+        messageBridge.addOrReplaceMqttClient(mockMqttClient);
+        messageBridge.addOrReplaceSMSupervisor(mockSmClient);
+
+        ArgumentCaptor<Set<String>> topicsCaptor = ArgumentCaptor.forClass(Set.class);
+        ArgumentCaptor<Map<String, Integer>> qosCaptor = ArgumentCaptor.forClass(Map.class);
+        ArgumentCaptor<Consumer> messageHandlerCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(mockMqttClient, times(1)).updateSubscriptions(topicsCaptor.capture(), qosCaptor.capture(),
+                messageHandlerCaptor.capture());
+        MatcherAssert.assertThat(topicsCaptor.getValue(),
+                Matchers.containsInAnyOrder("factory/#", SMBridge.RESERVED_TOPIC));
+        MatcherAssert.assertThat(qosCaptor.getValue().get("factory/#"), Matchers.is(2));
+
+        messageHandlerCaptor.getValue().accept(new MQTTMessage("factory/line1/press", "message".getBytes()));
+
+        ArgumentCaptor<StreamMessage> messageCaptor = ArgumentCaptor.forClass(StreamMessage.class);
+        verify(mockSmClient, times(2)).publish(messageCaptor.capture());
+        MatcherAssert.assertThat(messageCaptor.getAllValues().stream().map(StreamMessage::getStream)
+                .collect(Collectors.toList()), Matchers.containsInAnyOrder("RandomStream", "RandomStream2"));
+    }
+
+    @Test
+    void GIVEN_overlapping_filters_WHEN_receive_mqtt_message_THEN_subscribed_once_and_routed_once_per_mapping()
+            throws Exception {
+        TopicMapping mapping = new TopicMapping();
+        mapping.updateMapping(Utils.immutableMap(
+                "m1", new TopicMapping.MappingEntry("sensors/+/humidity", "RandomStream", false, false),
+                "m2", new TopicMapping.MappingEntry("sensors/thermostat1/+", "RandomStream2", false, false)));
+
+        MessageBridge messageBridge = new MessageBridge(mapping);
+        messageBridge.addOrReplaceMqttClient(mockMqttClient);
+        messageBridge.addOrReplaceSMSupervisor(mockSmClient);
+
+        // The broker would send a copy per matching subscription, so a single filter covering both is subscribed to
+        ArgumentCaptor<Set<String>> topicsCaptor = ArgumentCaptor.forClass(Set.class);
+        ArgumentCaptor<Consumer> messageHandlerCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(mockMqttClient, times(1)).updateSubscriptions(topicsCaptor.capture(), any(),
+                messageHandlerCaptor.capture());
+        MatcherAssert.assertThat(topicsCaptor.getValue(), Matchers.containsInAnyOrder("sensors/+/+",
+                SMBridge.RESERVED_TOPIC));
+
+        // A repeated reading is a new message, which must never be taken for a copy
+        messageHandlerCaptor.getValue()
+                .accept(new MQTTMessage("sensors/thermostat1/humidity", "humidity = 40%".getBytes()));
+        messageHandlerCaptor.getValue()
+                .accept(new MQTTMessage("sensors/thermostat1/humidity", "humidity = 40%".getBytes()));
+        // Received through the covering filter only, and mapped to no stream
+        messageHandlerCaptor.getValue()
+                .accept(new MQTTMessage("sensors/thermostat2/temperature", "temperature = 20".getBytes()));
+
+        ArgumentCaptor<StreamMessage> messageCaptor = ArgumentCaptor.forClass(StreamMessage.class);
+        verify(mockSmClient, times(4)).publish(messageCaptor.capture());
+        MatcherAssert.assertThat(messageCaptor.getAllValues().stream().map(StreamMessage::getStream)
+                .collect(Collectors.toList()), Matchers.containsInAnyOrder("RandomStream", "RandomStream",
+                "RandomStream2", "RandomStream2"));
+    }
+
+    @Test
+    void GIVEN_spilled_messages_of_one_stream_WHEN_receive_mqtt_message_THEN_only_that_stream_spilled()
+            throws Exception {
+        TopicMapping mapping = new TopicMapping();
+        mapping.updateMapping(Utils.immutableMap(
+                "m1", new TopicMapping.MappingEntry("mqtt/topic", "RandomStream", false, false),
+                "m2", new TopicMapping.MappingEntry("mqtt/topic", "RandomStream2", false, false)));
+
+        MessageBridge messageBridge = new MessageBridge(mapping);
+        SpillLog spillLog = mock(SpillLog.class);
+        when(spillLog.hasPending("RandomStream")).thenReturn(true);
+        when(spillLog.hasPending("RandomStream2")).thenReturn(false);
+        when(spillLog.append(any())).thenReturn(true);
+        messageBridge.addOrReplaceMqttClient(mockMqttClient);
+        messageBridge.addOrReplaceSMSupervisor(mockSmClient);
+        messageBridge.addOrReplaceSpillLog(spillLog);
+
+        ArgumentCaptor<Consumer> messageHandlerCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(mockMqttClient, times(1)).updateSubscriptions(any(), any(), messageHandlerCaptor.capture());
+        messageHandlerCaptor.getValue().accept(new MQTTMessage("mqtt/topic", "message".getBytes()));
+
+        ArgumentCaptor<StreamMessage> spilledCaptor = ArgumentCaptor.forClass(StreamMessage.class);
+        verify(spillLog).append(spilledCaptor.capture());
+        MatcherAssert.assertThat(spilledCaptor.getValue().getStream(), Matchers.is("RandomStream"));
+        ArgumentCaptor<StreamMessage> publishedCaptor = ArgumentCaptor.forClass(StreamMessage.class);
+        verify(mockSmClient).publish(publishedCaptor.capture());
+        MatcherAssert.assertThat(publishedCaptor.getValue().getStream(), Matchers.is("RandomStream2"));
+    }
 }
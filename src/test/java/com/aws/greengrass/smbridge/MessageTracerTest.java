@@ -0,0 +1,166 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.aws.greengrass.logging.api.LogEventBuilder;
+import com.aws.greengrass.logging.api.Logger;
+import com.aws.greengrass.smbridge.clients.MQTTClient;
+import com.aws.greengrass.smbridge.clients.SMConnectionSupervisor;
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith({MockitoExtension.class, GGExtension.class})
+public class MessageTracerTest {
+    private static final StreamMessage MESSAGE = new StreamMessage("RandomStream", new byte[]{1, 2, 3});
+    private static final StreamMessage MESSAGE2 = new StreamMessage("RandomStream2", new byte[]{1, 2, 3});
+
+    @Mock
+    private Logger mockLogger;
+    @Mock
+    private LogEventBuilder mockLogEventBuilder;
+    @Mock
+    private MQTTClient mockMqttClient;
+    @Mock
+    private SMConnectionSupervisor mockSmClient;
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    void GIVEN_sampling_and_summary_disabled_WHEN_messages_traced_THEN_no_log_calls() {
+        MessageTracer tracer = new MessageTracer(0, 0, 0, mockLogger, clock::get);
+        for (int i = 0; i < 1000; i++) {
+            tracer.received();
+            tracer.published("mqtt/topic", MESSAGE);
+            tracer.failed();
+            clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        }
+        verifyNoInteractions(mockLogger);
+    }
+
+    @Test
+    void GIVEN_sampling_disabled_WHEN_message_bridge_forwards_messages_THEN_no_log_calls() throws Exception {
+        TopicMapping mapping = new TopicMapping();
+        mapping.updateMapping(Collections.singletonMap("m1",
+                new TopicMapping.MappingEntry("mqtt/topic", "RandomStream", true, true)));
+        MessageBridge messageBridge = new MessageBridge(mapping);
+        messageBridge.addOrReplaceMessageTracer(new MessageTracer(0, 0, 0, mockLogger, clock::get));
+        messageBridge.addOrReplaceSMSupervisor(mockSmClient);
+        messageBridge.addOrReplaceMqttClient(mockMqttClient);
+        ArgumentCaptor<Consumer> handler = ArgumentCaptor.forClass(Consumer.class);
+        verify(mockMqttClient).updateSubscriptions(any(), any(), handler.capture());
+
+        for (int i = 0; i < 100; i++) {
+            handler.getValue().accept(new MQTTMessage("mqtt/topic", new byte[]{(byte) i}));
+        }
+        verifyNoInteractions(mockLogger);
+    }
+
+    @Test
+    void GIVEN_one_in_n_sampling_WHEN_messages_published_THEN_every_nth_traced() {
+        stubLogger();
+        MessageTracer tracer = new MessageTracer(10, 0, 0, mockLogger, clock::get);
+        for (int i = 0; i < 100; i++) {
+            tracer.published("mqtt/topic", i % 2 == 0 ? MESSAGE : MESSAGE2);
+        }
+        verify(mockLogger, times(10)).atInfo();
+    }
+
+    @Test
+    void GIVEN_per_second_sampling_WHEN_messages_published_THEN_rate_limited_per_stream() {
+        stubLogger();
+        MessageTracer tracer = new MessageTracer(0, 2, 0, mockLogger, clock::get);
+        for (int i = 0; i < 100; i++) {
+            tracer.published("mqtt/topic", MESSAGE);
+            tracer.published("mqtt/topic", MESSAGE2);
+        }
+        // A full bucket of 2 for each stream
+        verify(mockLogger, times(4)).atInfo();
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        for (int i = 0; i < 100; i++) {
+            tracer.published("mqtt/topic", MESSAGE);
+        }
+        verify(mockLogger, times(6)).atInfo();
+    }
+
+    @Test
+    void GIVEN_summary_enabled_WHEN_summarized_THEN_counts_since_previous_summary_logged() {
+        stubLogger();
+        MessageTracer tracer = new MessageTracer(0, 0, 60, mockLogger, clock::get);
+        for (int i = 0; i < 100; i++) {
+            tracer.received();
+            tracer.published("mqtt/topic", MESSAGE);
+        }
+        tracer.received();
+        verifyNoInteractions(mockLogger);
+
+        tracer.summarize();
+        verify(mockLogger, times(1)).atInfo();
+        verify(mockLogEventBuilder).kv("received", 101L);
+        verify(mockLogEventBuilder).kv("published", 100L);
+
+        tracer.summarize();
+        verify(mockLogEventBuilder).kv("received", 0L);
+    }
+
+    @Test
+    void GIVEN_summary_enabled_WHEN_started_and_no_message_received_THEN_summary_logged_on_schedule() {
+        stubLogger();
+        MessageTracer tracer = new MessageTracer(0, 0, 1, mockLogger, clock::get);
+        tracer.start();
+        try {
+            verify(mockLogger, timeout(5000)).atInfo();
+            verify(mockLogEventBuilder, timeout(5000)).log("Message summary");
+        } finally {
+            tracer.stop();
+        }
+    }
+
+    @Test
+    void GIVEN_route_cache_tracked_WHEN_summarized_THEN_summary_logs_hits_and_misses_since_previous() {
+        stubLogger();
+        RouteCache routeCache = new RouteCache(10);
+        // Counted before tracking, so left out of the first summary
+        routeCache.get("mqtt/topic", 1);
+        MessageTracer tracer = new MessageTracer(0, 0, 60, mockLogger, clock::get);
+        tracer.trackRouteCache(routeCache);
+
+        routeCache.get("mqtt/topic", 1);
+        routeCache.put(1, new ResolvedRoute("mqtt/topic", Collections.emptyList()));
+        routeCache.get("mqtt/topic", 1);
+        routeCache.get("mqtt/topic", 1);
+        tracer.summarize();
+        verify(mockLogEventBuilder).kv("routeCacheHits", 2L);
+        verify(mockLogEventBuilder).kv("routeCacheMisses", 1L);
+
+        routeCache.get("mqtt/topic", 1);
+        tracer.summarize();
+        verify(mockLogEventBuilder).kv("routeCacheHits", 1L);
+        verify(mockLogEventBuilder).kv("routeCacheMisses", 0L);
+    }
+
+    private void stubLogger() {
+        when(mockLogger.atInfo()).thenReturn(mockLogEventBuilder);
+        when(mockLogEventBuilder.kv(anyString(), any())).thenReturn(mockLogEventBuilder);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+@ExtendWith({MockitoExtension.class, GGExtension.class})
+public class MetadataEncoderTest {
+    private static final ZoneId ZONE = ZoneId.of("America/Los_Angeles");
+    private static final String TOPIC = "sensors/thermostat1/humidity";
+    private static final byte[] PAYLOAD = "{\"humidity\": 42}".getBytes(StandardCharsets.UTF_8);
+    private static final Instant TIMESTAMP = Instant.parse("2021-08-30T10:15:30.123456789Z");
+
+    @Test
+    void GIVEN_any_header_flags_WHEN_encode_THEN_same_bytes_as_metadata_to_string() {
+        MetadataEncoder encoder = new MetadataEncoder(ZONE);
+        Instant[] timestamps = {Instant.parse("2021-08-30T10:15:30.123456789Z"),
+                Instant.parse("2021-08-30T10:15:30.000007Z"), Instant.parse("2021-08-30T10:15:31Z"),
+                Instant.parse("2024-02-29T23:59:59.999999Z")};
+        for (Instant timestamp : timestamps) {
+            for (boolean appendTime : new boolean[]{false, true}) {
+                for (boolean appendTopic : new boolean[]{false, true}) {
+                    byte[] encoded = encoder.encode(HeaderFormat.JSON, appendTime, appendTopic, timestamp,
+                            TOPIC.getBytes(StandardCharsets.UTF_8), PAYLOAD);
+                    assertThat(encoded, is(equalTo(legacyEncode(appendTime, appendTopic, timestamp))));
+                }
+            }
+        }
+    }
+
+    @Test
+    void GIVEN_no_header_flags_WHEN_encode_THEN_payload_returned_as_is() {
+        MetadataEncoder encoder = new MetadataEncoder(ZONE);
+        for (HeaderFormat format : HeaderFormat.values()) {
+            assertThat(encoder.encode(format, false, false, null, TOPIC.getBytes(StandardCharsets.UTF_8), PAYLOAD),
+                    is(sameInstance(PAYLOAD)));
+        }
+    }
+
+    @Test
+    void GIVEN_non_ascii_topic_WHEN_encode_THEN_topic_written_as_utf8() {
+        MetadataEncoder encoder = new MetadataEncoder(ZONE);
+        String topic = "capteurs/température";
+        byte[] encoded = encoder.encode(HeaderFormat.JSON, false, true, null,
+                topic.getBytes(StandardCharsets.UTF_8), new byte[0]);
+
+        String header = "{\"topic\":\"" + topic + "\"}";
+        byte[] headerBytes = header.getBytes(StandardCharsets.UTF_8);
+        assertThat(encoded.length, is(2 + headerBytes.length));
+        assertThat(encoded[1], is((byte) headerBytes.length));
+        assertThat(new String(encoded, 2, headerBytes.length, StandardCharsets.UTF_8), is(header));
+    }
+
+    @Test
+    void GIVEN_cbor_format_WHEN_encode_THEN_header_is_cbor_map_followed_by_payload() throws IOException {
+        MetadataEncoder encoder = new MetadataEncoder(ZONE);
+        ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+        for (Instant timestamp : new Instant[]{TIMESTAMP, Instant.parse("1969-12-31T23:59:59.5Z")}) {
+            byte[] encoded = encoder.encode(HeaderFormat.CBOR, true, true, timestamp,
+                    TOPIC.getBytes(StandardCharsets.UTF_8), PAYLOAD);
+
+            JsonNode header = cborMapper.readTree(Arrays.copyOf(encoded, encoded.length - PAYLOAD.length));
+            assertThat(header.size(), is(2));
+            assertThat(header.get("timestamp").asLong(), is(epochMicros(timestamp)));
+            assertThat(header.get("topic").asText(), is(TOPIC));
+            assertThat(Arrays.copyOfRange(encoded, encoded.length - PAYLOAD.length, encoded.length),
+                    is(equalTo(PAYLOAD)));
+        }
+
+        byte[] topicOnly = encoder.encode(HeaderFormat.CBOR, false, true, null,
+                TOPIC.getBytes(StandardCharsets.UTF_8), PAYLOAD);
+        JsonNode header = cborMapper.readTree(Arrays.copyOf(topicOnly, topicOnly.length - PAYLOAD.length));
+        assertThat(header.size(), is(1));
+        assertThat(header.get("topic").asText(), is(TOPIC));
+    }
+
+    @Test
+    void GIVEN_binary_format_WHEN_encode_THEN_flags_varints_and_payload_decoded() {
+        MetadataEncoder encoder = new MetadataEncoder(ZONE);
+        byte[] topicBytes = TOPIC.getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = encoder.encode(HeaderFormat.BINARY, true, true, TIMESTAMP, topicBytes, PAYLOAD);
+
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        assertThat((int) buffer.get(),
+                is(MetadataEncoder.BINARY_FLAG_TIMESTAMP | MetadataEncoder.BINARY_FLAG_TOPIC));
+        assertThat(readVarint(buffer), is(epochMicros(TIMESTAMP)));
+        byte[] topic = new byte[(int) readVarint(buffer)];
+        buffer.get(topic);
+        assertThat(topic, is(equalTo(topicBytes)));
+        byte[] payload = new byte[buffer.remaining()];
+        buffer.get(payload);
+        assertThat(payload, is(equalTo(PAYLOAD)));
+
+        // 1 flags byte, 8 bytes of micros for present day timestamps, 1 byte of topic length
+        assertThat(encoded.length, is(1 + 8 + 1 + topicBytes.length + PAYLOAD.length));
+    }
+
+    @Test
+    void GIVEN_long_topic_WHEN_encode_binary_THEN_topic_not_truncated() {
+        MetadataEncoder encoder = new MetadataEncoder(ZONE);
+        byte[] topicBytes = new byte[70_000];
+        Arrays.fill(topicBytes, (byte) 'a');
+        byte[] encoded = encoder.encode(HeaderFormat.BINARY, false, true, null, topicBytes, PAYLOAD);
+
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        assertThat((int) buffer.get(), is(MetadataEncoder.BINARY_FLAG_TOPIC));
+        assertThat(readVarint(buffer), is(70_000L));
+        assertThat(buffer.remaining(), is(70_000 + PAYLOAD.length));
+    }
+
+    private static long epochMicros(Instant timestamp) {
+        return TimeUnit.SECONDS.toMicros(timestamp.getEpochSecond())
+                + TimeUnit.NANOSECONDS.toMicros(timestamp.getNano());
+    }
+
+    private static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    // The encoding MessageBridge used before the encoder existed
+    private static byte[] legacyEncode(boolean appendTime, boolean appendTopic, Instant timestamp) {
+        Metadata metadata = new Metadata();
+        if (appendTime) {
+            metadata.setTimestamp(LocalDateTime.ofInstant(timestamp, ZONE));
+        }
+        if (appendTopic) {
+            metadata.setTopic(TOPIC);
+        }
+        if (metadata.isEmpty()) {
+            return PAYLOAD;
+        }
+        byte[] jsonBytes = metadata.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[2 + jsonBytes.length + PAYLOAD.length];
+        payload[0] = (byte) (jsonBytes.length >> 8);
+        payload[1] = (byte) jsonBytes.length;
+        System.arraycopy(jsonBytes, 0, payload, 2, jsonBytes.length);
+        System.arraycopy(PAYLOAD, 0, payload, 2 + jsonBytes.length, PAYLOAD.length);
+        return payload;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+@ExtendWith(GGExtension.class)
+public class PayloadCompressorTest {
+    private final PayloadCompressor compressor = new PayloadCompressor();
+
+    private static byte[] telemetry(int readings) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < readings; i++) {
+            json.append("{\"sensor\":\"temperature\",\"unit\":\"celsius\",\"value\":").append(20 + i % 5).append("},");
+        }
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[512];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    // Drops the flag byte, which tells whether the rest of the record is compressed
+    private static InputStream compressedContent(byte[] record) {
+        Assertions.assertEquals(PayloadCompressor.COMPRESSED_RECORD, record[0]);
+        return new ByteArrayInputStream(record, 1, record.length - 1);
+    }
+
+    @Test
+    void GIVEN_gzip_config_WHEN_compress_THEN_readable_by_gzip_input_stream() throws Exception {
+        byte[] payload = telemetry(1000);
+        TopicMapping.CompressionConfig config = new TopicMapping.CompressionConfig(CompressionType.GZIP, 6, 16);
+
+        // Twice, to reuse the deflater and buffer of this thread
+        for (int i = 0; i < 2; i++) {
+            byte[] compressed = compressor.compress(payload, config);
+            Assertions.assertTrue(compressed.length * 5 < payload.length);
+            Assertions.assertArrayEquals(payload, readAll(new GZIPInputStream(compressedContent(compressed))));
+        }
+    }
+
+    @Test
+    void GIVEN_deflate_config_WHEN_compress_THEN_readable_by_inflater() throws Exception {
+        byte[] payload = telemetry(1000);
+        TopicMapping.CompressionConfig config = new TopicMapping.CompressionConfig(CompressionType.DEFLATE, 1, 16);
+
+        byte[] compressed = compressor.compress(payload, config);
+        Assertions.assertEquals(0x78, compressed[1]);
+        Assertions.assertArrayEquals(payload, readAll(new InflaterInputStream(compressedContent(compressed))));
+    }
+
+    @Test
+    void GIVEN_payload_below_min_bytes_WHEN_compress_THEN_flagged_raw() {
+        byte[] payload = "{\"value\":1}".getBytes(StandardCharsets.UTF_8);
+
+        byte[] record = compressor.compress(payload, new TopicMapping.CompressionConfig(CompressionType.GZIP, 6,
+                payload.length + 1));
+        Assertions.assertEquals(PayloadCompressor.RAW_RECORD, record[0]);
+        Assertions.assertArrayEquals(payload, Arrays.copyOfRange(record, 1, record.length));
+        Assertions.assertSame(payload, compressor.compress(payload,
+                new TopicMapping.CompressionConfig(CompressionType.NONE, 6, 0)));
+        Assertions.assertSame(payload, compressor.compress(payload, null));
+    }
+
+    @Test
+    void GIVEN_released_compressor_WHEN_compress_THEN_compressed_with_new_deflater() throws Exception {
+        byte[] payload = telemetry(10_000);
+        TopicMapping.CompressionConfig config = new TopicMapping.CompressionConfig(CompressionType.DEFLATE, 6,
+                TopicMapping.CompressionConfig.DEFAULT_MIN_BYTES);
+
+        compressor.compress(payload, config);
+        compressor.release();
+        byte[] compressed = compressor.compress(payload, config);
+        Assertions.assertArrayEquals(payload, readAll(new InflaterInputStream(compressedContent(compressed))));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+@ExtendWith({MockitoExtension.class, GGExtension.class})
+public class RouteCacheTest {
+    private static final List<TopicMapping.MappingEntry> DESTINATIONS = Collections.singletonList(
+            new TopicMapping.MappingEntry("mqtt/topic", "RandomStream", false, false));
+    private static final ResolvedRoute ROUTE = new ResolvedRoute("mqtt/topic", DESTINATIONS);
+
+    @Test
+    void GIVEN_cached_topic_WHEN_get_with_same_generation_THEN_hit() {
+        RouteCache cache = new RouteCache(10);
+        assertThat(cache.get("mqtt/topic", 1), is(nullValue()));
+        cache.put(1, ROUTE);
+
+        assertThat(cache.get("mqtt/topic", 1), is(sameInstance(ROUTE)));
+        assertThat(cache.getHits(), is(1L));
+        assertThat(cache.getMisses(), is(1L));
+    }
+
+    @Test
+    void GIVEN_cached_topic_WHEN_get_with_newer_generation_THEN_miss() {
+        RouteCache cache = new RouteCache(10);
+        cache.put(1, ROUTE);
+
+        assertThat(cache.get("mqtt/topic", 2), is(nullValue()));
+        assertThat(cache.getHits(), is(0L));
+        assertThat(cache.getMisses(), is(1L));
+    }
+
+    @Test
+    void GIVEN_full_cache_WHEN_put_THEN_size_stays_bounded() {
+        RouteCache cache = new RouteCache(32);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(1, new ResolvedRoute("mqtt/topic/" + i, DESTINATIONS));
+        }
+        assertThat(cache.size(), is(32));
+    }
+
+    @Test
+    void GIVEN_disabled_cache_WHEN_put_THEN_nothing_cached() {
+        RouteCache cache = new RouteCache(0);
+        cache.put(1, ROUTE);
+
+        assertThat(cache.get("mqtt/topic", 1), is(nullValue()));
+        assertThat(cache.size(), is(0));
+    }
+}
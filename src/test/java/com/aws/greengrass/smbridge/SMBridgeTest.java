@@ -9,9 +9,13 @@ import com.aws.greengrass.certificatemanager.CertificateManager;
 import com.aws.greengrass.componentmanager.KernelConfigResolver;
 import com.aws.greengrass.config.Topics;
 import com.aws.greengrass.dependency.State;
+import com.aws.greengrass.device.ClientDevicesAuthService;
 import com.aws.greengrass.lifecyclemanager.GlobalStateChangeListener;
 import com.aws.greengrass.lifecyclemanager.GreengrassService;
 import com.aws.greengrass.lifecyclemanager.Kernel;
+import com.aws.greengrass.smbridge.auth.MQTTClientKeyStore;
+import com.aws.greengrass.smbridge.clients.MQTTClient;
+import com.aws.greengrass.smbridge.clients.SMConnectionSupervisor;
 import com.aws.greengrass.testcommons.testutilities.GGExtension;
 import com.aws.greengrass.testcommons.testutilities.GGServiceTestUtil;
 import com.aws.greengrass.util.Utils;
@@ -32,11 +36,18 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Properties;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 @ExtendWith({MockitoExtension.class, GGExtension.class})
 public class SMBridgeTest extends GGServiceTestUtil {
@@ -109,6 +120,50 @@ public class SMBridgeTest extends GGServiceTestUtil {
         });
         assertThat(topicMapping.getMapping().size(), is(equalTo(3)));
     }
+
+    @Test
+    void GIVEN_message_queued_in_mqtt_session_WHEN_delivered_on_connect_THEN_handed_to_stream_manager()
+            throws Exception {
+        Topics config = Topics.of(kernel.getContext(), SMBridge.SERVICE_NAME, null);
+        TopicMapping topicMapping = new TopicMapping();
+        topicMapping.updateMapping(Utils.immutableMap(
+                "m1", new TopicMapping.MappingEntry("mqtt/topic", "RandomStream", false, false)));
+        Kernel mockKernel = mock(Kernel.class);
+        GreengrassService mockClientDevicesAuth = mock(GreengrassService.class);
+        when(mockClientDevicesAuth.getConfig()).thenReturn(Topics.of(kernel.getContext(), "clientDevicesAuth", null));
+        when(mockKernel.locate(ClientDevicesAuthService.CLIENT_DEVICES_AUTH_SERVICE_NAME))
+                .thenReturn(mockClientDevicesAuth);
+        GreengrassService mockStreamManager = mock(GreengrassService.class);
+        when(mockStreamManager.getConfig()).thenReturn(Topics.of(kernel.getContext(), "streamManager", null));
+        when(mockKernel.locate(SMBridge.STREAM_MANAGER_SERVICE_NAME)).thenReturn(mockStreamManager);
+
+        // The broker delivers the messages queued in the persistent session as soon as the client connects
+        MQTTClient mockMqttClient = mock(MQTTClient.class);
+        AtomicReference<Consumer<MQTTMessage>> messageHandler = new AtomicReference<>();
+        doAnswer(invocation -> {
+            messageHandler.set(invocation.getArgument(2));
+            return null;
+        }).when(mockMqttClient).updateSubscriptions(any(), any(), any());
+        doAnswer(invocation -> {
+            messageHandler.get().accept(new MQTTMessage("mqtt/topic", "queued".getBytes()));
+            return null;
+        }).when(mockMqttClient).start();
+
+        SMBridge smBridge = new SMBridge(config, topicMapping, new StreamDefinition(), new MessageBridge(topicMapping),
+                mockKernel, mock(MQTTClientKeyStore.class), mock(ExecutorService.class), mockMqttClient);
+        smBridge.startup();
+        try {
+            // Stream Manager is not running, so the message waits in the outage buffer
+            SMConnectionSupervisor supervisor = smBridge.getSmSupervisor();
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TEST_TIME_OUT_SEC);
+            while (supervisor.getBufferedCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(supervisor.getBufferedCount(), is(1));
+        } finally {
+            smBridge.shutdown();
+        }
+    }
 /*
     @Test
     void GIVEN_Greengrass_with_mqtt_bridge_WHEN_valid_mapping_provided_in_config_THEN_mapping_populated()
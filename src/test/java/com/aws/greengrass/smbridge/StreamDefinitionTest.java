@@ -15,6 +15,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
@@ -57,4 +58,25 @@ public class StreamDefinitionTest {
         Assertions.assertThrows(NullPointerException.class, () -> streamDefinition.updateDefinition(null));
         assertThat(streamDefinition.getStreams().size(), is(equalTo(0)));
     }
-}
\ No newline at end of file
+
+    @Test
+    void GIVEN_updated_mapping_WHEN_find_by_name_THEN_indexed_definitions_returned() {
+        StreamDefinition streamDefinition = new StreamDefinition();
+        MessageStreamDefinition defaultDefinition = new MessageStreamDefinition("ignored", 2L, 3L, 4L,
+                StrategyOnFull.OverwriteOldestData, Persistence.File, false, null);
+        MessageStreamDefinition m1 = new MessageStreamDefinition(" stream1 ", 2L, 3L, 4L,
+                StrategyOnFull.RejectNewData, Persistence.Memory, false, null);
+        streamDefinition.updateDefinition(Utils.immutableMap("Default", defaultDefinition, "m1", m1));
+
+        assertEquals(m1, streamDefinition.findByName("stream1"));
+        assertEquals(m1, streamDefinition.findByName(" stream1"));
+        Assertions.assertNull(streamDefinition.findByName("stream2"));
+        assertEquals(defaultDefinition, streamDefinition.getDefaultDefinition());
+        // The default template is not a stream of its own
+        assertEquals(Collections.singletonMap("stream1", m1), streamDefinition.getConfiguredStreams());
+
+        streamDefinition.updateDefinition(Utils.immutableMap("m1", m1));
+        Assertions.assertNull(streamDefinition.getDefaultDefinition());
+        assertEquals(m1, streamDefinition.findByName("stream1"));
+    }
+}
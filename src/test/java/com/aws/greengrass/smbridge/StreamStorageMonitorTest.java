@@ -0,0 +1,112 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.amazonaws.greengrass.streammanager.model.MessageStreamDefinition;
+import com.amazonaws.greengrass.streammanager.model.MessageStreamInfo;
+import com.amazonaws.greengrass.streammanager.model.StrategyOnFull;
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith({MockitoExtension.class, GGExtension.class})
+public class StreamStorageMonitorTest {
+    private static final long MAX_SIZE = 1_000_000;
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    private static MessageStreamInfo info(StrategyOnFull strategyOnFull, long storedBytes) {
+        MessageStreamInfo info = mock(MessageStreamInfo.class, RETURNS_DEEP_STUBS);
+        MessageStreamDefinition definition = new MessageStreamDefinition();
+        definition.setMaxSize(MAX_SIZE);
+        definition.setStrategyOnFull(strategyOnFull);
+        when(info.getDefinition()).thenReturn(definition);
+        when(info.getStorageStatus().getTotalBytes()).thenReturn(storedBytes);
+        return info;
+    }
+
+    // Publishes 10 000 bytes per second to the stream
+    private void publishForOneSecond(StreamStorageMonitor monitor, String stream) {
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertEquals(0, monitor.reserve(stream, 1000));
+        }
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    void GIVEN_stream_below_threshold_WHEN_polled_THEN_not_throttled() {
+        StreamStorageMonitor monitor = new StreamStorageMonitor(
+                stream -> info(StrategyOnFull.RejectNewData, MAX_SIZE / 2), 1000, 0.8, nanoTime::get);
+        publishForOneSecond(monitor, "testStream");
+        monitor.poll();
+
+        Assertions.assertEquals(0.5, monitor.getUsage("testStream"));
+        Assertions.assertEquals(0, monitor.getThrottledStreamCount());
+        Assertions.assertEquals(0, monitor.reserve("testStream", 100_000));
+    }
+
+    @Test
+    void GIVEN_stream_above_threshold_WHEN_polled_THEN_throttled_by_headroom() {
+        StreamStorageMonitor monitor = new StreamStorageMonitor(
+                stream -> info(StrategyOnFull.RejectNewData, MAX_SIZE * 9 / 10), 1000, 0.8, nanoTime::get);
+        publishForOneSecond(monitor, "testStream");
+        monitor.poll();
+
+        // Half of the headroom above the threshold is left, so half of the observed rate
+        Assertions.assertEquals(1, monitor.getThrottledStreamCount());
+        Assertions.assertEquals(5000, monitor.getRate("testStream"), 1);
+        Assertions.assertEquals(0, monitor.reserve("testStream", 5000));
+        Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(200), monitor.reserve("testStream", 1000), 1000);
+        Assertions.assertEquals(1, monitor.getThrottledMessageCount());
+    }
+
+    @Test
+    void GIVEN_throttled_stream_WHEN_usage_drops_THEN_no_longer_throttled() {
+        AtomicLong storedBytes = new AtomicLong(MAX_SIZE * 9 / 10);
+        StreamStorageMonitor monitor = new StreamStorageMonitor(
+                stream -> info(StrategyOnFull.RejectNewData, storedBytes.get()), 1000, 0.8, nanoTime::get);
+        publishForOneSecond(monitor, "testStream");
+        monitor.poll();
+        Assertions.assertEquals(1, monitor.getThrottledStreamCount());
+
+        storedBytes.set(MAX_SIZE / 10);
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        monitor.poll();
+        Assertions.assertEquals(0, monitor.getThrottledStreamCount());
+    }
+
+    @Test
+    void GIVEN_overwriting_stream_above_threshold_WHEN_polled_THEN_not_throttled() {
+        StreamStorageMonitor monitor = new StreamStorageMonitor(
+                stream -> info(StrategyOnFull.OverwriteOldestData, MAX_SIZE), 1000, 0.8, nanoTime::get);
+        publishForOneSecond(monitor, "testStream");
+        monitor.poll();
+        Assertions.assertEquals(0, monitor.getThrottledStreamCount());
+    }
+
+    @Test
+    void GIVEN_idle_stream_WHEN_polled_THEN_not_described() throws Exception {
+        StreamStorageMonitor.StreamDescriber describer = mock(StreamStorageMonitor.StreamDescriber.class);
+        StreamStorageMonitor monitor = new StreamStorageMonitor(describer, 1000, 0.8, nanoTime::get);
+        monitor.reserve("testStream", 1000);
+        monitor.poll();
+        monitor.poll();
+        verify(describer).describe("testStream");
+
+        monitor.poll();
+        verify(describer, never()).describe("otherStream");
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@ExtendWith({MockitoExtension.class, GGExtension.class})
+public class TokenBucketTest {
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    @Test
+    void GIVEN_full_bucket_WHEN_acquire_more_than_burst_THEN_refused() {
+        TokenBucket bucket = new TokenBucket(1, 3, nanoTime::get);
+        Assertions.assertTrue(bucket.tryAcquire());
+        Assertions.assertTrue(bucket.tryAcquire());
+        Assertions.assertTrue(bucket.tryAcquire());
+        Assertions.assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void GIVEN_empty_bucket_WHEN_time_passes_THEN_refilled_up_to_burst() {
+        TokenBucket bucket = new TokenBucket(2, 3, nanoTime::get);
+        Assertions.assertTrue(bucket.tryAcquire(3));
+        Assertions.assertFalse(bucket.tryAcquire());
+
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        Assertions.assertTrue(bucket.tryAcquire());
+        Assertions.assertFalse(bucket.tryAcquire());
+
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        Assertions.assertTrue(bucket.tryAcquire(3));
+        Assertions.assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void GIVEN_bucket_WHEN_rate_lowered_THEN_tokens_capped_to_new_burst() {
+        TokenBucket bucket = new TokenBucket(10, 10, nanoTime::get);
+        bucket.setRate(1, 1);
+        Assertions.assertEquals(1.0, bucket.getRatePerSecond());
+        Assertions.assertTrue(bucket.tryAcquire());
+        Assertions.assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void GIVEN_empty_bucket_WHEN_reserve_THEN_wait_until_refilled() {
+        TokenBucket bucket = new TokenBucket(100, 100, nanoTime::get);
+        Assertions.assertEquals(0, bucket.reserve(100));
+        Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(500), bucket.reserve(50));
+        Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), bucket.reserve(50));
+
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        Assertions.assertFalse(bucket.tryAcquire());
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        Assertions.assertTrue(bucket.tryAcquire(50));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import org.eclipse.paho.client.mqttv3.MqttTopic;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+
+@ExtendWith({MockitoExtension.class, GGExtension.class})
+public class TopicFilterTrieTest {
+
+    @Test
+    void GIVEN_exact_filters_WHEN_match_THEN_only_equal_topics_match() {
+        TopicFilterTrie<String> trie = new TopicFilterTrie<>();
+        trie.add("sensors/thermostat1/humidity", "m1");
+        trie.add("sensors/thermostat1/humidity", "m2");
+        trie.add("sensors/thermostat1", "m3");
+
+        assertThat(trie.match("sensors/thermostat1/humidity"), contains("m1", "m2"));
+        assertThat(trie.match("sensors/thermostat1"), contains("m3"));
+        assertThat(trie.match("sensors/thermostat1/"), empty());
+        assertThat(trie.match("sensors/thermostat2/humidity"), empty());
+    }
+
+    @Test
+    void GIVEN_wildcard_filters_WHEN_match_THEN_exact_then_single_level_then_multi_level() {
+        TopicFilterTrie<String> trie = new TopicFilterTrie<>();
+        trie.add("sensors/thermostat1/#", "m1");
+        trie.add("sensors/+/humidity", "m2");
+        trie.add("sensors/thermostat1/humidity", "m3");
+        trie.add("#", "m4");
+
+        assertThat(trie.match("sensors/thermostat1/humidity"), contains("m3", "m2", "m4", "m1"));
+        assertThat(trie.match("sensors/thermostat2/humidity"), contains("m2", "m4"));
+        // '#' also matches its parent level
+        assertThat(trie.match("sensors/thermostat1"), containsInAnyOrder("m1", "m4"));
+        assertThat(trie.match("sensors/thermostat2/zone1/humidity"), contains("m4"));
+    }
+
+    @Test
+    void GIVEN_reserved_topic_filter_WHEN_match_THEN_requires_stream_level() {
+        TopicFilterTrie<String> trie = new TopicFilterTrie<>();
+        trie.add(SMBridge.RESERVED_TOPIC, "reserved");
+
+        assertThat(trie.match("$SM-BRIDGE/stream"), contains("reserved"));
+        assertThat(trie.match("$SM-BRIDGE/stream/a/b"), contains("reserved"));
+        assertThat(trie.match("$SM-BRIDGE"), empty());
+    }
+
+    @Test
+    void GIVEN_filters_WHEN_match_THEN_same_result_as_paho_matching() {
+        List<String> filters = Arrays.asList("a/b/c", "a/+/c", "a/#", "+/+/+", "+/b/#", "#", "a/+", "a/b/+/#");
+        List<String> topics = Arrays.asList("a", "a/b", "a/b/c", "a/x/c", "a/b/c/d", "b/b/c", "x", "a/b/c/d/e");
+
+        TopicFilterTrie<String> trie = new TopicFilterTrie<>();
+        filters.forEach(filter -> trie.add(filter, filter));
+
+        for (String topic : topics) {
+            Object[] expected = filters.stream().filter(filter -> MqttTopic.isMatched(filter, topic)).toArray();
+            assertThat(topic, trie.match(topic), containsInAnyOrder(expected));
+        }
+    }
+}
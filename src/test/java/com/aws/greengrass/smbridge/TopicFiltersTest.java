@@ -0,0 +1,125 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge;
+
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import com.aws.greengrass.util.Utils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+@ExtendWith({MockitoExtension.class, GGExtension.class})
+public class TopicFiltersTest {
+
+    @Test
+    void GIVEN_filters_WHEN_covers_THEN_true_only_if_every_topic_matches() {
+        Assertions.assertTrue(TopicFilters.covers("factory/#", "factory/line1/+"));
+        Assertions.assertTrue(TopicFilters.covers("factory/#", "factory"));
+        Assertions.assertTrue(TopicFilters.covers("factory/+/+", "factory/line1/press"));
+        Assertions.assertTrue(TopicFilters.covers("#", "+/#"));
+        Assertions.assertFalse(TopicFilters.covers("factory/line1/+", "factory/#"));
+        Assertions.assertFalse(TopicFilters.covers("factory/+", "factory/line1/+"));
+        Assertions.assertFalse(TopicFilters.covers("factory/+/#", "factory/#"));
+        Assertions.assertFalse(TopicFilters.covers("factory/line1", "factory/line1/"));
+        Assertions.assertFalse(TopicFilters.covers("#", SMBridge.RESERVED_TOPIC));
+        Assertions.assertFalse(TopicFilters.covers("+/+/#", SMBridge.RESERVED_TOPIC));
+    }
+
+    @Test
+    void GIVEN_filters_WHEN_overlaps_THEN_true_only_if_a_topic_matches_both() {
+        Assertions.assertTrue(TopicFilters.overlaps("sensors/+/humidity", "sensors/thermostat1/+"));
+        Assertions.assertTrue(TopicFilters.overlaps("sensors/thermostat1", "sensors/thermostat1/#"));
+        Assertions.assertTrue(TopicFilters.overlaps("sensors/+", "+/thermostat1"));
+        Assertions.assertFalse(TopicFilters.overlaps("sensors/+/humidity", "sensors/thermostat1/temperature"));
+        Assertions.assertFalse(TopicFilters.overlaps("sensors/+", "sensors/+/+"));
+        Assertions.assertFalse(TopicFilters.overlaps("#", SMBridge.RESERVED_TOPIC));
+
+        Assertions.assertTrue(TopicFilters.matches("sensors/+/humidity", "sensors/thermostat1/humidity"));
+        Assertions.assertTrue(TopicFilters.matches(SMBridge.RESERVED_TOPIC, "$SM-BRIDGE/stream/topic"));
+        Assertions.assertFalse(TopicFilters.matches("sensors/+/humidity", "sensors/thermostat1/zone1/humidity"));
+    }
+
+    @Test
+    void GIVEN_covered_filters_WHEN_minimal_cover_THEN_covering_filters_kept_with_highest_qos() {
+        Map<String, Integer> cover = TopicFilters.minimalCover(Utils.immutableMap(
+                "factory/#", 0,
+                "factory/line1/+", 2,
+                "factory/line1/press", 1,
+                "sensors/+/humidity", 0,
+                "sensors/thermostat1/+", 1,
+                SMBridge.RESERVED_TOPIC, 1));
+
+        assertThat(cover.keySet(), containsInAnyOrder("factory/#", "sensors/+/humidity", "sensors/thermostat1/+",
+                SMBridge.RESERVED_TOPIC));
+        assertThat(cover.get("factory/#"), is(2));
+        assertThat(cover.get("sensors/+/humidity"), is(0));
+        assertThat(cover.get("sensors/thermostat1/+"), is(1));
+    }
+
+    @Test
+    void GIVEN_multi_level_wildcard_WHEN_minimal_cover_THEN_reserved_topic_still_subscribed() {
+        Map<String, Integer> cover = TopicFilters.minimalCover(Utils.immutableMap(
+                "#", 1,
+                "factory/+", 2,
+                SMBridge.RESERVED_TOPIC, 1));
+
+        assertThat(cover.keySet(), containsInAnyOrder("#", SMBridge.RESERVED_TOPIC));
+        assertThat(cover.get("#"), is(2));
+    }
+
+    @Test
+    void GIVEN_cover_WHEN_overlapping_THEN_only_filters_sharing_a_topic_returned() {
+        assertThat(TopicFilters.overlapping(new HashSet<>(Arrays.asList("sensors/+/humidity",
+                "sensors/thermostat1/+", "factory/#", SMBridge.RESERVED_TOPIC))),
+                containsInAnyOrder("sensors/+/humidity", "sensors/thermostat1/+"));
+    }
+
+    @Test
+    void GIVEN_filters_WHEN_merge_THEN_narrowest_covering_filter_returned() {
+        assertThat(TopicFilters.merge("sensors/+/humidity", "sensors/thermostat1/+"), is("sensors/+/+"));
+        assertThat(TopicFilters.merge("sensors/+/humidity", "sensors/thermostat1/#"), is("sensors/+/#"));
+        assertThat(TopicFilters.merge("sensors/+", "sensors/thermostat1/#"), is("sensors/+/#"));
+        assertThat(TopicFilters.merge("sensors/+", "+/thermostat1"), is("+/+"));
+    }
+
+    @Test
+    void GIVEN_overlapping_filters_WHEN_disjoint_cover_THEN_merged_with_highest_qos() {
+        Map<String, Integer> cover = TopicFilters.disjointCover(Utils.immutableMap(
+                "factory/#", 0,
+                "factory/line1/press", 1,
+                "sensors/+/humidity", 0,
+                "sensors/thermostat1/+", 1,
+                "sensors/thermostat1/zone1/humidity", 2,
+                SMBridge.RESERVED_TOPIC, 1));
+
+        assertThat(cover.keySet(), containsInAnyOrder("factory/#", "sensors/+/+",
+                "sensors/thermostat1/zone1/humidity", SMBridge.RESERVED_TOPIC));
+        assertThat(cover.get("factory/#"), is(1));
+        assertThat(cover.get("sensors/+/+"), is(1));
+        assertThat(TopicFilters.overlapping(cover.keySet()), is(empty()));
+    }
+
+    @Test
+    void GIVEN_filters_overlapping_after_merge_WHEN_disjoint_cover_THEN_merged_again() {
+        Map<String, Integer> cover = TopicFilters.disjointCover(Utils.immutableMap(
+                "sensors/+/humidity", 0,
+                "sensors/thermostat1/+", 1,
+                "sensors/thermostat2/zone1/#", 2));
+
+        assertThat(cover.keySet(), containsInAnyOrder("sensors/+/+/#"));
+        assertThat(cover.get("sensors/+/+/#"), is(2));
+    }
+}
@@ -7,6 +7,9 @@ package com.aws.greengrass.smbridge;
 
 import com.aws.greengrass.testcommons.testutilities.GGExtension;
 import com.aws.greengrass.util.Utils;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -20,6 +23,7 @@ import java.util.concurrent.TimeUnit;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 @ExtendWith({MockitoExtension.class, GGExtension.class})
@@ -53,4 +57,71 @@ public class TopicMappingTest {
         Assertions.assertThrows(NullPointerException.class, () -> mapping.updateMapping(null));
         assertThat(mapping.getMapping().size(), is(equalTo(0)));
     }
-}
\ No newline at end of file
+
+    @Test
+    void GIVEN_mapping_config_with_header_format_WHEN_converted_THEN_format_parsed_case_insensitively() {
+        JsonMapper mapper = JsonMapper.builder().enable(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES).build();
+        Map<String, Object> config = Utils.immutableMap(
+                "m1", Utils.immutableMap("topic", "mqtt/topic", "stream", "RandomStream", "appendTopic", true,
+                        "headerFormat", "CBOR"),
+                "m2", Utils.immutableMap("topic", "mqtt/topic2", "stream", "RandomStream2", "headerFormat",
+                        "binary"),
+                "m3", Utils.immutableMap("topic", "mqtt/topic3", "stream", "RandomStream3"));
+
+        Map<String, TopicMapping.MappingEntry> mapping =
+                mapper.convertValue(config, new TypeReference<Map<String, TopicMapping.MappingEntry>>() {
+                });
+
+        assertThat(mapping.get("m1"),
+                is(new TopicMapping.MappingEntry("mqtt/topic", "RandomStream", false, true, HeaderFormat.CBOR)));
+        assertThat(mapping.get("m2").getHeaderFormat(), is(HeaderFormat.BINARY));
+        assertThat(mapping.get("m3").getHeaderFormat(), is(HeaderFormat.JSON));
+    }
+
+    @Test
+    void GIVEN_mapping_config_with_batch_WHEN_converted_THEN_batch_parsed_with_defaults() {
+        JsonMapper mapper = JsonMapper.builder().enable(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES).build();
+        Map<String, Object> config = Utils.immutableMap(
+                "m1", Utils.immutableMap("topic", "mqtt/topic", "stream", "RandomStream", "batch",
+                        Utils.immutableMap("maxMessages", 50, "lingerMs", 20)),
+                "m2", Utils.immutableMap("topic", "mqtt/topic2", "stream", "RandomStream2"));
+
+        Map<String, TopicMapping.MappingEntry> mapping =
+                mapper.convertValue(config, new TypeReference<Map<String, TopicMapping.MappingEntry>>() {
+                });
+
+        assertThat(mapping.get("m1").getBatch(), is(new TopicMapping.BatchConfig(50,
+                TopicMapping.BatchConfig.DEFAULT_MAX_BYTES, 20)));
+        assertThat(mapping.get("m2").getBatch(), is(nullValue()));
+    }
+
+    @Test
+    void GIVEN_mapping_config_with_compression_WHEN_converted_THEN_compression_parsed() {
+        JsonMapper mapper = JsonMapper.builder().enable(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES).build();
+        Map<String, Object> config = Utils.immutableMap(
+                "m1", Utils.immutableMap("topic", "mqtt/topic", "stream", "RandomStream", "compression",
+                        Utils.immutableMap("type", "GZip", "level", 9, "minBytes", 64)));
+
+        Map<String, TopicMapping.MappingEntry> mapping =
+                mapper.convertValue(config, new TypeReference<Map<String, TopicMapping.MappingEntry>>() {
+                });
+
+        assertThat(mapping.get("m1").getCompression(), is(new TopicMapping.CompressionConfig(CompressionType.GZIP,
+                9, 64)));
+    }
+
+    @Test
+    void GIVEN_mapping_config_with_qos_WHEN_converted_THEN_qos_parsed_with_default() {
+        JsonMapper mapper = JsonMapper.builder().enable(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES).build();
+        Map<String, Object> config = Utils.immutableMap(
+                "m1", Utils.immutableMap("topic", "mqtt/telemetry", "stream", "RandomStream", "qos", 0),
+                "m2", Utils.immutableMap("topic", "mqtt/alarms", "stream", "RandomStream2"));
+
+        Map<String, TopicMapping.MappingEntry> mapping =
+                mapper.convertValue(config, new TypeReference<Map<String, TopicMapping.MappingEntry>>() {
+                });
+
+        assertThat(mapping.get("m1").getQos(), is(0));
+        assertThat(mapping.get("m2").getQos(), is(TopicMapping.MappingEntry.DEFAULT_QOS));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.clients;
+
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@ExtendWith({MockitoExtension.class, GGExtension.class})
+public class CircuitBreakerTest {
+    private final AtomicLong nanos = new AtomicLong();
+    private final CircuitBreaker breaker = new CircuitBreaker(3, 1000, nanos::get);
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            Assertions.assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+    }
+
+    @Test
+    void GIVEN_closed_circuit_WHEN_failures_reach_threshold_THEN_circuit_opens() {
+        fail(2);
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+        Assertions.assertTrue(breaker.tryAcquire());
+        Assertions.assertTrue(breaker.onFailure());
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        Assertions.assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void GIVEN_failures_WHEN_success_in_between_THEN_circuit_stays_closed() {
+        fail(2);
+        Assertions.assertTrue(breaker.tryAcquire());
+        Assertions.assertFalse(breaker.onSuccess());
+        fail(2);
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    void GIVEN_open_circuit_WHEN_open_time_elapsed_THEN_single_probe_let_through() {
+        fail(3);
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        Assertions.assertTrue(breaker.tryAcquire());
+        assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        Assertions.assertFalse(breaker.tryAcquire());
+
+        Assertions.assertTrue(breaker.onSuccess());
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+        Assertions.assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void GIVEN_half_open_circuit_WHEN_probe_fails_THEN_circuit_opens_again() {
+        fail(3);
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        Assertions.assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        Assertions.assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void GIVEN_half_open_circuit_WHEN_probe_released_THEN_next_probe_let_through() {
+        fail(3);
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        Assertions.assertTrue(breaker.tryAcquire());
+        breaker.release();
+        assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        Assertions.assertTrue(breaker.tryAcquire());
+    }
+}
@@ -6,6 +6,7 @@
 package com.aws.greengrass.smbridge.clients;
 
 import lombok.Getter;
+import lombok.Setter;
 import org.eclipse.paho.client.mqttv3.IMqttClient;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
@@ -19,7 +20,14 @@ import org.eclipse.paho.client.mqttv3.MqttSecurityException;
 import org.eclipse.paho.client.mqttv3.MqttTopic;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.mockito.Mockito.mock;
 
 public class FakeMqttClient implements IMqttClient {
     // To appease PMD
@@ -34,6 +42,37 @@ public class FakeMqttClient implements IMqttClient {
     @Getter
     List<TopicMessagePair> publishedMessages;
 
+    @Getter
+    boolean manualAcks;
+
+    @Getter
+    List<Integer> acknowledgedMessageIds;
+
+    // Reported on connect, and keeps the subscriptions across disconnects like a broker keeping the session
+    @Setter
+    boolean sessionPresent;
+
+    @Getter
+    int subscribeCount = 0;
+
+    // QoS of the last subscription to each topic
+    @Getter
+    Map<String, Integer> subscriptionQos = new HashMap<>();
+
+    // Number of SUBSCRIBE and UNSUBSCRIBE packets sent for several topics at once
+    @Getter
+    int subscribeBatchCount = 0;
+    @Getter
+    int unsubscribeBatchCount = 0;
+
+    // Topics the broker refuses to subscribe to
+    @Getter
+    Set<String> refusedTopics = new HashSet<>();
+
+    // Topics which make the whole SUBSCRIBE packet fail
+    @Getter
+    Set<String> failingTopics = new HashSet<>();
+
     @Getter
     MqttConnectOptions connectOptions;
     @Getter
@@ -57,6 +96,7 @@ public class FakeMqttClient implements IMqttClient {
         this.clientId = clientId;
         this.subscriptionTopics = new ArrayList<>();
         this.publishedMessages = new ArrayList<>();
+        this.acknowledgedMessageIds = new CopyOnWriteArrayList<>();
         this.connectMonitor = new Object();
     }
 
@@ -122,14 +162,19 @@ public class FakeMqttClient implements IMqttClient {
     @Override
     public IMqttToken connectWithResult(MqttConnectOptions mqttConnectOptions)
             throws MqttSecurityException, MqttException {
-        throw new UnsupportedOperationException(UNSUPPORTED_OPERATION);
+        connect(mqttConnectOptions);
+        boolean present = sessionPresent;
+        return mock(IMqttToken.class,
+                invocation -> "getSessionPresent".equals(invocation.getMethod().getName()) ? present : null);
     }
 
     @Override
     public void disconnect() throws MqttException {
         isConnected = false;
         // Reset subscriptions
-        subscriptionTopics.clear();
+        if (!sessionPresent) {
+            subscriptionTopics.clear();
+        }
     }
 
     @Override
@@ -166,6 +211,8 @@ public class FakeMqttClient implements IMqttClient {
 
     @Override
     public void subscribe(String topicFilter, int qos) throws MqttException {
+        subscribeCount++;
+        subscriptionQos.put(topicFilter, qos);
         if (!subscriptionTopics.contains(topicFilter)) {
             subscriptionTopics.add(topicFilter);
         }
@@ -176,7 +223,17 @@ public class FakeMqttClient implements IMqttClient {
         if (topicFilters.length != qos.length) {
             throw new IllegalArgumentException("Topic filter and qos array lengths must match");
         }
+        for (String topicFilter : topicFilters) {
+            if (failingTopics.contains(topicFilter)) {
+                throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION);
+            }
+        }
+        subscribeBatchCount++;
         for (int i=0; i< topicFilters.length; i++) {
+            if (refusedTopics.contains(topicFilters[i])) {
+                qos[i] = 0x80;
+                continue;
+            }
             subscribe(topicFilters[i], qos[i]);
         }
     }
@@ -253,6 +310,7 @@ public class FakeMqttClient implements IMqttClient {
 
     @Override
     public void unsubscribe(String[] topicFilters) throws MqttException {
+        unsubscribeBatchCount++;
         for (String topicFilter : topicFilters) {
             unsubscribe(topicFilter);
         }
@@ -301,7 +359,7 @@ public class FakeMqttClient implements IMqttClient {
 
     @Override
     public void setManualAcks(boolean manualAcks) {
-        throw new UnsupportedOperationException(UNSUPPORTED_OPERATION);
+        this.manualAcks = manualAcks;
     }
 
     @Override
@@ -312,7 +370,7 @@ public class FakeMqttClient implements IMqttClient {
 
     @Override
     public void messageArrivedComplete(int messageId, int qos) throws MqttException {
-        throw new UnsupportedOperationException(UNSUPPORTED_OPERATION);
+        acknowledgedMessageIds.add(messageId);
     }
 
     @Override
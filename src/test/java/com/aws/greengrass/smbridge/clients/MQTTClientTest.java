@@ -10,27 +10,48 @@ import com.aws.greengrass.config.Topics;
 import com.aws.greengrass.smbridge.MQTTMessage;
 import com.aws.greengrass.smbridge.auth.MQTTClientKeyStore;
 import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.net.ssl.SSLSocketFactory;
 
+import static com.aws.greengrass.testcommons.testutilities.ExceptionLogProtector.ignoreExceptionOfType;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
 
@@ -195,4 +216,309 @@ public class MQTTClientTest {
         assertThat(fakeMqttClient.getConnectOptions().getSocketFactory(), is(mockSocketFactory));
         assertThat(fakeMqttClient.getConnectCount(), is(2));
     }
-}
\ No newline at end of file
+
+    private Topics atLeastOnceConfig(int maxInflightMessages) {
+        // Lenient, the other settings are read from the spied configuration
+        Topics config = spy(configTopics);
+        lenient().doReturn("atLeastOnce").when(config).findOrDefault(any(),
+                eq(KernelConfigResolver.CONFIGURATION_CONFIG_KEY), eq(MQTTClient.DELIVERY_MODE_KEY));
+        lenient().doReturn(maxInflightMessages).when(config).findOrDefault(any(),
+                eq(KernelConfigResolver.CONFIGURATION_CONFIG_KEY), eq(MQTTClient.MAX_INFLIGHT_MESSAGES_KEY));
+        return config;
+    }
+
+    private static MqttMessage mqttMessage(int id, byte[] payload) {
+        MqttMessage message = new MqttMessage(payload);
+        message.setId(id);
+        message.setQos(1);
+        return message;
+    }
+
+    @Test
+    void GIVEN_atLeastOnceMqttClient_WHEN_messageSettled_THEN_acknowledgedToBroker(@TempDir Path sessionDirectory)
+            throws Exception {
+        MQTTClient mqttClient = new MQTTClient(atLeastOnceConfig(10), mockMqttClientKeyStore, ses, fakeMqttClient,
+                sessionDirectory);
+        mqttClient.start();
+        fakeMqttClient.waitForConnect(1000);
+        assertThat(fakeMqttClient.isManualAcks(), is(true));
+
+        List<MQTTMessage> receivedMessages = new ArrayList<>();
+        Set<String> topics = new HashSet<>();
+        topics.add("mqtt/topic");
+        mqttClient.updateSubscriptions(topics, receivedMessages::add);
+
+        fakeMqttClient.injectMessage("mqtt/topic", mqttMessage(1, "first".getBytes()));
+        fakeMqttClient.injectMessage("mqtt/topic", mqttMessage(2, "second".getBytes()));
+        assertThat(fakeMqttClient.getAcknowledgedMessageIds(), is(empty()));
+        assertThat(mqttClient.getInflightMessageCount(), is(2));
+
+        receivedMessages.get(1).getAck().acknowledge();
+        receivedMessages.get(1).getAck().acknowledge();
+        receivedMessages.get(0).getAck().release();
+        assertThat(fakeMqttClient.getAcknowledgedMessageIds(), contains(2));
+        assertThat(mqttClient.getInflightMessageCount(), is(0));
+    }
+
+    @Test
+    void GIVEN_atLeastOnceConfig_WHEN_cleanSession_THEN_refused() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new MQTTClient(atLeastOnceConfig(10), mockMqttClientKeyStore, ses, fakeMqttClient));
+    }
+
+    @Test
+    void GIVEN_atLeastOnceMqttClient_WHEN_windowFull_THEN_waitsForSettledMessage(@TempDir Path sessionDirectory)
+            throws Exception {
+        MQTTClient mqttClient = new MQTTClient(atLeastOnceConfig(1), mockMqttClientKeyStore, ses, fakeMqttClient,
+                sessionDirectory);
+        mqttClient.start();
+        fakeMqttClient.waitForConnect(1000);
+
+        List<MQTTMessage> receivedMessages = new CopyOnWriteArrayList<>();
+        Set<String> topics = new HashSet<>();
+        topics.add("mqtt/topic");
+        mqttClient.updateSubscriptions(topics, receivedMessages::add);
+
+        fakeMqttClient.injectMessage("mqtt/topic", mqttMessage(1, "first".getBytes()));
+        Future<?> second = ses.submit(() -> {
+            fakeMqttClient.injectMessage("mqtt/topic", mqttMessage(2, "second".getBytes()));
+            return null;
+        });
+        Assertions.assertThrows(TimeoutException.class, () -> second.get(100, TimeUnit.MILLISECONDS));
+        assertThat(receivedMessages, hasSize(1));
+
+        receivedMessages.get(0).getAck().acknowledge();
+        second.get(5, TimeUnit.SECONDS);
+        assertThat(receivedMessages, hasSize(2));
+        assertThat(fakeMqttClient.getAcknowledgedMessageIds(), contains(1));
+    }
+
+    @Test
+    void GIVEN_atLeastOnceMqttClient_WHEN_windowFull_for_too_long_THEN_message_left_unacknowledged(
+            @TempDir Path sessionDirectory) throws Exception {
+        MQTTClient mqttClient = new MQTTClient(atLeastOnceConfig(1), mockMqttClientKeyStore, ses, fakeMqttClient,
+                sessionDirectory);
+        mqttClient.setWindowWaitMillis(50);
+        mqttClient.start();
+        fakeMqttClient.waitForConnect(1000);
+
+        List<MQTTMessage> receivedMessages = new CopyOnWriteArrayList<>();
+        Set<String> topics = new HashSet<>();
+        topics.add("mqtt/topic");
+        mqttClient.updateSubscriptions(topics, receivedMessages::add);
+
+        // The callback thread is given back to the paho client, which keeps reading pings
+        fakeMqttClient.injectMessage("mqtt/topic", mqttMessage(1, "first".getBytes()));
+        fakeMqttClient.injectMessage("mqtt/topic", mqttMessage(2, "second".getBytes()));
+        assertThat(receivedMessages, hasSize(1));
+        assertThat(mqttClient.getInflightMessageCount(), is(1));
+
+        receivedMessages.get(0).getAck().acknowledge();
+        assertThat(fakeMqttClient.getAcknowledgedMessageIds(), contains(1));
+        assertThat(mqttClient.getInflightMessageCount(), is(0));
+    }
+
+    @Test
+    void GIVEN_atLeastOnceMqttClient_WHEN_settledAfterReconnect_THEN_notAcknowledged(@TempDir Path sessionDirectory)
+            throws Exception {
+        MQTTClient mqttClient = new MQTTClient(atLeastOnceConfig(10), mockMqttClientKeyStore, ses, fakeMqttClient,
+                sessionDirectory);
+        mqttClient.start();
+        fakeMqttClient.waitForConnect(1000);
+
+        List<MQTTMessage> receivedMessages = new ArrayList<>();
+        Set<String> topics = new HashSet<>();
+        topics.add("mqtt/topic");
+        mqttClient.updateSubscriptions(topics, receivedMessages::add);
+
+        fakeMqttClient.injectMessage("mqtt/topic", mqttMessage(1, "first".getBytes()));
+        fakeMqttClient.injectConnectionLoss();
+        receivedMessages.get(0).getAck().acknowledge();
+
+        assertThat(fakeMqttClient.getAcknowledgedMessageIds(), is(empty()));
+        assertThat(mqttClient.getInflightMessageCount(), is(0));
+    }
+
+    @Test
+    void GIVEN_persistentSession_WHEN_subscribed_THEN_keepsSessionAndSavesSubscriptions(@TempDir Path sessionDirectory)
+            throws Exception {
+        MQTTClient mqttClient = new MQTTClient(configTopics, mockMqttClientKeyStore, ses, fakeMqttClient,
+                sessionDirectory);
+        mqttClient.start();
+        fakeMqttClient.waitForConnect(1000);
+        ses.submit(() -> null).get(5, TimeUnit.SECONDS);
+        assertThat(fakeMqttClient.getConnectOptions().isCleanSession(), is(false));
+
+        Set<String> topics = new HashSet<>();
+        topics.add("mqtt/topic");
+        topics.add("mqtt/topic2");
+        mqttClient.updateSubscriptions(topics, message -> {
+        });
+        assertThat(Files.readAllLines(sessionDirectory.resolve("subscriptions")),
+                containsInAnyOrder("1 mqtt/topic", "1 mqtt/topic2"));
+
+        // The broker still has the subscriptions
+        fakeMqttClient.setSessionPresent(true);
+        fakeMqttClient.injectConnectionLoss();
+        assertThat(fakeMqttClient.getConnectCount(), is(2));
+        assertThat(fakeMqttClient.getSubscribeCount(), is(2));
+        assertThat(fakeMqttClient.getSubscriptionTopics(), containsInAnyOrder("mqtt/topic", "mqtt/topic2"));
+    }
+
+    @Test
+    void GIVEN_persistentSessionPresent_WHEN_restarted_THEN_onlySubscriptionChangesSent(@TempDir Path sessionDirectory)
+            throws Exception {
+        Files.write(sessionDirectory.resolve("subscriptions"), Arrays.asList("1 mqtt/topic", "1 mqtt/topic2"));
+        fakeMqttClient.setSessionPresent(true);
+        fakeMqttClient.subscribe(new String[]{"mqtt/topic", "mqtt/topic2"});
+        MQTTClient mqttClient = new MQTTClient(configTopics, mockMqttClientKeyStore, ses, fakeMqttClient,
+                sessionDirectory);
+
+        Set<String> topics = new HashSet<>();
+        topics.add("mqtt/topic");
+        topics.add("mqtt/topic3");
+        mqttClient.updateSubscriptions(topics, message -> {
+        });
+        mqttClient.start();
+        fakeMqttClient.waitForConnect(1000);
+        ses.submit(() -> null).get(5, TimeUnit.SECONDS);
+
+        assertThat(fakeMqttClient.getSubscribeCount(), is(3));
+        assertThat(fakeMqttClient.getSubscriptionTopics(), containsInAnyOrder("mqtt/topic", "mqtt/topic3"));
+    }
+
+    @Test
+    void GIVEN_persistentSessionNotPresent_WHEN_restarted_THEN_resubscribesAll(@TempDir Path sessionDirectory)
+            throws Exception {
+        Files.write(sessionDirectory.resolve("subscriptions"), Arrays.asList("1 mqtt/topic", "1 mqtt/topic2"));
+        MQTTClient mqttClient = new MQTTClient(configTopics, mockMqttClientKeyStore, ses, fakeMqttClient,
+                sessionDirectory);
+
+        Set<String> topics = new HashSet<>();
+        topics.add("mqtt/topic");
+        topics.add("mqtt/topic2");
+        mqttClient.updateSubscriptions(topics, message -> {
+        });
+        mqttClient.start();
+        fakeMqttClient.waitForConnect(1000);
+        ses.submit(() -> null).get(5, TimeUnit.SECONDS);
+
+        assertThat(fakeMqttClient.getSubscriptionTopics(), containsInAnyOrder("mqtt/topic", "mqtt/topic2"));
+    }
+
+    @Test
+    void GIVEN_manyTopics_WHEN_updateSubscriptions_THEN_subscribedInBatches() throws Exception {
+        Topics config = spy(configTopics);
+        lenient().doReturn(2).when(config).findOrDefault(any(), eq(KernelConfigResolver.CONFIGURATION_CONFIG_KEY),
+                eq(MQTTClient.SUBSCRIBE_BATCH_SIZE_KEY));
+        MQTTClient mqttClient = new MQTTClient(config, mockMqttClientKeyStore, ses, fakeMqttClient);
+        mqttClient.start();
+        fakeMqttClient.waitForConnect(1000);
+        ses.submit(() -> null).get(5, TimeUnit.SECONDS);
+
+        Set<String> topics = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            topics.add("mqtt/topic" + i);
+        }
+        mqttClient.updateSubscriptions(topics, message -> {
+        });
+        assertThat(fakeMqttClient.getSubscribeBatchCount(), is(3));
+        assertThat(fakeMqttClient.getSubscriptionTopics(), hasSize(5));
+
+        topics.clear();
+        mqttClient.updateSubscriptions(topics, message -> {
+        });
+        assertThat(fakeMqttClient.getUnsubscribeBatchCount(), is(3));
+        assertThat(fakeMqttClient.getSubscriptionTopics(), hasSize(0));
+    }
+
+    @Test
+    void GIVEN_topicRefusedByBroker_WHEN_updateSubscriptions_THEN_otherTopicsSubscribedAndRefusedRetried() {
+        MQTTClient mqttClient = new MQTTClient(configTopics, mockMqttClientKeyStore, ses, fakeMqttClient);
+        mqttClient.start();
+        fakeMqttClient.waitForConnect(1000);
+        fakeMqttClient.getRefusedTopics().add("mqtt/refused");
+
+        Set<String> topics = new HashSet<>();
+        topics.add("mqtt/topic");
+        topics.add("mqtt/refused");
+        mqttClient.updateSubscriptions(topics, message -> {
+        });
+        assertThat(fakeMqttClient.getSubscriptionTopics(), contains("mqtt/topic"));
+        assertThat(mqttClient.getSubscribedLocalMqttTopics(), contains("mqtt/topic"));
+
+        fakeMqttClient.getRefusedTopics().clear();
+        mqttClient.updateSubscriptions(topics, message -> {
+        });
+        assertThat(fakeMqttClient.getSubscriptionTopics(), containsInAnyOrder("mqtt/topic", "mqtt/refused"));
+    }
+
+    @Test
+    void GIVEN_batchFailsToSubscribe_WHEN_updateSubscriptions_THEN_otherTopicsSubscribedOneByOne(
+            ExtensionContext context) {
+        ignoreExceptionOfType(context, MqttException.class);
+        MQTTClient mqttClient = new MQTTClient(configTopics, mockMqttClientKeyStore, ses, fakeMqttClient);
+        mqttClient.start();
+        fakeMqttClient.waitForConnect(1000);
+        fakeMqttClient.getFailingTopics().add("mqtt/failing");
+
+        Set<String> topics = new HashSet<>();
+        topics.add("mqtt/topic");
+        topics.add("mqtt/topic2");
+        topics.add("mqtt/failing");
+        mqttClient.updateSubscriptions(topics, message -> {
+        });
+        assertThat(fakeMqttClient.getSubscriptionTopics(), containsInAnyOrder("mqtt/topic", "mqtt/topic2"));
+        assertThat(mqttClient.getSubscribedLocalMqttTopics(), containsInAnyOrder("mqtt/topic", "mqtt/topic2"));
+
+        fakeMqttClient.getFailingTopics().clear();
+        mqttClient.updateSubscriptions(topics, message -> {
+        });
+        assertThat(fakeMqttClient.getSubscriptionTopics(),
+                containsInAnyOrder("mqtt/topic", "mqtt/topic2", "mqtt/failing"));
+    }
+
+    @Test
+    void GIVEN_topicsWithQos_WHEN_updateSubscriptions_THEN_subscribedWithQosAndResubscribedOnChange() throws Exception {
+        MQTTClient mqttClient = new MQTTClient(configTopics, mockMqttClientKeyStore, ses, fakeMqttClient);
+        mqttClient.start();
+        fakeMqttClient.waitForConnect(1000);
+        ses.submit(() -> null).get(5, TimeUnit.SECONDS);
+
+        Set<String> topics = new HashSet<>();
+        topics.add("mqtt/telemetry");
+        topics.add("mqtt/alarms");
+        Map<String, Integer> qos = new HashMap<>();
+        qos.put("mqtt/telemetry", 0);
+        mqttClient.updateSubscriptions(topics, qos, message -> {
+        });
+        assertThat(fakeMqttClient.getSubscriptionQos().get("mqtt/telemetry"), is(0));
+        assertThat(fakeMqttClient.getSubscriptionQos().get("mqtt/alarms"), is(1));
+
+        qos.put("mqtt/telemetry", 1);
+        mqttClient.updateSubscriptions(topics, qos, message -> {
+        });
+        assertThat(fakeMqttClient.getSubscribeCount(), is(3));
+        assertThat(fakeMqttClient.getSubscriptionQos().get("mqtt/telemetry"), is(1));
+    }
+
+    @Test
+    void GIVEN_atLeastOnceMqttClient_WHEN_qos0MessageReceived_THEN_notTracked(@TempDir Path sessionDirectory)
+            throws Exception {
+        MQTTClient mqttClient = new MQTTClient(atLeastOnceConfig(10), mockMqttClientKeyStore, ses, fakeMqttClient,
+                sessionDirectory);
+        mqttClient.start();
+        fakeMqttClient.waitForConnect(1000);
+
+        List<MQTTMessage> receivedMessages = new ArrayList<>();
+        Set<String> topics = new HashSet<>();
+        topics.add("mqtt/topic");
+        mqttClient.updateSubscriptions(topics, receivedMessages::add);
+
+        MqttMessage message = new MqttMessage("telemetry".getBytes());
+        message.setQos(0);
+        fakeMqttClient.injectMessage("mqtt/topic", message);
+        assertThat(receivedMessages.get(0).getAck(), is(nullValue()));
+        assertThat(mqttClient.getInflightMessageCount(), is(0));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.clients;
+
+import com.aws.greengrass.componentmanager.KernelConfigResolver;
+import com.aws.greengrass.config.Topics;
+import com.aws.greengrass.smbridge.auth.MQTTClientKeyStore;
+import io.moquette.BrokerConstants;
+import io.moquette.broker.Server;
+import io.moquette.broker.config.IConfig;
+import io.moquette.broker.config.MemoryConfig;
+
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Time to subscribe to many topics after connecting versus the number of topics per SUBSCRIBE packet, against the
+ * embedded Moquette broker. Not run as part of the unit tests, run it with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.aws.greengrass.smbridge.clients.MQTTResubscribeBenchmark}.
+ */
+public final class MQTTResubscribeBenchmark {
+    private static final String PORT = "18830";
+    private static final int TOPICS = 5000;
+    private static final long TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private MQTTResubscribeBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        IConfig brokerConfig = new MemoryConfig(new Properties());
+        brokerConfig.setProperty(BrokerConstants.PORT_PROPERTY_NAME, PORT);
+        Server broker = new Server();
+        broker.startServer(brokerConfig);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int batchSize : new int[]{1, 10, 100, 500}) {
+                long elapsedNanos = run(executor, batchSize);
+                System.out.printf("topics per packet=%3d  resubscribe ms=%,8d%n", batchSize,
+                        TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            }
+        } finally {
+            executor.shutdownNow();
+            broker.stopServer();
+        }
+    }
+
+    private static long run(ExecutorService executor, int batchSize) throws Exception {
+        Topics config = mock(Topics.class);
+        when(config.findOrDefault(any(), eq(KernelConfigResolver.CONFIGURATION_CONFIG_KEY),
+                eq(MQTTClient.BROKER_URI_KEY))).thenReturn("tcp://localhost:" + PORT);
+        when(config.findOrDefault(any(), eq(KernelConfigResolver.CONFIGURATION_CONFIG_KEY),
+                eq(MQTTClient.CLIENT_ID_KEY))).thenReturn("resubscribe-benchmark-" + batchSize);
+        when(config.findOrDefault(any(), eq(KernelConfigResolver.CONFIGURATION_CONFIG_KEY),
+                eq(MQTTClient.SUBSCRIBE_BATCH_SIZE_KEY))).thenReturn(batchSize);
+        MQTTClient mqttClient = new MQTTClient(config, mock(MQTTClientKeyStore.class), executor);
+
+        Set<String> topics = new HashSet<>();
+        for (int i = 0; i < TOPICS; i++) {
+            topics.add("factory/line" + i % 50 + "/sensor" + i + "/#");
+        }
+        // Subscribed to on connect, like after a reconnect
+        mqttClient.updateSubscriptions(topics, message -> {
+        });
+        long startNanos = System.nanoTime();
+        mqttClient.start();
+        while (subscribedCount(mqttClient) < TOPICS) {
+            if (System.nanoTime() - startNanos > TIMEOUT_NANOS) {
+                throw new IllegalStateException("Timed out subscribing");
+            }
+            Thread.sleep(1);
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        mqttClient.stop();
+        return elapsedNanos;
+    }
+
+    private static int subscribedCount(MQTTClient mqttClient) {
+        synchronized (mqttClient) {
+            return mqttClient.getSubscribedLocalMqttTopics().size();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.clients;
+
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+@ExtendWith({MockitoExtension.class, GGExtension.class})
+public class RetryPolicyTest {
+
+    @Test
+    void GIVEN_no_jitter_WHEN_delay_THEN_doubles_up_to_max() {
+        RetryPolicy policy = new RetryPolicy(10, 50, 300, 0);
+        assertThat(policy.delayMillis(1), is(50L));
+        assertThat(policy.delayMillis(2), is(100L));
+        assertThat(policy.delayMillis(3), is(200L));
+        assertThat(policy.delayMillis(4), is(300L));
+        assertThat(policy.delayMillis(100), is(300L));
+    }
+
+    @Test
+    void GIVEN_jitter_WHEN_delay_THEN_within_jittered_range() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, 0.5);
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.delayMillis(2), is(allOf(greaterThanOrEqualTo(100L), lessThanOrEqualTo(200L))));
+        }
+    }
+
+    @Test
+    void GIVEN_invalid_settings_WHEN_created_THEN_clamped() {
+        RetryPolicy policy = new RetryPolicy(0, -1, -1, 2);
+        assertThat(policy.getMaxAttempts(), is(1));
+        assertThat(policy.getBaseDelayMillis(), is(0L));
+        assertThat(policy.getJitter(), is(1.0));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.clients;
+
+import com.amazonaws.greengrass.streammanager.client.StreamManagerClient;
+import com.aws.greengrass.config.Topics;
+import com.aws.greengrass.smbridge.StreamDefinition;
+import com.aws.greengrass.smbridge.StreamMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Append throughput versus connection pool size.
+ *
+ * <p>Each stand-in connection serves one request at a time with a fixed round trip, like a single Stream Manager
+ * connection does. Not run as part of the unit tests, run it with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.aws.greengrass.smbridge.clients.SMClientPoolBenchmark}.
+ */
+public final class SMClientPoolBenchmark {
+    private static final int STREAMS = 16;
+    private static final int MESSAGES_PER_STREAM = 2000;
+    private static final long ROUND_TRIP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private SMClientPoolBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService publishers = Executors.newFixedThreadPool(STREAMS);
+        try {
+            for (int poolSize : new int[]{1, 2, 4, 8, 16}) {
+                double throughput = run(publishers, poolSize);
+                System.out.printf("connections=%2d  appends/s=%,10.0f%n", poolSize, throughput);
+            }
+        } finally {
+            publishers.shutdownNow();
+        }
+    }
+
+    private static double run(ExecutorService publishers, int poolSize) throws Exception {
+        List<StreamManagerClient> connections = new ArrayList<>();
+        for (int i = 0; i < poolSize; i++) {
+            connections.add(standInConnection());
+        }
+        SMClient smClient = new SMClient(mock(Topics.class), mock(StreamDefinition.class), connections);
+        smClient.start();
+        byte[] payload = new byte[256];
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (int s = 0; s < STREAMS; s++) {
+            String stream = "stream" + s;
+            results.add(publishers.submit(() -> {
+                start.await();
+                for (int i = 0; i < MESSAGES_PER_STREAM; i++) {
+                    smClient.publish(new StreamMessage(stream, payload));
+                }
+                return null;
+            }));
+        }
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        return (double) STREAMS * MESSAGES_PER_STREAM * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    private static StreamManagerClient standInConnection() throws Exception {
+        StreamManagerClient connection = mock(StreamManagerClient.class);
+        Object wire = new Object();
+        doAnswer(invocation -> {
+            // One request in flight per connection
+            synchronized (wire) {
+                LockSupport.parkNanos(ROUND_TRIP_NANOS);
+            }
+            return 0L;
+        }).when(connection).appendMessage(anyString(), any());
+        return connection;
+    }
+}
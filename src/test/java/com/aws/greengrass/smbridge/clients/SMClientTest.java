@@ -5,11 +5,16 @@
 
 package com.aws.greengrass.smbridge.clients;
 
+import com.amazonaws.greengrass.streammanager.client.exception.InvalidRequestException;
+import com.amazonaws.greengrass.streammanager.client.exception.RequestPayloadTooLargeException;
+import com.amazonaws.greengrass.streammanager.client.exception.ResourceNotFoundException;
 import com.amazonaws.greengrass.streammanager.client.exception.StreamManagerException;
+import com.amazonaws.greengrass.streammanager.model.ExportDefinition;
 import com.amazonaws.greengrass.streammanager.model.MessageStreamDefinition;
 import com.amazonaws.greengrass.streammanager.model.MessageStreamInfo;
 import com.amazonaws.greengrass.streammanager.model.Persistence;
 import com.amazonaws.greengrass.streammanager.model.StrategyOnFull;
+import com.aws.greengrass.componentmanager.KernelConfigResolver;
 import com.aws.greengrass.config.Topics;
 import com.aws.greengrass.smbridge.StreamDefinition;
 import com.aws.greengrass.smbridge.StreamMessage;
@@ -22,10 +27,23 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import com.amazonaws.greengrass.streammanager.client.StreamManagerClient;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -42,6 +60,9 @@ public class SMClientTest {
     @Mock
     private StreamManagerClient mockSmClient;
 
+    @Mock
+    private StreamManagerClient mockSmClient2;
+
     @Test
     void WHEN_call_sm_client_constructed_THEN_does_not_throw() {
         new SMClient(mockTopics, mockStreamDefinition, mockSmClient);
@@ -83,7 +104,7 @@ public class SMClientTest {
         MessageStreamDefinition msd = new MessageStreamDefinition(
                 "testStream", 268435456L, 16777216L, 9223372036854L,
                 StrategyOnFull.RejectNewData, Persistence.File, false, null);
-        when(mockStreamDefinition.getList()).thenReturn(new ArrayList<>(Collections.singleton(msd)));
+        when(mockStreamDefinition.findByName("testStream")).thenReturn(msd);
         doThrow(new StreamManagerException("TestExceptionCause")).when(mockSmClient).describeMessageStream("testStream");
 
         SMClient smClient = new SMClient(mockTopics, mockStreamDefinition, mockSmClient);
@@ -104,4 +125,325 @@ public class SMClientTest {
             smClient.publish(new StreamMessage("RandomStream", "HelloWorld".getBytes()));
         });
     }
+
+    @Test
+    void GIVEN_sm_client_WHEN_stream_listed_at_start_THEN_publish_only_appends() throws Exception {
+        when(mockSmClient.listStreams()).thenReturn(Collections.singletonList("testStream"));
+
+        SMClient smClient = new SMClient(mockTopics, mockStreamDefinition, mockSmClient);
+        smClient.start();
+        smClient.publish(new StreamMessage("testStream", "Message".getBytes()));
+        smClient.publish(new StreamMessage("testStream", "Message".getBytes()));
+        verify(mockSmClient, never()).describeMessageStream(any());
+        verify(mockSmClient, never()).createMessageStream(any());
+        verify(mockSmClient, times(2)).appendMessage(any(String.class), any());
+    }
+
+    @Test
+    void GIVEN_sm_client_WHEN_publish_twice_to_new_stream_THEN_stream_checked_once() throws Exception {
+        doThrow(new StreamManagerException("TestExceptionCause")).when(mockSmClient).describeMessageStream("testStream");
+
+        SMClient smClient = new SMClient(mockTopics, mockStreamDefinition, mockSmClient);
+        smClient.start();
+        smClient.publish(new StreamMessage("testStream", "Message".getBytes()));
+        smClient.publish(new StreamMessage("testStream", "Message".getBytes()));
+        verify(mockSmClient, times(1)).describeMessageStream("testStream");
+        verify(mockSmClient, times(1)).createMessageStream(any(MessageStreamDefinition.class));
+        verify(mockSmClient, times(2)).appendMessage(any(String.class), any());
+    }
+
+    @Test
+    void GIVEN_known_stream_WHEN_append_fails_with_not_found_THEN_stream_forgotten() throws Exception {
+        when(mockSmClient.listStreams()).thenReturn(Collections.singletonList("testStream"));
+        when(mockSmClient.appendMessage(any(String.class), any()))
+                .thenThrow(new ResourceNotFoundException("TestExceptionCause"))
+                .thenReturn(0L);
+
+        SMClient smClient = new SMClient(mockTopics, mockStreamDefinition, mockSmClient);
+        smClient.start();
+        Assertions.assertThrows(SMClientException.class,
+                () -> smClient.publish(new StreamMessage("testStream", "Message".getBytes())));
+        Assertions.assertFalse(smClient.getKnownStreams().contains("testStream"));
+
+        smClient.publish(new StreamMessage("testStream", "Message".getBytes()));
+        verify(mockSmClient, times(1)).describeMessageStream("testStream");
+        Assertions.assertTrue(smClient.getKnownStreams().contains("testStream"));
+    }
+
+    @Test
+    void GIVEN_concurrent_publishes_to_new_stream_WHEN_publish_THEN_stream_created_once() throws Exception {
+        CountDownLatch describing = new CountDownLatch(1);
+        CountDownLatch releaseDescribe = new CountDownLatch(1);
+        when(mockSmClient.describeMessageStream("testStream")).thenAnswer(invocation -> {
+            describing.countDown();
+            releaseDescribe.await(5, TimeUnit.SECONDS);
+            throw new StreamManagerException("TestExceptionCause");
+        });
+
+        SMClient smClient = new SMClient(mockTopics, mockStreamDefinition, mockSmClient);
+        smClient.start();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> publishes = new ArrayList<>();
+            publishes.add(executor.submit(() -> {
+                smClient.publish(new StreamMessage("testStream", "Message".getBytes()));
+                return null;
+            }));
+            Assertions.assertTrue(describing.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                publishes.add(executor.submit(() -> {
+                    smClient.publish(new StreamMessage("testStream", "Message".getBytes()));
+                    return null;
+                }));
+            }
+            releaseDescribe.countDown();
+            for (Future<?> publish : publishes) {
+                publish.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(mockSmClient, times(1)).describeMessageStream("testStream");
+        verify(mockSmClient, times(1)).createMessageStream(any(MessageStreamDefinition.class));
+        verify(mockSmClient, times(4)).appendMessage(any(String.class), any());
+    }
+
+    @Test
+    void GIVEN_dynamic_stream_limit_WHEN_publish_to_more_dynamic_streams_THEN_creation_refused() throws Exception {
+        when(mockTopics.findOrDefault(any(), eq(KernelConfigResolver.CONFIGURATION_CONFIG_KEY),
+                eq(SMClient.MAX_DYNAMIC_STREAMS_KEY))).thenReturn(1);
+        when(mockTopics.findOrDefault(any(), eq(KernelConfigResolver.CONFIGURATION_CONFIG_KEY),
+                eq(SMClient.DYNAMIC_STREAM_CREATION_RATE_KEY))).thenReturn(0);
+        doThrow(new StreamManagerException("TestExceptionCause")).when(mockSmClient).describeMessageStream(any());
+
+        SMClient smClient = new SMClient(mockTopics, mockStreamDefinition, mockSmClient);
+        smClient.start();
+        smClient.publish(new StreamMessage("dynamic1", "Message".getBytes(), true));
+        Assertions.assertThrows(SMClientException.class,
+                () -> smClient.publish(new StreamMessage("dynamic2", "Message".getBytes(), true)));
+        // Configured streams are not limited
+        smClient.publish(new StreamMessage("configured", "Message".getBytes()));
+        verify(mockSmClient, times(2)).createMessageStream(any(MessageStreamDefinition.class));
+        verify(mockSmClient, times(2)).appendMessage(any(String.class), any());
+    }
+
+    @Test
+    void GIVEN_dynamic_stream_creation_rate_WHEN_exceeded_THEN_stream_not_created() throws Exception {
+        when(mockTopics.findOrDefault(any(), eq(KernelConfigResolver.CONFIGURATION_CONFIG_KEY),
+                eq(SMClient.MAX_DYNAMIC_STREAMS_KEY))).thenReturn(0);
+        when(mockTopics.findOrDefault(any(), eq(KernelConfigResolver.CONFIGURATION_CONFIG_KEY),
+                eq(SMClient.DYNAMIC_STREAM_CREATION_RATE_KEY))).thenReturn(0.001);
+        doThrow(new StreamManagerException("TestExceptionCause")).when(mockSmClient).describeMessageStream(any());
+
+        SMClient smClient = new SMClient(mockTopics, mockStreamDefinition, mockSmClient);
+        smClient.start();
+        // The limiter allows a small burst
+        for (int i = 0; i < 10; i++) {
+            smClient.publish(new StreamMessage("dynamic" + i, "Message".getBytes(), true));
+        }
+        Assertions.assertThrows(SMClientException.class,
+                () -> smClient.publish(new StreamMessage("dynamic10", "Message".getBytes(), true)));
+        verify(mockSmClient, times(10)).createMessageStream(any(MessageStreamDefinition.class));
+    }
+
+    @Test
+    void GIVEN_dynamic_stream_creation_rate_WHEN_streams_already_exist_THEN_rate_not_consumed() throws Exception {
+        when(mockTopics.findOrDefault(any(), eq(KernelConfigResolver.CONFIGURATION_CONFIG_KEY),
+                eq(SMClient.MAX_DYNAMIC_STREAMS_KEY))).thenReturn(0);
+        when(mockTopics.findOrDefault(any(), eq(KernelConfigResolver.CONFIGURATION_CONFIG_KEY),
+                eq(SMClient.DYNAMIC_STREAM_CREATION_RATE_KEY))).thenReturn(0.001);
+
+        SMClient smClient = new SMClient(mockTopics, mockStreamDefinition, mockSmClient);
+        smClient.start();
+        // Well past the burst, none of these streams needs creating
+        for (int i = 0; i < 20; i++) {
+            smClient.publish(new StreamMessage("existing" + i, "Message".getBytes(), true));
+        }
+        verify(mockSmClient, never()).createMessageStream(any(MessageStreamDefinition.class));
+        verify(mockSmClient, times(20)).appendMessage(any(String.class), any());
+    }
+
+    @Test
+    void GIVEN_connection_pool_WHEN_publish_THEN_each_stream_always_uses_the_same_connection() throws Exception {
+        // "a" and "b" hash to different connections of a pool of two
+        SMClient smClient = new SMClient(mockTopics, mockStreamDefinition, Arrays.asList(mockSmClient, mockSmClient2));
+        smClient.start();
+        for (int i = 0; i < 3; i++) {
+            smClient.publish(new StreamMessage("a", "Message".getBytes()));
+            smClient.publish(new StreamMessage("b", "Message".getBytes()));
+        }
+        verify(mockSmClient2, times(3)).appendMessage(eq("a"), any());
+        verify(mockSmClient, times(3)).appendMessage(eq("b"), any());
+        verify(mockSmClient, never()).appendMessage(eq("a"), any());
+        verify(mockSmClient2, never()).appendMessage(eq("b"), any());
+    }
+
+    @Test
+    void GIVEN_retry_policy_WHEN_append_fails_then_succeeds_THEN_published() throws Exception {
+        when(mockSmClient.listStreams()).thenReturn(Collections.singletonList("testStream"));
+        when(mockSmClient.appendMessage(any(String.class), any()))
+                .thenThrow(new StreamManagerException("TestExceptionCause"))
+                .thenReturn(0L);
+
+        SMClient smClient = new SMClient(mockTopics, mockStreamDefinition, Collections.singletonList(mockSmClient),
+                new RetryPolicy(3, 1, 1, 0), null, new FullStreamTracker(1000));
+        smClient.start();
+        smClient.publish(new StreamMessage("testStream", "Message".getBytes()));
+        verify(mockSmClient, times(2)).appendMessage(any(String.class), any());
+    }
+
+    @Test
+    void GIVEN_retry_policy_WHEN_message_rejected_THEN_not_retried() throws Exception {
+        when(mockSmClient.listStreams()).thenReturn(Collections.singletonList("testStream"));
+        when(mockSmClient.appendMessage(any(String.class), any()))
+                .thenThrow(new RequestPayloadTooLargeException("TestExceptionCause"));
+
+        SMClient smClient = new SMClient(mockTopics, mockStreamDefinition, Collections.singletonList(mockSmClient),
+                new RetryPolicy(3, 1, 1, 0), null, new FullStreamTracker(1000));
+        smClient.start();
+        SMClientException e = Assertions.assertThrows(SMClientException.class,
+                () -> smClient.publish(new StreamMessage("testStream", "Message".getBytes())));
+        Assertions.assertFalse(e.isRetryable());
+        verify(mockSmClient, times(1)).appendMessage(any(String.class), any());
+    }
+
+    @Test
+    void GIVEN_circuit_breaker_WHEN_stream_keeps_failing_THEN_publishes_fail_fast() throws Exception {
+        when(mockSmClient.listStreams()).thenReturn(Arrays.asList("brokenStream", "testStream"));
+        when(mockSmClient.appendMessage(eq("brokenStream"), any()))
+                .thenThrow(new StreamManagerException("TestExceptionCause"));
+
+        SMClient smClient = new SMClient(mockTopics, mockStreamDefinition, Collections.singletonList(mockSmClient),
+                RetryPolicy.NO_RETRY, () -> new CircuitBreaker(2, 60_000), new FullStreamTracker(1000));
+        smClient.start();
+        for (int i = 0; i < 2; i++) {
+            SMClientException e = Assertions.assertThrows(SMClientException.class,
+                    () -> smClient.publish(new StreamMessage("brokenStream", "Message".getBytes())));
+            Assertions.assertTrue(e.isRetryable());
+        }
+        // Refused without reaching Stream Manager, to be published again once the circuit closes
+        SMClientException e = Assertions.assertThrows(CircuitOpenException.class,
+                () -> smClient.publish(new StreamMessage("brokenStream", "Message".getBytes())));
+        Assertions.assertTrue(e.isRetryable());
+        verify(mockSmClient, times(2)).appendMessage(eq("brokenStream"), any());
+
+        // Other streams are not affected
+        smClient.publish(new StreamMessage("testStream", "Message".getBytes()));
+        verify(mockSmClient, times(1)).appendMessage(eq("testStream"), any());
+    }
+
+    @Test
+    void GIVEN_full_stream_WHEN_publish_THEN_dropped_without_append_until_probe() throws Exception {
+        AtomicLong nanos = new AtomicLong();
+        FullStreamTracker fullStreams = new FullStreamTracker(1000, nanos::get);
+        when(mockSmClient.listStreams()).thenReturn(Collections.singletonList("testStream"));
+        when(mockSmClient.appendMessage(any(String.class), any()))
+                .thenThrow(new StreamManagerException("Stream is full"))
+                .thenReturn(0L);
+
+        SMClient smClient = new SMClient(mockTopics, mockStreamDefinition, Collections.singletonList(mockSmClient),
+                new RetryPolicy(3, 1, 1, 0), () -> new CircuitBreaker(1, 60_000), fullStreams);
+        smClient.start();
+        for (int i = 0; i < 3; i++) {
+            SMClientException e = Assertions.assertThrows(StreamFullException.class,
+                    () -> smClient.publish(new StreamMessage("testStream", "Message".getBytes())));
+            Assertions.assertFalse(e.isRetryable());
+        }
+        // Rejected once, then dropped locally without being retried
+        verify(mockSmClient, times(1)).appendMessage(any(String.class), any());
+        Assertions.assertEquals(3, fullStreams.getDroppedCount());
+        Assertions.assertEquals(3 * "Message".length(), fullStreams.getDroppedBytes());
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        smClient.publish(new StreamMessage("testStream", "Message".getBytes()));
+        Assertions.assertFalse(fullStreams.isFull("testStream"));
+        smClient.publish(new StreamMessage("testStream", "Message".getBytes()));
+        verify(mockSmClient, times(3)).appendMessage(any(String.class), any());
+    }
+
+    @Test
+    void GIVEN_full_stream_rejected_as_invalid_request_WHEN_publish_THEN_stream_marked_full() throws Exception {
+        FullStreamTracker fullStreams = new FullStreamTracker(60_000);
+        when(mockSmClient.listStreams()).thenReturn(Arrays.asList("fullStream", "testStream"));
+        when(mockSmClient.appendMessage(eq("fullStream"), any()))
+                .thenThrow(new InvalidRequestException("Stream fullStream is full and rejects new data"));
+        when(mockSmClient.appendMessage(eq("testStream"), any()))
+                .thenThrow(new InvalidRequestException("Invalid message"));
+
+        SMClient smClient = new SMClient(mockTopics, mockStreamDefinition, Collections.singletonList(mockSmClient),
+                RetryPolicy.NO_RETRY, null, fullStreams);
+        smClient.start();
+        SMClientException e = Assertions.assertThrows(StreamFullException.class,
+                () -> smClient.publish(new StreamMessage("fullStream", "Message".getBytes())));
+        Assertions.assertTrue(e.getCause() instanceof InvalidRequestException);
+        Assertions.assertTrue(fullStreams.isFull("fullStream"));
+
+        // Other invalid requests are still taken for rejected messages
+        e = Assertions.assertThrows(SMClientException.class,
+                () -> smClient.publish(new StreamMessage("testStream", "Message".getBytes())));
+        Assertions.assertFalse(e instanceof StreamFullException);
+        Assertions.assertFalse(e.isRetryable());
+        Assertions.assertFalse(fullStreams.isFull("testStream"));
+    }
+
+    @Test
+    void GIVEN_configured_stream_WHEN_start_THEN_stream_provisioned_before_first_publish() throws Exception {
+        MessageStreamDefinition msd = new MessageStreamDefinition(
+                "testStream", 268435456L, 16777216L, 9223372036854L,
+                StrategyOnFull.RejectNewData, Persistence.File, false, null);
+        when(mockStreamDefinition.getConfiguredStreams()).thenReturn(Collections.singletonMap("testStream", msd));
+        doThrow(new ResourceNotFoundException("Not found")).when(mockSmClient).describeMessageStream("testStream");
+
+        SMClient smClient = new SMClient(mockTopics, mockStreamDefinition, Collections.singletonList(mockSmClient),
+                RetryPolicy.NO_RETRY, null, new FullStreamTracker(1000), 1);
+        try {
+            smClient.start();
+            verify(mockSmClient, timeout(5000)).createMessageStream(msd);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!smClient.getKnownStreams().contains("testStream") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            smClient.publish(new StreamMessage("testStream", "Message".getBytes()));
+            verify(mockSmClient, times(1)).describeMessageStream("testStream");
+            verify(mockSmClient, times(1)).appendMessage(any(String.class), any());
+        } finally {
+            smClient.close();
+        }
+    }
+
+    @Test
+    void GIVEN_configured_stream_with_unset_fields_WHEN_start_THEN_existing_stream_not_updated() throws Exception {
+        // Only the strategy is configured, the server reports every field
+        MessageStreamDefinition unchanged = new MessageStreamDefinition().withName("testStream")
+                .withStrategyOnFull(StrategyOnFull.RejectNewData).withTimeToLiveMillis(null);
+        MessageStreamDefinition changed = new MessageStreamDefinition().withName("otherStream")
+                .withStrategyOnFull(StrategyOnFull.OverwriteOldestData);
+        Map<String, MessageStreamDefinition> streams = new HashMap<>();
+        streams.put("testStream", unchanged);
+        streams.put("otherStream", changed);
+        when(mockStreamDefinition.getConfiguredStreams()).thenReturn(streams);
+        when(mockSmClient.describeMessageStream("testStream")).thenReturn(serverStreamInfo("testStream"));
+        when(mockSmClient.describeMessageStream("otherStream")).thenReturn(serverStreamInfo("otherStream"));
+
+        SMClient smClient = new SMClient(mockTopics, mockStreamDefinition, Collections.singletonList(mockSmClient),
+                RetryPolicy.NO_RETRY, null, new FullStreamTracker(1000), 1);
+        try {
+            smClient.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!smClient.getKnownStreams().containsAll(streams.keySet())
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            verify(mockSmClient).updateMessageStream(changed);
+            verify(mockSmClient, never()).updateMessageStream(unchanged);
+        } finally {
+            smClient.close();
+        }
+    }
+
+    private static MessageStreamInfo serverStreamInfo(String stream) {
+        return new MessageStreamInfo().withDefinition(new MessageStreamDefinition(stream, 268435456L, 16777216L,
+                9223372036854L, StrategyOnFull.RejectNewData, Persistence.File, false, new ExportDefinition()));
+    }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.clients;
+
+import com.amazonaws.greengrass.streammanager.client.exception.ConnectFailedException;
+import com.aws.greengrass.smbridge.StreamMessage;
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static com.aws.greengrass.testcommons.testutilities.ExceptionLogProtector.ignoreExceptionOfType;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith({MockitoExtension.class, GGExtension.class})
+public class SMConnectionSupervisorTest {
+    private static final int PORT = 8088;
+
+    @Mock
+    private SMClient mockSmClient;
+
+    private final AtomicBoolean streamManagerDown = new AtomicBoolean();
+    private final List<String> published = new CopyOnWriteArrayList<>();
+    // Publishes refused with a retryable error before Stream Manager accepts messages again
+    private final AtomicInteger retryableRejections = new AtomicInteger();
+
+    private void stubStreamManager() throws SMClientException {
+        doAnswer(invocation -> {
+            failIfDown();
+            if (retryableRejections.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+                throw new CircuitOpenException("Circuit open");
+            }
+            published.add(new String(invocation.<StreamMessage>getArgument(0).getPayload()));
+            return null;
+        }).when(mockSmClient).publish(any(StreamMessage.class));
+        lenient().doAnswer(invocation -> {
+            failIfDown();
+            return null;
+        }).when(mockSmClient).reconnect(anyInt());
+    }
+
+    private void failIfDown() throws SMClientException {
+        if (streamManagerDown.get()) {
+            throw new SMClientException("Unable to connect", new ConnectFailedException("Connection refused"));
+        }
+    }
+
+    @Test
+    void GIVEN_connected_WHEN_connection_lost_THEN_messages_buffered_and_published_in_order_after_reconnect(
+            ExtensionContext context) throws Exception {
+        ignoreExceptionOfType(context, ConnectFailedException.class);
+        ignoreExceptionOfType(context, SMClientException.class);
+        stubStreamManager();
+        SMConnectionSupervisor supervisor = new SMConnectionSupervisor(port -> mockSmClient, PORT, 1024, 1, 10);
+        supervisor.start();
+        Assertions.assertTrue(supervisor.isConnected());
+
+        streamManagerDown.set(true);
+        supervisor.publish(new StreamMessage("RandomStream", "m1".getBytes()));
+        supervisor.publish(new StreamMessage("RandomStream", "m2".getBytes()));
+        Assertions.assertFalse(supervisor.isConnected());
+        assertThat(supervisor.getBufferedCount(), is(2));
+
+        streamManagerDown.set(false);
+        waitUntil(supervisor::isConnected);
+        supervisor.publish(new StreamMessage("RandomStream", "m3".getBytes()));
+
+        assertThat(published, contains("m1", "m2", "m3"));
+        assertThat(supervisor.getBufferedCount(), is(0));
+        assertThat(supervisor.getReconnectCount(), is(1L));
+        Assertions.assertTrue(supervisor.getTotalOutageMillis() >= supervisor.getLastOutageMillis());
+        supervisor.stop();
+    }
+
+    @Test
+    void GIVEN_buffered_messages_WHEN_retryable_failure_after_reconnect_THEN_messages_kept_and_published_in_order(
+            ExtensionContext context) throws Exception {
+        ignoreExceptionOfType(context, ConnectFailedException.class);
+        ignoreExceptionOfType(context, SMClientException.class);
+        stubStreamManager();
+        SMConnectionSupervisor supervisor = new SMConnectionSupervisor(port -> mockSmClient, PORT, 1024, 1, 10);
+        supervisor.start();
+
+        streamManagerDown.set(true);
+        supervisor.publish(new StreamMessage("RandomStream", "m1".getBytes()));
+        supervisor.publish(new StreamMessage("RandomStream", "m2".getBytes()));
+        retryableRejections.set(3);
+        streamManagerDown.set(false);
+        waitUntil(supervisor::isConnected);
+
+        assertThat(retryableRejections.get(), is(0));
+        assertThat(published, contains("m1", "m2"));
+        assertThat(supervisor.getBufferedCount(), is(0));
+        supervisor.stop();
+    }
+
+    @Test
+    void GIVEN_stream_manager_unavailable_WHEN_buffer_full_THEN_publish_fails_retryable(ExtensionContext context) {
+        ignoreExceptionOfType(context, ConnectFailedException.class);
+        ignoreExceptionOfType(context, SMClientException.class);
+        SMConnectionSupervisor supervisor = new SMConnectionSupervisor(port -> {
+            throw new SMClientException("Unable to connect", new ConnectFailedException("Connection refused"));
+        }, PORT, 10, 1, 10);
+        supervisor.start();
+        Assertions.assertFalse(supervisor.isConnected());
+
+        Assertions.assertDoesNotThrow(() -> supervisor.publish(new StreamMessage("RandomStream", new byte[8])));
+        SMClientException e = Assertions.assertThrows(SMClientException.class,
+                () -> supervisor.publish(new StreamMessage("RandomStream", new byte[8])));
+        Assertions.assertTrue(e.isRetryable());
+        Assertions.assertThrows(SMClientException.class,
+                () -> supervisor.publishWithoutBuffering(new StreamMessage("RandomStream", new byte[1])));
+        supervisor.stop();
+    }
+
+    @Test
+    void GIVEN_connected_WHEN_port_changed_THEN_reconnects_to_new_port() throws Exception {
+        stubStreamManager();
+        SMConnectionSupervisor supervisor = new SMConnectionSupervisor(port -> mockSmClient, PORT, 1024, 1, 10);
+        supervisor.start();
+
+        supervisor.updatePort(9000);
+        verify(mockSmClient, timeout(5000)).reconnect(9000);
+        waitUntil(supervisor::isConnected);
+        supervisor.publish(new StreamMessage("RandomStream", "m1".getBytes()));
+        assertThat(published, contains("m1"));
+        supervisor.stop();
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.clients;
+
+import com.amazonaws.greengrass.streammanager.model.MessageStreamDefinition;
+import com.amazonaws.greengrass.streammanager.model.Persistence;
+import com.amazonaws.greengrass.streammanager.model.StrategyOnFull;
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import com.aws.greengrass.util.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Collections;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith({MockitoExtension.class, GGExtension.class})
+public class StreamReconcilerTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Mock
+    private StreamReconciler.StreamAction create;
+
+    @Mock
+    private StreamReconciler.StreamAction update;
+
+    private StreamReconciler reconciler;
+
+    @AfterEach
+    void afterEach() {
+        if (reconciler != null) {
+            reconciler.stop();
+        }
+    }
+
+    private static MessageStreamDefinition definition(String name, long maxSize) {
+        return new MessageStreamDefinition(name, maxSize, 16777216L, 9223372036854L,
+                StrategyOnFull.RejectNewData, Persistence.File, false, null);
+    }
+
+    @Test
+    void GIVEN_configured_streams_WHEN_reconcile_THEN_all_created() throws Exception {
+        reconciler = new StreamReconciler(create, update, 2);
+        MessageStreamDefinition s1 = definition("s1", 1000L);
+        MessageStreamDefinition s2 = definition("s2", 1000L);
+
+        Assertions.assertEquals(2, reconciler.reconcile(Utils.immutableMap("s1", s1, "s2", s2)));
+        verify(create, timeout(TIMEOUT_MILLIS)).apply(s1);
+        verify(create, timeout(TIMEOUT_MILLIS)).apply(s2);
+        verify(update, never()).apply(s1);
+    }
+
+    @Test
+    void GIVEN_reconciled_streams_WHEN_definition_changes_THEN_only_diff_applied() throws Exception {
+        reconciler = new StreamReconciler(create, update, 2);
+        MessageStreamDefinition s1 = definition("s1", 1000L);
+        MessageStreamDefinition s2 = definition("s2", 1000L);
+        reconciler.reconcile(Utils.immutableMap("s1", s1, "s2", s2));
+        verify(create, timeout(TIMEOUT_MILLIS)).apply(s2);
+
+        MessageStreamDefinition s2Bigger = definition("s2", 2000L);
+        MessageStreamDefinition s3 = definition("s3", 1000L);
+        Assertions.assertEquals(2, reconciler.reconcile(Utils.immutableMap("s1", s1, "s2", s2Bigger, "s3", s3)));
+        verify(update, timeout(TIMEOUT_MILLIS)).apply(s2Bigger);
+        verify(create, timeout(TIMEOUT_MILLIS)).apply(s3);
+        verify(create, times(1)).apply(s1);
+
+        // Removed streams are kept, and unchanged streams are left alone
+        Assertions.assertEquals(0, reconciler.reconcile(Utils.immutableMap("s1", s1)));
+    }
+
+    @Test
+    void GIVEN_failed_provisioning_WHEN_reconcile_again_THEN_retried() throws Exception {
+        reconciler = new StreamReconciler(create, update, 1);
+        MessageStreamDefinition s1 = definition("s1", 1000L);
+        doThrow(new SMClientException("failed")).doNothing().when(create).apply(s1);
+
+        reconciler.reconcile(Collections.singletonMap("s1", s1));
+        verify(create, timeout(TIMEOUT_MILLIS)).apply(s1);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (reconciler.getFailedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(1, reconciler.getFailedCount());
+
+        Assertions.assertEquals(1, reconciler.reconcile(Collections.singletonMap("s1", s1)));
+        verify(create, timeout(TIMEOUT_MILLIS).times(2)).apply(s1);
+    }
+
+    @Test
+    void GIVEN_reconciled_streams_WHEN_resync_THEN_all_created_again() throws Exception {
+        reconciler = new StreamReconciler(create, update, 1);
+        MessageStreamDefinition s1 = definition("s1", 1000L);
+        reconciler.reconcile(Collections.singletonMap("s1", s1));
+        verify(create, timeout(TIMEOUT_MILLIS)).apply(s1);
+
+        Assertions.assertEquals(1, reconciler.resync(Collections.singletonMap("s1", s1)));
+        verify(create, timeout(TIMEOUT_MILLIS).times(2)).apply(s1);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.spill;
+
+import com.aws.greengrass.smbridge.StreamMessage;
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+@ExtendWith({MockitoExtension.class, GGExtension.class})
+public class SpillLogTest {
+    private static final int SEGMENT_SIZE = 256;
+    private static final String STREAM = "RandomStream";
+    // Record header, dynamic stream byte, stream name length, "RandomStream" and a 20 byte payload
+    private static final int RECORD_SIZE = SpillLog.RECORD_HEADER_SIZE + 3 + 12 + 20;
+
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    void GIVEN_appended_messages_WHEN_consumed_THEN_returned_in_order() throws Exception {
+        SpillLog spillLog = new SpillLog(spillDirectory, SEGMENT_SIZE, 4 * SEGMENT_SIZE, FsyncPolicy.NEVER, 0);
+        assertThat(spillLog.peek(STREAM), is(nullValue()));
+        for (int i = 0; i < 12; i++) {
+            Assertions.assertTrue(spillLog.append(message(i, i % 2 == 0)));
+        }
+        assertThat(spillLog.getPendingRecords(), is(12L));
+
+        for (int i = 0; i < 12; i++) {
+            SpillRecord record = spillLog.peek(STREAM);
+            assertThat(record.getMessage(), is(equalTo(message(i, i % 2 == 0))));
+            spillLog.markConsumed(record);
+        }
+        assertThat(spillLog.peek(STREAM), is(nullValue()));
+        Assertions.assertTrue(spillLog.isEmpty());
+        spillLog.close();
+    }
+
+    @Test
+    void GIVEN_partly_consumed_log_WHEN_reopened_THEN_unconsumed_messages_recovered() throws Exception {
+        SpillLog spillLog = new SpillLog(spillDirectory, SEGMENT_SIZE, 4 * SEGMENT_SIZE, FsyncPolicy.ALWAYS, 0);
+        for (int i = 0; i < 12; i++) {
+            spillLog.append(message(i, false));
+        }
+        for (int i = 0; i < 7; i++) {
+            spillLog.markConsumed(spillLog.peek(STREAM));
+        }
+        spillLog.close();
+        Assertions.assertFalse(spillLog.append(message(12, false)));
+
+        SpillLog reopened = new SpillLog(spillDirectory, SEGMENT_SIZE, 4 * SEGMENT_SIZE, FsyncPolicy.ALWAYS, 0);
+        assertThat(reopened.getPendingRecords(), is(5L));
+        reopened.append(message(12, false));
+        for (int i = 7; i < 13; i++) {
+            SpillRecord record = reopened.peek(STREAM);
+            assertThat(record.getMessage(), is(equalTo(message(i, false))));
+            reopened.markConsumed(record);
+        }
+        assertThat(reopened.peek(STREAM), is(nullValue()));
+        reopened.close();
+    }
+
+    @Test
+    void GIVEN_consumed_segments_WHEN_more_messages_appended_THEN_segments_recycled() throws Exception {
+        SpillLog spillLog = new SpillLog(spillDirectory, SEGMENT_SIZE, 3 * SEGMENT_SIZE, FsyncPolicy.INTERVAL, 10);
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertTrue(spillLog.append(message(i, false)));
+            SpillRecord record = spillLog.peek(STREAM);
+            assertThat(record.getMessage(), is(equalTo(message(i, false))));
+            spillLog.markConsumed(record);
+        }
+        assertThat(spillLog.getSegmentCount(), is(lessThanOrEqualTo(3)));
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            assertThat(files.count(), is(lessThanOrEqualTo(3L)));
+        }
+        spillLog.close();
+    }
+
+    @Test
+    void GIVEN_full_log_WHEN_append_THEN_message_dropped_until_space_freed() throws Exception {
+        SpillLog spillLog = new SpillLog(spillDirectory, SEGMENT_SIZE, 2 * SEGMENT_SIZE, FsyncPolicy.NEVER, 0);
+        int recordsPerSegment = (SEGMENT_SIZE - SpillLog.SEGMENT_HEADER_SIZE) / RECORD_SIZE;
+        for (int i = 0; i < 2 * recordsPerSegment; i++) {
+            Assertions.assertTrue(spillLog.append(message(i, false)));
+        }
+        Assertions.assertFalse(spillLog.append(message(0, false)));
+        assertThat(spillLog.getDroppedCount(), is(1L));
+
+        // Consuming the first segment frees it for new records
+        for (int i = 0; i < recordsPerSegment; i++) {
+            spillLog.markConsumed(spillLog.peek(STREAM));
+        }
+        Assertions.assertTrue(spillLog.append(message(0, false)));
+        spillLog.close();
+    }
+
+    @Test
+    void GIVEN_torn_record_WHEN_reopened_THEN_record_and_following_ones_ignored() throws Exception {
+        SpillLog spillLog = new SpillLog(spillDirectory, SEGMENT_SIZE, 4 * SEGMENT_SIZE, FsyncPolicy.ALWAYS, 0);
+        for (int i = 0; i < 3; i++) {
+            spillLog.append(message(i, false));
+        }
+        spillLog.close();
+        try (RandomAccessFile file = new RandomAccessFile(spillDirectory.resolve("segment-0.spill").toFile(), "rw")) {
+            // Corrupt the payload of the second record
+            long position = SpillLog.SEGMENT_HEADER_SIZE + RECORD_SIZE + RECORD_SIZE - 1;
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xFF);
+        }
+
+        SpillLog reopened = new SpillLog(spillDirectory, SEGMENT_SIZE, 4 * SEGMENT_SIZE, FsyncPolicy.ALWAYS, 0);
+        assertThat(reopened.getPendingRecords(), is(1L));
+        reopened.append(message(3, false));
+        reopened.markConsumed(reopened.peek(STREAM));
+        assertThat(reopened.peek(STREAM).getMessage(), is(equalTo(message(3, false))));
+        reopened.close();
+    }
+
+    @Test
+    void GIVEN_message_larger_than_segment_WHEN_append_THEN_dropped() throws Exception {
+        SpillLog spillLog = new SpillLog(spillDirectory, SEGMENT_SIZE, 4 * SEGMENT_SIZE, FsyncPolicy.NEVER, 0);
+        Assertions.assertFalse(spillLog.append(new StreamMessage("RandomStream", new byte[SEGMENT_SIZE])));
+        assertThat(spillLog.getDroppedCount(), is(1L));
+        Assertions.assertTrue(spillLog.isEmpty());
+        spillLog.close();
+    }
+
+    @Test
+    void GIVEN_record_not_peeked_WHEN_mark_consumed_THEN_throws() throws Exception {
+        SpillLog spillLog = new SpillLog(spillDirectory, SEGMENT_SIZE, 4 * SEGMENT_SIZE, FsyncPolicy.NEVER, 0);
+        spillLog.append(message(0, false));
+        spillLog.append(message(1, false));
+        SpillRecord first = spillLog.peek(STREAM);
+        spillLog.markConsumed(first);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> spillLog.markConsumed(first));
+        spillLog.close();
+    }
+
+    @Test
+    void GIVEN_messages_of_several_streams_WHEN_one_stream_consumed_THEN_others_kept_in_order() throws Exception {
+        SpillLog spillLog = new SpillLog(spillDirectory, SEGMENT_SIZE, 4 * SEGMENT_SIZE, FsyncPolicy.ALWAYS, 0);
+        for (int i = 0; i < 6; i++) {
+            spillLog.append(new StreamMessage(i % 2 == 0 ? "Even" : "Odd", new byte[]{(byte) i}));
+        }
+        assertThat(spillLog.getPendingStreams(), containsInAnyOrder("Even", "Odd"));
+        for (int i = 1; i < 6; i += 2) {
+            SpillRecord record = spillLog.peek("Odd");
+            assertThat(record.getMessage().getPayload()[0], is((byte) i));
+            spillLog.markConsumed(record);
+        }
+        Assertions.assertFalse(spillLog.hasPending("Odd"));
+        Assertions.assertTrue(spillLog.hasPending("Even"));
+        spillLog.close();
+
+        SpillLog reopened = new SpillLog(spillDirectory, SEGMENT_SIZE, 4 * SEGMENT_SIZE, FsyncPolicy.ALWAYS, 0);
+        assertThat(reopened.getPendingStreams(), containsInAnyOrder("Even"));
+        for (int i = 0; i < 6; i += 2) {
+            SpillRecord record = reopened.peek("Even");
+            assertThat(record.getMessage().getPayload()[0], is((byte) i));
+            reopened.markConsumed(record);
+        }
+        Assertions.assertTrue(reopened.isEmpty());
+        reopened.close();
+    }
+
+    @Test
+    void GIVEN_stream_never_consumed_WHEN_other_stream_consumed_THEN_only_segments_with_its_records_kept()
+            throws Exception {
+        SpillLog spillLog = new SpillLog(spillDirectory, SEGMENT_SIZE, 3 * SEGMENT_SIZE, FsyncPolicy.NEVER, 0);
+        Assertions.assertTrue(spillLog.append(new StreamMessage("Stuck", new byte[]{0})));
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertTrue(spillLog.append(message(i, false)));
+            spillLog.markConsumed(spillLog.peek(STREAM));
+        }
+        assertThat(spillLog.getSegmentCount(), is(lessThanOrEqualTo(3)));
+        assertThat(spillLog.peek("Stuck").getMessage().getPayload()[0], is((byte) 0));
+        spillLog.close();
+    }
+
+    private static StreamMessage message(int index, boolean dynamicStream) {
+        byte[] payload = String.format("payload %012d", index).getBytes(StandardCharsets.UTF_8);
+        return new StreamMessage(STREAM, payload, dynamicStream);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.aws.greengrass.smbridge.spill;
+
+import com.aws.greengrass.smbridge.StreamMessage;
+import com.aws.greengrass.smbridge.clients.SMClientException;
+import com.aws.greengrass.testcommons.testutilities.GGExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static com.aws.greengrass.testcommons.testutilities.ExceptionLogProtector.ignoreExceptionOfType;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+@ExtendWith({MockitoExtension.class, GGExtension.class})
+public class SpillReplayerTest {
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    void GIVEN_spilled_messages_WHEN_publish_fails_then_recovers_THEN_replayed_in_order(ExtensionContext context)
+            throws Exception {
+        ignoreExceptionOfType(context, SMClientException.class);
+        SpillLog spillLog = new SpillLog(spillDirectory, 1024, 4096, FsyncPolicy.NEVER, 0);
+        for (int i = 0; i < 10; i++) {
+            spillLog.append(new StreamMessage("RandomStream", new byte[]{(byte) i}));
+        }
+
+        List<Byte> published = new CopyOnWriteArrayList<>();
+        AtomicInteger failuresLeft = new AtomicInteger(3);
+        SpillReplayer replayer = new SpillReplayer(spillLog, message -> {
+            if (failuresLeft.getAndDecrement() > 0) {
+                throw new SMClientException("Stream Manager unavailable");
+            }
+            published.add(message.getPayload()[0]);
+        }, 1, 10, 2);
+        replayer.start();
+
+        waitUntil(spillLog::isEmpty);
+        replayer.stop();
+        assertThat(published, contains((byte) 0, (byte) 1, (byte) 2, (byte) 3, (byte) 4, (byte) 5, (byte) 6,
+                (byte) 7, (byte) 8, (byte) 9));
+        assertThat(replayer.getReplayedCount(), is(10L));
+        spillLog.close();
+    }
+
+    @Test
+    void GIVEN_spilled_message_WHEN_publish_fails_permanently_THEN_dropped_and_replay_continues(
+            ExtensionContext context) throws Exception {
+        ignoreExceptionOfType(context, SMClientException.class);
+        SpillLog spillLog = new SpillLog(spillDirectory, 1024, 4096, FsyncPolicy.NEVER, 0);
+        spillLog.append(new StreamMessage("LimitedStream", new byte[]{0}, true));
+        spillLog.append(new StreamMessage("RandomStream", new byte[]{1}));
+
+        List<String> published = new CopyOnWriteArrayList<>();
+        SpillReplayer replayer = new SpillReplayer(spillLog, message -> {
+            if (message.isDynamicStream()) {
+                throw new SMClientException("Dynamic stream limit reached", false);
+            }
+            published.add(message.getStream());
+        }, 1, 10, 2);
+        replayer.start();
+
+        waitUntil(spillLog::isEmpty);
+        replayer.stop();
+        assertThat(published, contains("RandomStream"));
+        assertThat(replayer.getDroppedCount(), is(1L));
+        spillLog.close();
+    }
+
+    @Test
+    void GIVEN_stream_failing_WHEN_replaying_THEN_other_streams_replayed(ExtensionContext context) throws Exception {
+        ignoreExceptionOfType(context, SMClientException.class);
+        SpillLog spillLog = new SpillLog(spillDirectory, 1024, 4096, FsyncPolicy.NEVER, 0);
+        for (int i = 0; i < 5; i++) {
+            spillLog.append(new StreamMessage("UnhealthyStream", new byte[]{(byte) i}));
+            spillLog.append(new StreamMessage("RandomStream", new byte[]{(byte) i}));
+        }
+
+        List<Byte> published = new CopyOnWriteArrayList<>();
+        SpillReplayer replayer = new SpillReplayer(spillLog, message -> {
+            if ("UnhealthyStream".equals(message.getStream())) {
+                throw new SMClientException("Stream unavailable");
+            }
+            published.add(message.getPayload()[0]);
+        }, 1, 10, 2);
+        replayer.start();
+
+        waitUntil(() -> !spillLog.hasPending("RandomStream"));
+        replayer.stop();
+        assertThat(published, contains((byte) 0, (byte) 1, (byte) 2, (byte) 3, (byte) 4));
+        assertThat(spillLog.getPendingRecords(), is(5L));
+        assertThat(spillLog.peek("UnhealthyStream").getMessage().getPayload()[0], is((byte) 0));
+        spillLog.close();
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}